@@ -0,0 +1,80 @@
+package gitlet;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of Cache.getHashObject(): a hit, and a miss that reads and decodes the object,
+ * for a commit and for its Tree of a number of files.
+ *
+ * @author XIE Changyuan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+
+    /** The number of files of the commit. */
+    @Param({"10", "1000"})
+    int files;
+
+    /** The synthetic repository. */
+    private File _dir;
+    /** The ID of the commit. */
+    private String _commitID;
+    /** The ID of its Tree. */
+    private String _treeID;
+
+    @Setup
+    public void setUp() {
+        _dir = SyntheticRepository.create();
+        _commitID = SyntheticRepository.commit(SyntheticRepository.files(0, files, 0), "files");
+        _treeID = Cache.getCommit(_commitID).getCommitTreeID();
+        SyntheticRepository.finish();
+        Cache.getHashObject(_commitID);
+        Cache.getHashObject(_treeID);
+    }
+
+    @TearDown
+    public void tearDown() {
+        SyntheticRepository.delete(_dir);
+    }
+
+    @Benchmark
+    public HashObject commitHit() {
+        return Cache.getHashObject(_commitID);
+    }
+
+    @Benchmark
+    public HashObject commitMiss() {
+        ObjectDatabase.closeAll();
+        return Cache.getHashObject(_commitID);
+    }
+
+    @Benchmark
+    public HashObject treeHit() {
+        return Cache.getHashObject(_treeID);
+    }
+
+    @Benchmark
+    public HashObject treeMiss() {
+        ObjectDatabase.closeAll();
+        return Cache.getHashObject(_treeID);
+    }
+}
@@ -0,0 +1,60 @@
+package gitlet;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of hashing: Utils.sha1() of contents of various sizes, and the ID of a Blob,
+ * which every working file the stat index does not know costs (see Blob.currFileID()).
+ *
+ * @author XIE Changyuan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashingBenchmark {
+
+    /** The number of bytes hashed. */
+    @Param({"64", "4096", "1048576"})
+    int size;
+
+    /** The bytes hashed. */
+    private byte[] _bytes;
+    /** The same bytes as a String, the content of a Blob. */
+    private String _content;
+
+    @Setup
+    public void setUp() {
+        _bytes = new byte[size];
+        Random random = new Random(size);
+        for (int i = 0; i < size; i += 1) {
+            _bytes[i] = (byte) ('a' + random.nextInt(26));
+        }
+        _content = new String(_bytes);
+    }
+
+    @Benchmark
+    public String sha1() {
+        return Utils.sha1(_bytes);
+    }
+
+    @Benchmark
+    public String blobID() {
+        return new Blob(_content).id();
+    }
+}
@@ -0,0 +1,82 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of Commit.lca() over two branches of a number of commits each, which split at the first commit,
+ * so that the whole history is walked. The commits are either cached already,
+ * or read from the object database as in a new process.
+ *
+ * @author XIE Changyuan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+
+    /** The number of commits of each branch. */
+    @Param({"100", "1000"})
+    int commits;
+
+    /** The synthetic repository. */
+    private File _dir;
+    /** The ID of the head commit of the master branch. */
+    private String _masterID;
+    /** The ID of the head commit of the other branch. */
+    private String _otherID;
+
+    @Setup
+    public void setUp() {
+        _dir = SyntheticRepository.create();
+        SyntheticRepository.commit(SyntheticRepository.files(0, 1, 0), "base");
+        Repository.branch("other");
+        _masterID = commitMany("master.txt");
+        Repository.checkout3("other");
+        _otherID = commitMany("other.txt");
+        Repository.checkout3("master");
+        SyntheticRepository.finish();
+    }
+
+    @TearDown
+    public void tearDown() {
+        SyntheticRepository.delete(_dir);
+    }
+
+    @Benchmark
+    public Commit lca() {
+        return Commit.lca(Cache.getCommit(_masterID), Cache.getCommit(_otherID));
+    }
+
+    @Benchmark
+    public Commit lcaUncached() {
+        ObjectDatabase.closeAll();
+        return Commit.lca(Cache.getCommit(_masterID), Cache.getCommit(_otherID));
+    }
+
+    /** Make COMMITS commits on the current branch, each changing the file with designated name. */
+    private String commitMany(String fileName) {
+        String commitID = null;
+        for (int i = 0; i < commits; i += 1) {
+            commitID = SyntheticRepository.commit(Map.of(fileName, "version " + i + "\n"), fileName + " " + i);
+        }
+        return commitID;
+    }
+}
@@ -0,0 +1,100 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the merge: the merge plan of Repository.mergeLogic() over three Trees of a number of files,
+ * of which each branch changed a tenth and both changed a hundredth, and the diff3 merge of one file
+ * of a number of lines (see LineMerge), both sides having changed lines here and there.
+ *
+ * @author XIE Changyuan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergeBenchmark {
+
+    /** The number of files of the Trees, and the number of lines of the file merged line by line. */
+    @Param({"100", "10000"})
+    int size;
+
+    /** The synthetic repository. */
+    private File _dir;
+    /** The split commit, and the head commits of both branches. */
+    private Commit _split;
+    private Commit _curr;
+    private Commit _other;
+    /** The base content, and the contents of both sides, of the file merged line by line. */
+    private String _base;
+    private String _ours;
+    private String _theirs;
+
+    @Setup
+    public void setUp() {
+        int tenth = Math.max(1, size / 10);
+        int hundredth = Math.max(1, size / 100);
+        _dir = SyntheticRepository.create();
+        SyntheticRepository.commit(SyntheticRepository.files(0, size, 0), "base");
+        Repository.branch("other");
+        Map<String, String> ours = SyntheticRepository.files(0, tenth, 1);
+        ours.putAll(SyntheticRepository.files(2 * tenth, 2 * tenth + hundredth, 1));
+        SyntheticRepository.commit(ours, "ours");
+        Repository.checkout3("other");
+        Map<String, String> theirs = SyntheticRepository.files(tenth, 2 * tenth, 2);
+        theirs.putAll(SyntheticRepository.files(2 * tenth, 2 * tenth + hundredth, 2));
+        SyntheticRepository.commit(theirs, "theirs");
+        Repository.checkout3("master");
+        SyntheticRepository.finish();
+        _curr = Cache.getLatestCommit();
+        _other = Cache.getCommit(Cache.getBranch("other"));
+        _split = Commit.lca(_curr, _other);
+
+        StringBuilder base = new StringBuilder();
+        StringBuilder oursLines = new StringBuilder();
+        StringBuilder theirsLines = new StringBuilder();
+        for (int i = 0; i < size; i += 1) {
+            String line = "line " + i + "\n";
+            base.append(line);
+            oursLines.append(i % 50 == 0 ? "ours " + line : line);
+            theirsLines.append(i % 70 == 0 ? "theirs " + line : line);
+        }
+        _base = base.toString();
+        _ours = oursLines.toString();
+        _theirs = theirsLines.toString();
+    }
+
+    @TearDown
+    public void tearDown() {
+        SyntheticRepository.delete(_dir);
+    }
+
+    @Benchmark
+    public Map<String, Set<String>> mergeLogic() {
+        return Repository.mergeLogic(_split, _curr, _other, new TreeMap<>());
+    }
+
+    @Benchmark
+    public LineMerge diff3() {
+        return LineMerge.merge(_base, _ours, _theirs);
+    }
+}
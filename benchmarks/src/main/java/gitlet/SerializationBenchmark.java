@@ -0,0 +1,58 @@
+package gitlet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the encoding of HashObjects: a Tree of a number of entries serialized and compressed
+ * as the write back pipeline does, and decoded as the object database does on a cache miss.
+ *
+ * @author XIE Changyuan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    /** The number of entries of the Tree. */
+    @Param({"10", "1000", "100000"})
+    int entries;
+
+    /** The Tree encoded. */
+    private Tree _tree;
+    /** The Tree as written to the object database. */
+    private byte[] _encoded;
+
+    @Setup
+    public void setUp() {
+        _tree = new Tree();
+        for (int i = 0; i < entries; i += 1) {
+            _tree.putBlobID(SyntheticRepository.fileName(i), Utils.sha1(SyntheticRepository.content(i, 0)));
+        }
+        _encoded = Utils.compress(Utils.serialize(_tree));
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return Utils.compress(Utils.serialize(_tree));
+    }
+
+    @Benchmark
+    public HashObject deserialize() {
+        return Utils.deserialize(_encoded, HashObject.class);
+    }
+}
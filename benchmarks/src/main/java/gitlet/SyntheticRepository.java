@@ -0,0 +1,125 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Repository.CWD;
+import static gitlet.Utils.*;
+
+/**
+ * This class builds the synthetic repositories the benchmarks run against, each in a new temporary directory,
+ * through the same methods the commands use. Several commands may run before the caches are written back
+ * with finish(), exactly as if they were one Gitlet process.
+ *
+ * Working files are written with a modification time in the past, so that the entries the stat index records
+ * for them are trusted (see StatIndex), as they are in a repository whose files were not just written.
+ * This class will never be instantiated since there are only static methods.
+ *
+ * @author XIE Changyuan
+ */
+final class SyntheticRepository {
+
+    /** The modification time of the working files written by commit(): an hour ago. */
+    private static final long OLD = System.currentTimeMillis() - 3600_000;
+    /** The number of lines of a synthetic file. */
+    private static final int LINES = 20;
+
+    private SyntheticRepository() {
+    }
+
+    /** Create a repository in a new temporary directory, with the initial commit, and make it the current one. */
+    static File create() {
+        File dir;
+        try {
+            dir = Files.createTempDirectory("gitlet-bench").toFile();
+        } catch (IOException excp) {
+            throw new IllegalStateException(excp);
+        }
+        open(dir);
+        Repository.init();
+        finish();
+        return dir;
+    }
+
+    /** Make the repository in DIR the current one, with empty caches. */
+    static void open(File dir) {
+        Cache.cleanCache();
+        Repository.assignStaticVariables(dir);
+    }
+
+    /** Write back the caches as Main does at the end of a command, and empty them. */
+    static void finish() {
+        Cache.writeBack();
+        Cache.cleanCache();
+    }
+
+    /**
+     * Write the designated working files, add them and commit them.
+     * @param files the file name - content pairs
+     * @return the ID of the new commit
+     */
+    static String commit(Map<String, String> files, String message) {
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            File working = join(CWD, file.getKey());
+            writeContents(working, file.getValue());
+            working.setLastModified(OLD);
+            Repository.add(file.getKey());
+        }
+        Repository.commit(message);
+        return Cache.getLatestCommitID();
+    }
+
+    /** Return the files [from, to) in their designated version, as file name - content pairs. */
+    static Map<String, String> files(int from, int to, int version) {
+        Map<String, String> files = new TreeMap<>();
+        for (int i = from; i < to; i += 1) {
+            files.put(fileName(i), content(i, version));
+        }
+        return files;
+    }
+
+    /** Return the name of the synthetic file I. */
+    static String fileName(int i) {
+        return String.format("file%06d.txt", i);
+    }
+
+    /** Return the content of a version of the synthetic file I: LINES lines, the middle one holding the version. */
+    static String content(int i, int version) {
+        StringBuilder content = new StringBuilder();
+        for (int line = 0; line < LINES; line += 1) {
+            content.append("file ").append(i).append(" line ").append(line);
+            if (line == LINES / 2) {
+                content.append(" version ").append(version);
+            }
+            content.append('\n');
+        }
+        return content.toString();
+    }
+
+    /** Return a stream that drops what is printed to it, to stand in for System.out. */
+    static PrintStream nullOutput() {
+        return new PrintStream(OutputStream.nullOutputStream());
+    }
+
+    /** Delete a synthetic repository with its working files. */
+    static void delete(File dir) {
+        Cache.cleanCache();
+        deleteRecursively(dir);
+    }
+
+    /** Delete a file, or a directory with everything in it. */
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
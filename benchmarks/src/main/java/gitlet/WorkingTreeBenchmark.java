@@ -0,0 +1,82 @@
+package gitlet;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the commands over the working directory, each run as a new process would:
+ * with empty caches, and writing back at the end.
+ * 1. status over a number of clean working files, which the stat index knows (see StatIndex)
+ * 2. checkoutToCommit back and forth between two commits of a number of files, a tenth of which differ,
+ *    as back-to-back reset commands do
+ *
+ * @author XIE Changyuan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkingTreeBenchmark {
+
+    /** The number of files of the commits. */
+    @Param({"100", "10000"})
+    int files;
+
+    /** The synthetic repository. */
+    private File _dir;
+    /** The IDs of the two commits checked out in turn. */
+    private String[] _commitIDs;
+    /** The number of checkouts so far, which picks the next commit. */
+    private int _checkouts = 0;
+    /** The standard output, which the printing commands must not flood. */
+    private PrintStream _stdout;
+
+    @Setup
+    public void setUp() {
+        _dir = SyntheticRepository.create();
+        String first = SyntheticRepository.commit(SyntheticRepository.files(0, files, 0), "first");
+        String second = SyntheticRepository.commit(SyntheticRepository.files(0, Math.max(1, files / 10), 1),
+                "second");
+        SyntheticRepository.finish();
+        _commitIDs = new String[]{first, second};
+        _stdout = System.out;
+        System.setOut(SyntheticRepository.nullOutput());
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(_stdout);
+        SyntheticRepository.delete(_dir);
+    }
+
+    @Benchmark
+    public void status() {
+        Repository.status();
+        SyntheticRepository.finish();
+    }
+
+    @Benchmark
+    public void checkoutToCommit() {
+        String commitID = _commitIDs[_checkouts % 2];
+        _checkouts += 1;
+        Repository.checkoutToCommit(commitID);
+        Branch.moveCurrBranch(commitID);
+        SyntheticRepository.finish();
+    }
+}
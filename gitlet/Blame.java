@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Cache.*;
+import static gitlet.Repository.blameDir;
+import static gitlet.Repository.printAndExit;
+import static gitlet.Utils.*;
+
+/**
+ * This class houses static methods of the blame command, which prints the commit that last changed
+ * every line of a file in the head commit.
+ *
+ * The first-parent history is walked from the head commit, tracing the position of every unattributed line
+ * in the version of the file at hand. A commit whose changed-path filter does not hold the path (see ChangedPaths)
+ * changed nothing, and is passed without reading its Tree, and a commit whose parent holds the same Blob
+ * is passed without reading any content; only where the Blob ID changes are the two versions diffed (see LineDiff),
+ * and the lines the commit inserted are attributed to it. The walk follows the file across renames
+ * (see Rename), and stops as soon as every line is attributed, or at a root commit or a shallow boundary,
+ * which the remaining lines are attributed to.
+ *
+ * The result is cached in the .gitlet/blame directory, one file per commit and path, holding the Blob ID and
+ * the commit of every line, written atomically outside the journal like the other caches. A later walk that reaches a commit with a cached result takes the attribution
+ * of its remaining lines from there, so blaming the same file again costs one read,
+ * and blaming it after a few more commits only walks those commits.
+ * This class will never be instantiated since there are only static methods.
+ *
+ * @author XIE Changyuan
+ */
+public class Blame {
+
+    /** The number of characters of the abbreviated commit IDs printed. */
+    private static final int ABBREVIATED_ID = 8;
+
+    /* BLAME COMMAND */
+
+    /**
+     * Print every line of the file with designated name in the head commit, after the abbreviated ID
+     * and the date of the commit that last changed it, and its line number.
+     * Abort if the head commit does not track the file.
+     */
+    static void blame(String fileName) {
+        Repository.assertGITLET();
+        Commit head = getLatestCommit();
+        String blobID = head.getBlobID(fileName);
+        if (blobID == null) {
+            printAndExit("File does not exist in that commit.");
+        } // Special case: abort if the head commit does not track the file.
+        List<String> lines = LineDiff.splitLines(getBlob(blobID).getContent());
+        String[] owners = blameLines(head, fileName);
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z");
+        int width = String.valueOf(lines.size()).length();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+        for (int i = 0; i < lines.size(); i += 1) {
+            String line = lines.get(i);
+            out.print(owners[i].substring(0, ABBREVIATED_ID) + " ("
+                    + format.format(new Date(getCommit(owners[i]).getTime())) + " "
+                    + String.format("%" + width + "d", i + 1) + ") "
+                    + (line.endsWith("\n") ? line : line + "\n"));
+        }
+        out.flush();
+    }
+
+    /**
+     * Return the ID of the commit that last changed every line of the file with designated name
+     * in the HEAD commit, which must track it, and cache the result.
+     * 1. Start with every line unattributed, at its own position in the head version
+     * 2. Walk the first parents, passing the commits whose changed-path filter misses the path
+     *    or whose parent holds the same Blob,
+     *    or take the attribution of the remaining lines from a cached result and stop
+     * 3. At a commit that changed the Blob, diff the parent version against it: attribute the inserted lines
+     *    to the commit, and trace the others to their positions in the parent version
+     * 4. Stop when every line is attributed, or attribute the remaining lines to a commit without a parent
+     *    version (it added the file, or is a root commit or a shallow boundary)
+     */
+    static String[] blameLines(Commit head, String fileName) {
+        Set<String> cached = cachedKeys();
+        String headBlobID = head.getBlobID(fileName);
+        List<String> lines = LineDiff.splitLines(getBlob(headBlobID).getContent());
+        String[] owners = new String[lines.size()];
+        int[] positions = new int[lines.size()]; // The position of every unattributed line, -1 if attributed.
+        for (int i = 0; i < positions.length; i += 1) {
+            positions[i] = i;
+        }
+        int left = lines.size();
+        Commit commit = head;
+        String path = fileName;
+        String blobID = headBlobID;
+        List<String> versionLines = lines;
+        while (left > 0) {
+            String[] cachedOwners = cached.contains(key(commit.id(), path)) ? readCache(commit.id(), path, blobID)
+                    : null;
+            if (cachedOwners != null) {
+                for (int i = 0; i < positions.length; i += 1) {
+                    if (positions[i] >= 0) {
+                        owners[i] = cachedOwners[positions[i]];
+                    }
+                }
+                if (commit == head) {
+                    return owners;
+                } // Special case: the head itself was blamed before, there is nothing new to cache.
+                break;
+            } // Special case: the rest of the history was blamed before.
+            Commit parent = firstParent(commit);
+            if (parent != null && !ChangedPaths.mayHaveChanged(commit.id(), path)) {
+                commit = parent;
+                continue;
+            } // Special case: the changed-path filter tells the commit did not change the file, without any Tree.
+            String parentPath = path;
+            String parentBlobID = parent == null ? null : parent.getBlobID(path);
+            if (parent != null && parentBlobID == null) {
+                parentPath = Rename.renames(parent.getCommitTreeID(), commit.getCommitTreeID()).get(path);
+                parentBlobID = parentPath == null ? null : parent.getBlobID(parentPath);
+            } // Special case: follow the file to the path it was renamed from.
+            if (parentBlobID == null) {
+                for (int i = 0; i < positions.length; i += 1) {
+                    if (positions[i] >= 0) {
+                        owners[i] = commit.id();
+                    }
+                }
+                break;
+            } // Special case: the commit added the file, or has no parent to blame.
+            if (!parentBlobID.equals(blobID)) {
+                List<String> parentLines = LineDiff.splitLines(getBlob(parentBlobID).getContent());
+                int[] toParent = trace(LineDiff.diff(parentLines, versionLines), versionLines.size());
+                for (int i = 0; i < positions.length; i += 1) {
+                    if (positions[i] >= 0) {
+                        positions[i] = toParent[positions[i]];
+                        if (positions[i] < 0) {
+                            owners[i] = commit.id();
+                            left -= 1;
+                        }
+                    }
+                }
+                versionLines = parentLines;
+                blobID = parentBlobID;
+            } // Only a commit that changed the Blob is diffed.
+            commit = parent;
+            path = parentPath;
+        }
+        writeCache(head.id(), fileName, headBlobID, owners);
+        return owners;
+    }
+
+    /* HELPER METHODS */
+
+    /** Return the first parent of a commit, or null if it is a root commit or a shallow boundary. */
+    private static Commit firstParent(Commit commit) {
+        String parentID = commit.getParentCommitID();
+        if (parentID == null || parentID.isEmpty() || Shallow.isShallow(commit.id())) {
+            return null;
+        }
+        return getCommit(parentID);
+    }
+
+    /**
+     * Return the position in the old version of every line of the new version of SIZE lines,
+     * -1 for the lines the EDITS insert.
+     */
+    private static int[] trace(List<LineDiff> edits, int size) {
+        int[] toOld = new int[size];
+        int newPos = 0;
+        int oldPos = 0;
+        for (LineDiff edit : edits) {
+            for (; newPos < edit.getBStart(); newPos += 1, oldPos += 1) {
+                toOld[newPos] = oldPos;
+            }
+            for (; newPos < edit.getBEnd(); newPos += 1) {
+                toOld[newPos] = -1;
+            }
+            oldPos = edit.getAEnd();
+        }
+        for (; newPos < size; newPos += 1, oldPos += 1) {
+            toOld[newPos] = oldPos;
+        }
+        return toOld;
+    }
+
+    /** Return the name of the cache file of the blame of a path at a commit. */
+    private static String key(String commitID, String fileName) {
+        return sha1(commitID, fileName);
+    }
+
+    /** Return the names of the cache files, listed once per blame. */
+    private static Set<String> cachedKeys() {
+        String[] names = blameDir().list();
+        return names == null ? new HashSet<>() : new HashSet<>(Arrays.asList(names));
+    }
+
+    /**
+     * Read the cached blame of a path at a commit.
+     * @return the commit of every line, or null if the cache does not hold the Blob with designated ID
+     */
+    private static String[] readCache(String commitID, String fileName, String blobID) {
+        File file = join(blameDir(), key(commitID, fileName));
+        if (!file.isFile()) {
+            return null;
+        }
+        String[] entries = readContentsAsString(file).split("\n");
+        if (!entries[0].equals(blobID)) {
+            return null;
+        } // Special case: a damaged or unrelated cache file is ignored.
+        return Arrays.copyOfRange(entries, 1, entries.length);
+    }
+
+    /**
+     * Write the blame of a path at a commit: the Blob ID, then the commit of every line.
+     * The blame cache is a cache rather than a reference: it is written atomically on its own,
+     * outside the journal, so the read-only blame command never takes the reference lock,
+     * and a concurrent commit is never a conflict.
+     */
+    private static void writeCache(String commitID, String fileName, String blobID, String[] owners) {
+        StringBuilder content = new StringBuilder(blobID).append('\n');
+        for (String owner : owners) {
+            content.append(owner).append('\n');
+        }
+        blameDir().mkdirs();
+        writeContentsAtomically(join(blameDir(), key(commitID, fileName)), content.toString());
+    }
+}
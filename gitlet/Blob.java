@@ -3,7 +3,7 @@ package gitlet;
 import java.io.File;
 
 import static gitlet.Cache.cacheAndQueueForWriteHashObject;
-import static gitlet.Repository.CWD;
+import static gitlet.Repository.cwd;
 import static gitlet.Utils.join;
 import static gitlet.Utils.readContentsAsString;
 
@@ -46,23 +46,37 @@ public class Blob extends HashObject {
      * @return the ID of the new Blob
      */
     static String mkBlob(String fileName) {
-        File file = join(CWD, fileName);
+        File file = join(cwd(), fileName);
         if (!file.exists()) {
             return "";
         } // Special case: adding a file that not exists means adding for removal
+        long size = file.length();
+        long modified = file.lastModified();
         String content = readContentsAsString(file);
         Blob blob = new Blob(content);
-        return cacheAndQueueForWriteHashObject(blob);
+        String blobID = cacheAndQueueForWriteHashObject(blob);
+        StatIndex.record(fileName, new StatIndex.Entry(size, modified, blobID));
+        return blobID;
     }
 
-    /** Return the ID of a designated file's Blob without cache or saving a Blob. */
+    /**
+     * Return the ID of a designated file's Blob without cache or saving a Blob.
+     * The file is only read if the stat index does not know it as it is now (see StatIndex).
+     */
+    @SuppressWarnings("try")
     static String currFileID(String fileName) {
-        File file = join(CWD, fileName);
+        File file = join(cwd(), fileName);
         if (!file.exists()) {
             return "";
         }
-        String content = readContentsAsString(file);
-        Blob blob = new Blob(content);
-        return blob.id();
+        String indexedID = StatIndex.lookup(fileName, file);
+        if (indexedID != null) {
+            return indexedID;
+        } // Special case: the file still has the size and modification time it had when its Blob was known.
+        try (Trace.Phase phase = Trace.phase("hashFile")) {
+            String content = readContentsAsString(file);
+            Blob blob = new Blob(content);
+            return blob.id();
+        }
     }
 }
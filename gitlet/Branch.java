@@ -31,10 +31,7 @@ public class Branch {
             return null;
         } // Special case: loading a "no branch".
         File branchFile = branchFile(branchName);
-        if (!branchFile.exists()) {
-            return null;
-        } // Special case: loading a branch that do not exist.
-        return readContentsAsString(branchFile);
+        return currJournal().readReference(branchFile); // null if the branch does not exist
     }
 
     /** Return true if a branch exists. */
@@ -73,23 +70,23 @@ public class Branch {
     }
 
     /**
-     * Get the branch's information from cache and write it back to filesystem.
+     * Get the branch's information from cache and record it for writing back to filesystem.
      * Invoked by the Cache class.
      * @param branchName the designated branch name
      */
     static void writeBranch(String branchName) {
         File branchFile = branchFile(branchName);
-        writeContents(branchFile, getBranch(branchName));
+        currJournal().recordWrite(branchFile, getBranch(branchName));
     }
 
     /**
-     * Delete the designated branch in the filesystem.
+     * Record the deletion of the designated branch in the filesystem.
      * Invoked by the Cache class.
      * @param branchName the designated branch name.
      */
     static void deleteBranch(String branchName) {
         File branchFile = branchFile(branchName);
-        branchFile.delete();
+        currJournal().recordDelete(branchFile);
     }
 
     /**
@@ -122,14 +119,14 @@ public class Branch {
      * @return the current branch (HEAD file content)
      */
     static String loadHEAD() {
-        return readContentsAsString(HEAD);
+        return currJournal().readReference(headFile());
     }
 
     /**
-     * Get the HEAD from cache and write it back to filesystem. Invoked by the Cache class.
+     * Get the HEAD from cache and record it for writing back to filesystem. Invoked by the Cache class.
      */
     static void writeHEAD() {
-        writeContents(HEAD, getHEAD());
+        currJournal().recordWrite(headFile(), getHEAD());
     }
 
     /**
@@ -139,6 +136,28 @@ public class Branch {
         cacheHEAD(branchName);
     }
 
+    /**
+     * Return true if a branch name is safe to use as a path under the branches folder:
+     * a non-empty name, or a fetched remote branch "remote/branch", with no backslash
+     * and no "." or ".." component.
+     * @param branchName the designated branch name
+     */
+    static boolean isValidName(String branchName) {
+        if (branchName == null || branchName.isEmpty() || branchName.contains("\\")) {
+            return false;
+        }
+        String[] components = branchName.split("/", -1);
+        if (components.length > 2) {
+            return false;
+        } // Special case: only the single "remote/branch" form nests.
+        for (String component : components) {
+            if (component.isEmpty() || component.equals(".") || component.equals("..")) {
+                return false;
+            } // Special case: also rejects absolute paths, whose first component is empty.
+        }
+        return true;
+    }
+
     /**
      * Get the File object of a branch with designated name.
      * @param branchName the designated branch name.
@@ -149,10 +168,10 @@ public class Branch {
         if (branchName.contains("/")) {
             String folder = branchName.split("/")[0];
             String file = branchName.split("/")[1];
-            join(BRANCHES_DIR, folder).mkdir();
-            branchFile = join(BRANCHES_DIR, folder, file);
+            join(branchesDir(), folder).mkdir();
+            branchFile = join(branchesDir(), folder, file);
         } else {
-            branchFile = join(BRANCHES_DIR, branchName);
+            branchFile = join(branchesDir(), branchName);
         }
         return branchFile;
     }
@@ -160,7 +179,7 @@ public class Branch {
     /** Return a List of all branches' names. Support fetched remote branches. */
     private static List<String> allBranches() {
         List<String> branches = new ArrayList<>();
-        File[] files = BRANCHES_DIR.listFiles();
+        File[] files = branchesDir().listFiles();
         for (File file : files) {
             if (file.isDirectory()) {
                 String remoteName = file.getName();
@@ -1,22 +1,38 @@
 package gitlet;
 
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
 import static gitlet.Branch.*;
-import static gitlet.HashObject.*;
-import static gitlet.Repository.CWD;
+import static gitlet.ChangedPaths.loadChangedPaths;
+import static gitlet.ChangedPaths.appendChangedPaths;
+import static gitlet.Commit.loadAllCommitsID;
+import static gitlet.CommitGraph.loadCommitGraph;
+import static gitlet.CommitGraph.appendCommitGraph;
+import static gitlet.Commit.writeAllCommitsID;
+import static gitlet.Promisor.loadPromisors;
+import static gitlet.Promisor.writePromisors;
+import static gitlet.Repository.gitletDir;
+import static gitlet.Repository.indexFile;
+import static gitlet.Shallow.loadShallow;
+import static gitlet.Shallow.writeShallow;
 import static gitlet.Stage.loadStageID;
 import static gitlet.Stage.writeStageID;
+import static gitlet.StatIndex.loadStatIndex;
+import static gitlet.StatIndex.writeStatIndex;
 
 /**
  * This class is used to house static methods that facilitate
  * lazy loading and caching of persistence.
  * This file will set up data structures for caching, load necessary objects,
  * and write back the cache at the very end of execution.
- * This class will never be instantiated.
+ * An instance holds the caches of one repository, and every Repository has its own.
+ * The static methods act on the caches of the repository bound to the calling thread
+ * (see Repository.current()), so commands on different repositories never share a cache.
  *
  * This class defers all HashObject and its subclasses' logic to them.
  * For example, instead of deserialize and serialize objects directly,
@@ -30,22 +46,20 @@ import static gitlet.Stage.writeStageID;
  */
 public class Cache {
 
+    /** Return the caches of the repository bound to the calling thread. */
+    private static Cache curr() {
+        return Repository.currCache();
+    }
+
     /* CACHING OBJECT */
 
-    /** A Map that stores cached ID and HashObject pairs. */
-    static Map<String, HashObject> cachedHashObjects = new TreeMap<>();
-    static Map<String, HashObject> cachedRemoteHashObjects = new TreeMap<>();
+    /** Return the object database (and its cache) of the repository. */
+    static ObjectDatabase currObjectDatabase() {
+        return ObjectDatabase.open(gitletDir());
+    }
     /** Lazy loading and caching of HashObjects. */
-    private static HashObject getHashObject(String id) {
-        Map<String, HashObject> currCachedHashObjects =
-                inRemoteRepo() ? cachedRemoteHashObjects : cachedHashObjects;
-        if (id == null || id.equals("")) {
-            return null;
-        } // Special case: Get null or "" HashObject
-        if (!currCachedHashObjects.containsKey(id)) {
-            currCachedHashObjects.put(id, loadHashObject(id));
-        }
-        return currCachedHashObjects.get(id);
+    static HashObject getHashObject(String id) {
+        return currObjectDatabase().get(id);
     }
     static Commit getCommit(String id) {
         return (Commit) getHashObject(id);
@@ -54,7 +68,12 @@ public class Cache {
         return (Tree) getHashObject(id);
     }
     static Blob getBlob(String id) {
-        return (Blob) getHashObject(id);
+        Blob blob = (Blob) getHashObject(id);
+        if (blob == null && id != null && !getPromisors().isEmpty()) {
+            Promisor.prefetch(currObjectDatabase(), List.of(id));
+            blob = (Blob) getHashObject(id);
+        } // Special case: fault in a Blob left out by a partial fetch.
+        return blob;
     }
 
     /** Get the Commit object of the latest commit. */
@@ -63,80 +82,69 @@ public class Cache {
     }
 
 
-    /** New HashObjects' IDs that are queued for writing to filesystem. */
-    static final Set<String> QUEUED_FOR_WRITE_HASH_OBJECTS = new TreeSet<>();
     /** Put a HashObject into the cache, and queue for writing to filesystem.
+     * The object is handed to the write back pipeline at once,
+     * so it is encoded while the command goes on.
      * @return the ID of the HashObject
      */
     static String cacheAndQueueForWriteHashObject(HashObject object) {
-        Map<String, HashObject> currCachedHashObjects =
-                inRemoteRepo() ? cachedRemoteHashObjects : cachedHashObjects;
-        String id = object.id();
-        currCachedHashObjects.put(id, object);
-        QUEUED_FOR_WRITE_HASH_OBJECTS.add(id);
-        return id;
-    }
-    /** Write back all queued-for-writing HashObjects to filesystem. Invoked upon exit. */
+        return currObjectDatabase().put(object);
+    }
+    /**
+     * Wait until all queued-for-writing HashObjects are durably written to filesystem.
+     * This is the barrier before any reference is updated. Invoked upon exit.
+     */
     static void writeBackAllQueuedHashObject() {
-        for (String id : QUEUED_FOR_WRITE_HASH_OBJECTS) {
-            writeCachedHashObject(id);
-        }
+        currObjectDatabase().writeBack();
     }
 
 
     /** Deprecated HashObjects' IDs that are queued for deletion from filesystem. */
-    static final Set<String> QUEUED_FOR_DELETE_HASH_OBJECT = new TreeSet<>();
+    private final Set<String> _queuedForDelete = new TreeSet<>();
     /** Given a HashObject's ID, queue it for deletion. */
     static void queueForDeleteHashObject(String id) {
-        QUEUED_FOR_DELETE_HASH_OBJECT.add(id);
+        curr()._queuedForDelete.add(id);
     }
     /** Delete all queued-for-deletion HashObjects. Invoked upon exit. */
     static void deleteAllQueuedHashObject() {
-        for (String id : QUEUED_FOR_DELETE_HASH_OBJECT) {
-            deleteHashObject(id);
+        for (String id : curr()._queuedForDelete) {
+            currObjectDatabase().delete(id);
         }
     }
 
     /* CACHING BRANCH */
 
     /** Cached branches. */
-    static Map<String, String> cachedBranches = new TreeMap<>();
-    static Map<String, String> cachedRemoteBranches = new TreeMap<>();
+    private final Map<String, String> _branches = new TreeMap<>();
     /** Lazy loading and caching of branches.
      * @return the Commit ID pointed by branch branchName */
     static String getBranch(String branchName) {
-        Map<String, String> currCachedBranches =
-                inRemoteRepo() ? cachedRemoteBranches : cachedBranches;
-        if (!currCachedBranches.containsKey(branchName)) {
-            currCachedBranches.put(branchName, loadBranch(branchName));
+        Cache cache = curr();
+        if (!cache._branches.containsKey(branchName)) {
+            cache._branches.put(branchName, loadBranch(branchName));
         }
-        return currCachedBranches.get(branchName);
+        return cache._branches.get(branchName);
     }
     static String getLatestCommitID() {
         return getBranch(getHEAD());
     }
     static void cacheBranch(String branchName, String commitID) {
-        Map<String, String> currCachedBranches =
-                inRemoteRepo() ? cachedRemoteBranches : cachedBranches;
-        currCachedBranches.put(branchName, commitID);
+        curr()._branches.put(branchName, commitID);
     }
     static void wipeBranch(String branchName) {
-        Map<String, String> currCachedBranches =
-                inRemoteRepo() ? cachedRemoteBranches : cachedBranches;
-        currCachedBranches.put(branchName, "");
+        curr()._branches.put(branchName, "");
     }
     /**
      * Write back (update) all branches to filesystem. Invoked upon exit.
      * If a branch's pointer is wiped out, delete the branch file in the filesystem.
      */
     static void writeBackAllBranches() {
-        Map<String, String> currCachedBranches =
-                inRemoteRepo() ? cachedRemoteBranches : cachedBranches;
-        for (String branchName : currCachedBranches.keySet()) {
+        Cache cache = curr();
+        for (String branchName : cache._branches.keySet()) {
             if (branchName.equals("")) {
                 continue;
             } // Special case: ignore branch with empty name.
-            if (currCachedBranches.get(branchName).equals("")) { // wiped branches
+            if (cache._branches.get(branchName).equals("")) { // wiped branches
                 deleteBranch(branchName);
             } else {
                 writeBranch(branchName);
@@ -146,29 +154,19 @@ public class Cache {
 
     /* CACHING HEAD */
 
-    static String cachedHEAD = null;
-    static String cachedRemoteHEAD = null;
+    /** Cached HEAD. */
+    private String _head = null;
     /** Lazy loading and caching of HEAD (the current branch's branch name).
      * @return the current branch's name */
     static String getHEAD() {
-        if (inRemoteRepo()) {
-            if (cachedRemoteHEAD == null) {
-                cachedRemoteHEAD = loadHEAD();
-            }
-            return cachedRemoteHEAD;
-        } else {
-            if (cachedHEAD == null) {
-                cachedHEAD = loadHEAD();
-            }
-            return cachedHEAD;
+        Cache cache = curr();
+        if (cache._head == null) {
+            cache._head = loadHEAD();
         }
+        return cache._head;
     }
     static void cacheHEAD(String branchName) {
-        if (inRemoteRepo()) {
-            cachedRemoteHEAD = branchName;
-        } else {
-            cachedHEAD = branchName;
-        }
+        curr()._head = branchName;
     }
     /** Write back HEAD file. Invoked upon exit. */
     static void writeBackHEAD() {
@@ -177,32 +175,22 @@ public class Cache {
 
     /* CACHING STAGE ID */
 
-    static String cachedStageID = null;
-    static String cachedRemoteStageID = null;
+    /** Cached STAGE. */
+    private String _stageID = null;
     /**
      * Lazy loading and caching of STAGE (the ID of the saved staging area).
      * Notice: this DOES NOT point to the current staging area after the
      * staging area is modified and before write back.
      */
     static String getStageID() {
-        if (inRemoteRepo()) {
-            if (cachedRemoteStageID == null) {
-                cachedRemoteStageID = loadStageID();
-            }
-            return cachedRemoteStageID;
-        } else {
-            if (cachedStageID == null) {
-                cachedStageID = loadStageID();
-            }
-            return cachedStageID;
+        Cache cache = curr();
+        if (cache._stageID == null) {
+            cache._stageID = loadStageID();
         }
+        return cache._stageID;
     }
     static void cacheStageID(String stageID) {
-        if (inRemoteRepo()) {
-            cachedRemoteStageID = stageID;
-        } else {
-            cachedStageID = stageID;
-        }
+        curr()._stageID = stageID;
     }
     /** Write back STAGE file. Invoked upon exit. */
     static void writeBackStageID() {
@@ -212,21 +200,14 @@ public class Cache {
     /* CACHING STAGE */
 
     /** Cached staging area. */
-    static Tree cachedStage = null;
-    static Tree cachedRemoteStage = null;
+    private Tree _stage = null;
     /** Get the Tree object representing the staging area. */
     static Tree getStage() {
-        if (inRemoteRepo()) {
-            if (cachedRemoteStage == null) {
-                cachedRemoteStage = getTree(getStageID());
-            }
-            return cachedRemoteStage;
-        } else {
-            if (cachedStage == null) {
-                cachedStage = getTree(getStageID());
-            }
-            return cachedStage;
+        Cache cache = curr();
+        if (cache._stage == null) {
+            cache._stage = getTree(getStageID());
         }
+        return cache._stage;
     }
     /**
      * Queue the previous staging area for deletion and manually cache the passed-in Stage.
@@ -245,11 +226,7 @@ public class Cache {
 //            and the previous staging area is different from the Tree of the latest commit,
 //            and the previous staging area is not empty.
 //           */
-        if (inRemoteRepo()) {
-            cachedRemoteStage = stage;
-        } else {
-            cachedStage = stage;
-        }
+        curr()._stage = stage;
         String newStageID = cacheAndQueueForWriteHashObject(stage);
         cacheStageID(newStageID);
     }
@@ -260,32 +237,247 @@ public class Cache {
     }
 
 
+    /* CACHING ALL COMMITS ID */
+
+    /**
+     * IDs of commits recorded in this run. They are merged into the allCommitsID file
+     * while holding the reference lock, so concurrent processes never lose each other's IDs.
+     */
+    private final Set<String> _recordedCommitIDs = new TreeSet<>();
+    /** Return a Tree that captures all IDs of commits ever made, including the ones recorded in this run. */
+    static Tree getAllCommitsID() {
+        Tree allCommitsID = loadAllCommitsID();
+        for (String commitID : curr()._recordedCommitIDs) {
+            allCommitsID.putBlobID(commitID, null);
+        }
+        return allCommitsID;
+    }
+    static void cacheCommitID(String commitID) {
+        curr()._recordedCommitIDs.add(commitID);
+    }
+    /** Write back the allCommitsID file if new commit IDs are recorded. Invoked upon exit. */
+    static void writeBackAllCommitsID() {
+        Cache cache = curr();
+        if (!cache._recordedCommitIDs.isEmpty()) {
+            writeAllCommitsID();
+            cache._recordedCommitIDs.clear();
+        }
+    }
+
+
+    /* CACHING SHALLOW */
+
+    /** Cached shallow boundaries. */
+    private Set<String> _shallow = null;
+    /** Lazy loading and caching of the shallow boundaries (see Shallow). */
+    static Set<String> getShallow() {
+        Cache cache = curr();
+        if (cache._shallow == null) {
+            cache._shallow = loadShallow();
+        }
+        return cache._shallow;
+    }
+    static void cacheShallow(Set<String> shallow) {
+        curr()._shallow = shallow;
+    }
+    /** Write back the shallow file if the shallow boundaries are loaded. Invoked upon exit. */
+    static void writeBackShallow() {
+        Cache cache = curr();
+        if (cache._shallow != null) {
+            writeShallow(cache._shallow);
+        }
+    }
+
+
+    /* CACHING PROMISORS */
+
+    /** Cached names of the promisor remotes. */
+    private List<String> _promisors = null;
+    /** Lazy loading and caching of the names of the promisor remotes (see Promisor). */
+    static List<String> getPromisors() {
+        Cache cache = curr();
+        if (cache._promisors == null) {
+            cache._promisors = loadPromisors();
+        }
+        return cache._promisors;
+    }
+    static void cachePromisors(List<String> promisors) {
+        curr()._promisors = promisors;
+    }
+    /** Write back the promisor file if the promisor remotes are loaded. Invoked upon exit. */
+    static void writeBackPromisors() {
+        Cache cache = curr();
+        if (cache._promisors != null) {
+            writePromisors(cache._promisors);
+        }
+    }
+
+
+    /* CACHING STAT INDEX */
+
+    /** Cached entries of the stat index, keyed by file name. */
+    private Map<String, StatIndex.Entry> _statIndex = null;
+    /** The modification time of the index file when it was loaded, 0 if there was none. */
+    private long _statIndexModified = 0;
+    /** Whether an entry of the stat index was recorded or forgotten in this run. */
+    private volatile boolean _statIndexChanged = false;
+    /** Lazy loading and caching of the stat index (see StatIndex). */
+    static Map<String, StatIndex.Entry> getStatIndex() {
+        Cache cache = curr();
+        if (cache._statIndex == null) {
+            cache._statIndexModified = indexFile().lastModified();
+            cache._statIndex = loadStatIndex();
+        }
+        return cache._statIndex;
+    }
+    /** Return the modification time of the index file when it was loaded, 0 if there was none. */
+    static long getStatIndexModified() {
+        getStatIndex();
+        return curr()._statIndexModified;
+    }
+    /** Record the entry of a working file, or forget the file if the entry is null. Thread-safe once loaded. */
+    static void cacheStatEntry(String fileName, StatIndex.Entry entry) {
+        if (entry == null) {
+            getStatIndex().remove(fileName);
+        } else {
+            getStatIndex().put(fileName, entry);
+        }
+        curr()._statIndexChanged = true;
+    }
+    /** Write back the index file if an entry changed. Invoked upon exit. */
+    static void writeBackStatIndex() {
+        Cache cache = curr();
+        if (cache._statIndexChanged) {
+            writeStatIndex(cache._statIndex);
+        }
+    }
+
+
+    /* CACHING CHANGED PATHS */
+
+    /** Cached changed-path filters, keyed by commit ID. */
+    private Map<String, long[]> _changedPaths = null;
+    /** The filters recorded in this run, to be appended to the changed-paths file. */
+    private final Map<String, long[]> _recordedChangedPaths = new LinkedHashMap<>();
+    /** Lazy loading and caching of the changed-path filters (see ChangedPaths). */
+    static Map<String, long[]> getChangedPaths() {
+        Cache cache = curr();
+        if (cache._changedPaths == null) {
+            cache._changedPaths = loadChangedPaths();
+            cache._changedPaths.putAll(cache._recordedChangedPaths);
+        }
+        return cache._changedPaths;
+    }
+    /**
+     * Record the filter of a new commit, null if it may have changed any path.
+     * The filter file is not loaded for that, since a commit does not query filters.
+     */
+    static void cacheChangedPaths(String commitID, long[] filter) {
+        Cache cache = curr();
+        if (cache._changedPaths != null) {
+            cache._changedPaths.put(commitID, filter);
+        }
+        cache._recordedChangedPaths.put(commitID, filter);
+    }
+    /**
+     * Append the filters recorded in this run to the changed-paths file.
+     * Invoked upon exit, once the journal has committed the new commits.
+     */
+    static void writeBackChangedPaths() {
+        Cache cache = curr();
+        if (!cache._recordedChangedPaths.isEmpty()) {
+            appendChangedPaths(cache._recordedChangedPaths);
+            cache._recordedChangedPaths.clear();
+        }
+    }
+
+    /* CACHING COMMIT-GRAPH */
+
+    /** Cached commit-graph entries, keyed by commit ID. */
+    private Map<String, CommitGraph.Entry> _commitGraph = null;
+    /** The entries added in this run, to be appended to the commit-graph file. */
+    private final Map<String, CommitGraph.Entry> _recordedCommitGraph = new LinkedHashMap<>();
+    /** Lazy loading and caching of the commit-graph (see CommitGraph). */
+    static Map<String, CommitGraph.Entry> getCommitGraph() {
+        Cache cache = curr();
+        if (cache._commitGraph == null) {
+            cache._commitGraph = loadCommitGraph();
+            cache._commitGraph.putAll(cache._recordedCommitGraph);
+        }
+        return cache._commitGraph;
+    }
+    /** Add the entry of a commit to the commit-graph, without loading the commit-graph file. */
+    static void cacheCommitGraphEntry(String commitID, CommitGraph.Entry entry) {
+        Cache cache = curr();
+        if (cache._commitGraph != null) {
+            cache._commitGraph.put(commitID, entry);
+        }
+        cache._recordedCommitGraph.put(commitID, entry);
+    }
+    /**
+     * Append the entries added in this run to the commit-graph file.
+     * Invoked upon exit, once the journal has committed the new commits.
+     */
+    static void writeBackCommitGraph() {
+        Cache cache = curr();
+        if (!cache._recordedCommitGraph.isEmpty()) {
+            appendCommitGraph(cache._recordedCommitGraph);
+            cache._recordedCommitGraph.clear();
+        }
+    }
+
+
+    /* CACHING JOURNAL */
+
+    /** Return the journal that records the reference updates of the repository. */
+    static Journal currJournal() {
+        return Journal.open(gitletDir());
+    }
+
+
     /* MISC */
 
     /**
      * Write back all caches. Invoked upon exit.
+     * 1. Write and sync all new HashObjects before any reference.
+     *    Objects are content-addressed, so this needs no lock.
+     * 2. Record the new references (branches, HEAD, STAGE, the shallow boundaries and the promisor remotes),
+     *    and write the stat index, which is a cache written outside the journal
+     * 3. If anything changes, take the reference lock, merge the new commit IDs
+     *    into allCommitsID, and commit the references at once through the journal
+     * 4. Append the changed-path filters and the commit-graph entries of new commits, which are caches
+     *    written outside the journal. They are only appended once the commits are in allCommitsID,
+     *    so that an aborted write back leaves no entry of a commit that was never made
+     * 5. Delete the deprecated HashObjects, which no reference points to anymore
+     * Read-only commands never take the lock, thus never wait for a writer.
      */
     static void writeBack() {
-        deleteAllQueuedHashObject();
         writeBackAllQueuedHashObject();
         writeBackAllBranches();
         writeBackHEAD();
         writeBackStageID();
+        writeBackShallow();
+        writeBackPromisors();
+        writeBackStatIndex();
+        Journal journal = currJournal();
+        if (journal.hasPendingUpdates() || !curr()._recordedCommitIDs.isEmpty()) {
+            journal.lock();
+            try {
+                writeBackAllCommitsID();
+                journal.commit();
+            } finally {
+                journal.unlock();
+            }
+        }
+        writeBackChangedPaths();
+        writeBackCommitGraph();
+        deleteAllQueuedHashObject();
     }
 
     /** Reset all caches. Used for testing proposes. */
     static void cleanCache() {
-        cachedHashObjects.clear();
-        QUEUED_FOR_WRITE_HASH_OBJECTS.clear();
-        QUEUED_FOR_DELETE_HASH_OBJECT.clear();
-        cachedBranches.clear();
-        cachedHEAD = null;
-        cachedStageID = null;
-        cachedStage = null;
-    }
-
-    /** Return true if currently operating on the remote repository. */
-    static boolean inRemoteRepo() {
-        return !CWD.equals(Main.localCWD);
+        ObjectDatabase.closeAll();
+        Repository.resetCache();
+        Journal.closeAll();
     }
 }
@@ -0,0 +1,145 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static gitlet.Cache.*;
+import static gitlet.Repository.changedPathsFile;
+import static gitlet.Utils.*;
+
+/**
+ * This class houses static methods related to the changed-path filters: a Bloom filter per commit over the paths
+ * it changed against its first parent (every path it tracks, for a root commit), in the .gitlet/changed-paths
+ * file, one commit per line. A filter answers whether a commit may have changed a path without reading
+ * any Tree: a path the filter does not hold was certainly not changed, and a path it holds probably was,
+ * which the Trees then confirm. Thus a history query restricted to a path (see Repository.logFile() and
+ * Blame) only reads the Trees of the commits that hit the filter.
+ *
+ * A filter is built when its commit is made, from the diff with the parent, which is at hand (see TreeDiff).
+ * It holds BITS_PER_PATH bits per path, in whole longs, and sets HASHES bits per path by double hashing.
+ * A commit that changed more than MAX_PATHS paths gets no bits, which means any path may have changed,
+ * as does a commit without a filter (e.g. a fetched one). The file is a cache rather than a reference:
+ * it is neither read nor written through the journal. The filters of new commits are appended to it
+ * once the journal has committed them, so a commit costs one short append rather than a rewrite of every filter, and a line that is torn
+ * or otherwise malformed is skipped, leaving its commit without a filter: it only costs a Tree read.
+ * This class will never be instantiated since there are only static methods.
+ *
+ * @author XIE Changyuan
+ */
+public class ChangedPaths {
+
+    /** The number of bits of a filter per path. */
+    private static final int BITS_PER_PATH = 10;
+    /** The number of bits set per path. */
+    private static final int HASHES = 7;
+    /** The number of changed paths beyond which a commit gets no filter. */
+    private static final int MAX_PATHS = 512;
+    /** The marker of a commit that may have changed any path. */
+    private static final String ANY_PATH = "*";
+    /** A line of the changed-paths file: the commit ID, then its filter or ANY_PATH. */
+    private static final Pattern LINE = Pattern.compile("([0-9a-f]{40}) (\\*|(?:[0-9a-f]{16})+)");
+
+    /* STATIC METHODS */
+
+    /** Load the filters of the changed-paths file, keyed by commit ID. Invoked by the Cache class. */
+    static Map<String, long[]> loadChangedPaths() {
+        Map<String, long[]> filters = new TreeMap<>();
+        for (String line : readCompleteLines(changedPathsFile())) {
+            Matcher fields = LINE.matcher(line);
+            if (!fields.matches()) {
+                continue;
+            } // Special case: a malformed line leaves its commit without a filter.
+            filters.put(fields.group(1), fields.group(2).equals(ANY_PATH) ? null : parse(fields.group(2)));
+        }
+        return filters;
+    }
+
+    /** Append the filters of new commits to the changed-paths file. Invoked by the Cache class. */
+    static void appendChangedPaths(Map<String, long[]> filters) {
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, long[]> entry : filters.entrySet()) {
+            content.append(entry.getKey()).append(' ');
+            if (entry.getValue() == null) {
+                content.append(ANY_PATH);
+            } else {
+                for (long word : entry.getValue()) {
+                    content.append(String.format("%016x", word));
+                }
+            }
+            content.append('\n');
+        }
+        appendLines(changedPathsFile(), content.toString());
+    }
+
+    /** Build and record the filter of a new commit over the paths it changed against its first parent. */
+    static void record(Commit commit) {
+        Commit parent = getCommit(commit.getParentCommitID());
+        List<String> paths = new ArrayList<>();
+        for (TreeDiff change : TreeDiff.diff(parent == null ? null : parent.getCommitTreeID(),
+                commit.getCommitTreeID())) {
+            paths.add(change.getFileName());
+        }
+        cacheChangedPaths(commit.id(), paths.size() > MAX_PATHS ? null : filter(paths));
+    }
+
+    /**
+     * Return false if the commit with designated ID certainly did not change the designated path
+     * against its first parent, true if it may have.
+     * Special case: a commit without a filter may have changed any path.
+     */
+    static boolean mayHaveChanged(String commitID, String fileName) {
+        Map<String, long[]> filters = getChangedPaths();
+        long[] filter = filters.get(commitID);
+        if (filter == null) {
+            return true;
+        }
+        for (int bit : bits(fileName, filter.length * Long.SIZE)) {
+            if ((filter[bit / Long.SIZE] & (1L << (bit % Long.SIZE))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* HELPER METHODS */
+
+    /** Return the filter holding the designated paths. */
+    private static long[] filter(List<String> paths) {
+        int words = Math.max(1, (paths.size() * BITS_PER_PATH + Long.SIZE - 1) / Long.SIZE);
+        long[] filter = new long[words];
+        for (String path : paths) {
+            for (int bit : bits(path, words * Long.SIZE)) {
+                filter[bit / Long.SIZE] |= 1L << (bit % Long.SIZE);
+            }
+        }
+        return filter;
+    }
+
+    /** Return the HASHES bits of a path in a filter of SIZE bits, by double hashing. */
+    private static int[] bits(String path, int size) {
+        int h1 = path.hashCode();
+        int h2 = 0x811c9dc5; // FNV-1a, a second hash independent of String.hashCode().
+        for (int i = 0; i < path.length(); i += 1) {
+            h2 = (h2 ^ path.charAt(i)) * 0x01000193;
+        }
+        h2 |= 1;
+        int[] bits = new int[HASHES];
+        for (int i = 0; i < HASHES; i += 1) {
+            bits[i] = Math.floorMod(h1 + i * h2, size);
+        }
+        return bits;
+    }
+
+    /** Parse a filter written as 16 hex digits per long. */
+    private static long[] parse(String hex) {
+        long[] filter = new long[hex.length() / 16];
+        for (int i = 0; i < filter.length; i += 1) {
+            filter[i] = Long.parseUnsignedLong(hex.substring(i * 16, i * 16 + 16), 16);
+        }
+        return filter;
+    }
+}
@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static gitlet.Blob.currFileID;
+import static gitlet.Cache.*;
+import static gitlet.Repository.cwd;
+import static gitlet.Repository.DEBUG_CWD_FILES;
+import static gitlet.Utils.*;
+
+/**
+ * This class houses static methods of the checkout engine, which makes the working directory
+ * match the Tree of a commit, for the checkout of a branch, reset, a fast-forward merge and clone.
+ *
+ * Only the paths that change are touched: the diff of the current and the target Trees (see TreeDiff)
+ * is applied, and the working files it does not mention are left alone if they still hold their Blobs,
+ * which the stat index tells without reading them (see StatIndex). Thus switching between two branches
+ * that differ in one file writes one file, the other files keep their modification times,
+ * and untracked files are never touched.
+ * The Blobs of the changed paths are read and their files written by a bounded pool of threads,
+ * and every file is recorded in the stat index as soon as it lands.
+ * This class will never be instantiated since there are only static methods.
+ *
+ * @author XIE Changyuan
+ */
+public class Checkout {
+
+    /** The number of threads that read Blobs and write working files. */
+    private static final int WORKERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /** The threads that read Blobs and write working files. Started lazily upon the first checkout. */
+    private static ExecutorService workers = null;
+
+    /* STATIC METHODS */
+
+    /**
+     * Make the working directory match the TARGET Tree by applying the diff from the CURRENT Tree.
+     * 1. Plan: the paths the diff adds or modifies are written, and the paths it removes are deleted.
+     *    A path the Trees agree on is written too if its working file was changed or deleted
+     * 2. Fault in the Blobs of the written paths that a partial fetch left out, as one batch (see Promisor)
+     * 3. Delete the files, then read the Blobs and write the files in parallel, recording their stat
+     * @param current the Tree the working directory is known to match, except for the changes
+     *                the stat index reveals; null if it is empty
+     */
+    @SuppressWarnings("try")
+    static void checkout(Tree current, Tree target) {
+        ObjectDatabase objects = currObjectDatabase();
+        getStatIndex(); // Load the index before the workers record into it.
+        Map<String, String> writes = new TreeMap<>();
+        List<String> deletes = new ArrayList<>();
+        for (TreeDiff change : TreeDiff.diff(current, target)) {
+            if (change.isRemoved()) {
+                deletes.add(change.getFileName());
+            } else {
+                writes.put(change.getFileName(), change.getNewBlobID());
+            }
+        }
+        for (Map.Entry<String, String> entry : target.entries()) {
+            String fileName = entry.getKey();
+            if (!writes.containsKey(fileName) && !entry.getValue().equals(currFileID(fileName))) {
+                writes.put(fileName, entry.getValue());
+            }
+        } // Special case: a path the Trees agree on is only written if its working file was changed.
+
+        Promisor.prefetch(objects, writes.values());
+        for (String fileName : deletes) {
+            if (DEBUG_CWD_FILES.contains(fileName)) {
+                continue;
+            } // Ignore development files
+            join(cwd(), fileName).delete();
+            StatIndex.forget(fileName);
+        }
+        Repository repository = Repository.current(); // The workers act on the repository of this thread.
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Map.Entry<String, String> write : writes.entrySet()) {
+            tasks.add(() -> {
+                repository.within(() -> writeFile(objects, write.getKey(), write.getValue()));
+                return null;
+            });
+        }
+        try (Trace.Phase phase = Trace.phase("writeWorkingFiles")) {
+            runAll(tasks);
+        }
+    }
+
+    /* HELPER METHODS */
+
+    /** Overwrite the working file with designated name with a Blob, and record its stat. */
+    private static void writeFile(ObjectDatabase objects, String fileName, String blobID) {
+        Blob blob = (Blob) objects.get(blobID);
+        if (blob == null) {
+            throw error("File does not exist in that commit.");
+        } // Special case: abort if the Blob is missing.
+        File file = join(cwd(), fileName);
+        writeContents(file, blob.getContent());
+        StatIndex.record(fileName, StatIndex.stat(file, blobID));
+    }
+
+    /**
+     * Run the tasks on the workers and wait for all of them.
+     * Throws the GitletException of the first failed task, if any.
+     */
+    private static void runAll(List<Callable<Void>> tasks) {
+        if (tasks.size() < 2) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception excp) {
+                    throw failure(excp);
+                }
+            }
+            return;
+        } // Special case: a single file is written on this thread.
+        List<Future<Void>> futures;
+        try {
+            futures = startWorkers().invokeAll(tasks);
+        } catch (InterruptedException excp) {
+            throw error("Checkout interrupted.");
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException excp) {
+                throw failure(excp.getCause());
+            } catch (InterruptedException excp) {
+                throw error("Checkout interrupted.");
+            }
+        }
+    }
+
+    /** Return the failure of a task as a GitletException. */
+    private static GitletException failure(Throwable excp) {
+        if (excp instanceof GitletException) {
+            return (GitletException) excp;
+        }
+        return error("Cannot check out a file: %s", excp.getMessage());
+    }
+
+    /** Start the workers if not started yet, and return them. */
+    private static synchronized ExecutorService startWorkers() {
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(WORKERS, runnable -> {
+                Thread thread = new Thread(runnable, "gitlet-checkout");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return workers;
+    }
+}
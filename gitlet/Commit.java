@@ -9,7 +9,7 @@ import java.util.Stack;
 
 import static gitlet.Branch.moveCurrBranch;
 import static gitlet.Cache.*;
-import static gitlet.Repository.ALL_COMMITS_ID;
+import static gitlet.Repository.allCommitsIDFile;
 import static gitlet.Repository.printAndExit;
 import static gitlet.Stage.mkNewStage;
 import static gitlet.Tree.mkCommitTree;
@@ -148,6 +148,11 @@ public class Commit extends HashObject {
         return getCommit(getParentMergeCommitID());
     }
 
+    /** Get the time stamp of this commit, in milliseconds since 1970.01.01. */
+    long getTime() {
+        return _timeStamp.getTime();
+    }
+
     /**
      * Get the ID of the associating Tree of this commit.
      */
@@ -198,7 +203,7 @@ public class Commit extends HashObject {
      * 4. Cache the new Commit and queue it for write back
      * 5. Move the current branch pointing the new commit
      * 6. Make a new staging area
-     * 7. Record the new commit's ID
+     * 7. Record the new commit's ID, and the filter of the paths it changed (see ChangedPaths)
      */
     static void mkCommit(String message) {
         if (!message.equals("initial commit") && getStage().isEmpty()) {
@@ -211,6 +216,8 @@ public class Commit extends HashObject {
         moveCurrBranch(newCommitID);
         mkNewStage();
         recordCommitID(newCommitID);
+        ChangedPaths.record(newCommit);
+        CommitGraph.record(newCommit);
     }
 
     /** Factory method. Make a new merge Commit. */
@@ -228,6 +235,8 @@ public class Commit extends HashObject {
         moveCurrBranch(newCommitID);
         mkNewStage();
         recordCommitID(newCommitID);
+        ChangedPaths.record(newCommit);
+        CommitGraph.record(newCommit);
         if (conflicted) {
             System.out.println("Encountered a merge conflict.");
         }
@@ -258,29 +267,57 @@ public class Commit extends HashObject {
     }
 
     /**
-     * Recursively collect and return a Set of all ancestors' ID of the given Commit object,
+     * Collect and return a Set of all ancestors' ID of the given Commit object,
      * including merge parents.
      */
     static Set<String> ancestors(Commit commit) {
+        return ancestors(commit, currObjectDatabase());
+    }
+
+    /**
+     * Collect and return a Set of all ancestors' ID of the given Commit object,
+     * including merge parents, loading them from the designated object database.
+     * Every ancestor is visited once, however many paths lead to it.
+     */
+    static Set<String> ancestors(Commit commit, ObjectDatabase objects) {
         Set<String> set = new HashSet<>();
         if (commit == null) {
             return set;
         } // Special case: return an empty Set if the given Commit is null.
-        set.add(commit.id());
-        set.addAll(ancestors(commit.getParentMergeCommit()));
-        set.addAll(ancestors(commit.getParentCommit()));
+        Stack<String> dfs = new Stack<>(); // the Stack for dfs
+        dfs.push(commit.id());
+        while (!dfs.empty()) {
+            String currID = dfs.pop();
+            if (currID == null || currID.equals("") || !set.add(currID)) {
+                continue;
+            } // Special case: skip missing parents and visited commits.
+            Commit curr = (Commit) objects.get(currID);
+            if (curr == null) {
+                set.remove(currID);
+                continue;
+            } // Special case: a parent beyond a shallow boundary was never fetched.
+            dfs.push(curr.getParentCommitID());
+            dfs.push(curr.getParentMergeCommitID());
+        }
         return set;
     }
 
-    /** Record a new commit's ID to the allCommitsID file. */
+    /** Record a new commit's ID, to be added to the allCommitsID file upon write back. */
     static void recordCommitID(String commitID) {
-        Tree allCommitsID = getAllCommitsID();
-        allCommitsID.putBlobID(commitID, null);
-        Utils.writeObject(ALL_COMMITS_ID, allCommitsID);
+        cacheCommitID(commitID);
     }
 
-    /** Return a Tree object that captures all IDs of commits ever made. */
-    static Tree getAllCommitsID() {
-        return Utils.readObject(ALL_COMMITS_ID, Tree.class);
+    /** Load the Tree object that captures all IDs of commits ever made. Invoked by the Cache class. */
+    static Tree loadAllCommitsID() {
+        return Utils.readObject(allCommitsIDFile(), Tree.class);
+    }
+
+    /**
+     * Reload the allCommitsID Tree, add the recorded commit IDs,
+     * and record it for writing back to filesystem.
+     * Invoked by the Cache class while holding the reference lock.
+     */
+    static void writeAllCommitsID() {
+        currJournal().recordWrite(allCommitsIDFile(), Utils.serialize(getAllCommitsID()));
     }
 }
@@ -0,0 +1,184 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static gitlet.Cache.*;
+import static gitlet.Repository.commitGraphFile;
+import static gitlet.Utils.*;
+
+/**
+ * This class houses static methods related to the commit-graph: the time and the parents of every commit,
+ * in the .gitlet/commit-graph file, one commit per line. It orders the whole history (see Repository.globalLog())
+ * without deserializing every commit and keeping it in the cache, which is what the lexicographic order
+ * of the allCommitsID file cannot do.
+ *
+ * The graph grows incrementally: a new commit adds its entry when it is made, and the commits of allCommitsID
+ * the graph does not hold yet (e.g. fetched ones) are read once each, without caching, when it is used.
+ * The file is a cache rather than a reference: it is neither read nor written through the journal.
+ * New entries are appended to it once the journal has committed their commits, so an aborted command
+ * leaves no entry behind, and a line that is torn or otherwise malformed is skipped:
+ * its commit is simply read again next time.
+ * This class will never be instantiated since there are only static methods.
+ *
+ * @author XIE Changyuan
+ */
+public class CommitGraph {
+
+    /** The time and the parents of a commit. */
+    static final class Entry {
+        private final long _time;
+        private final String _parentID;
+        private final String _mergeParentID;
+
+        Entry(long time, String parentID, String mergeParentID) {
+            _time = time;
+            _parentID = parentID;
+            _mergeParentID = mergeParentID;
+        }
+
+        /** Return the IDs of the parents, the first parent first. */
+        private List<String> parentIDs() {
+            List<String> parentIDs = new ArrayList<>(2);
+            for (String parentID : new String[]{_parentID, _mergeParentID}) {
+                if (parentID != null && !parentID.isEmpty()) {
+                    parentIDs.add(parentID);
+                }
+            }
+            return parentIDs;
+        }
+    }
+
+    /** The marker of a missing parent in the commit-graph file. */
+    private static final String NO_PARENT = "-";
+    /** A line of the commit-graph file: the commit ID, its time, and its parents or NO_PARENT. */
+    private static final Pattern LINE = Pattern.compile(
+            "([0-9a-f]{40}) (-?[0-9]+) ([0-9a-f]{40}|" + NO_PARENT + ") ([0-9a-f]{40}|" + NO_PARENT + ")");
+
+    /* STATIC METHODS */
+
+    /** Load the entries of the commit-graph file, keyed by commit ID. Invoked by the Cache class. */
+    static Map<String, Entry> loadCommitGraph() {
+        Map<String, Entry> graph = new TreeMap<>();
+        for (String line : readCompleteLines(commitGraphFile())) {
+            Matcher fields = LINE.matcher(line);
+            if (!fields.matches()) {
+                continue;
+            } // Special case: a malformed line leaves its commit out, to be read again.
+            graph.put(fields.group(1), new Entry(Long.parseLong(fields.group(2)),
+                    parent(fields.group(3)), parent(fields.group(4))));
+        }
+        return graph;
+    }
+
+    /** Append new entries to the commit-graph file. Invoked by the Cache class. */
+    static void appendCommitGraph(Map<String, Entry> entries) {
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry commit = entry.getValue();
+            content.append(entry.getKey()).append(' ').append(commit._time).append(' ')
+                    .append(field(commit._parentID)).append(' ').append(field(commit._mergeParentID)).append('\n');
+        }
+        appendLines(commitGraphFile(), content.toString());
+    }
+
+    /** Add the entry of a new commit. */
+    static void record(Commit commit) {
+        cacheCommitGraphEntry(commit.id(), entry(commit));
+    }
+
+    /**
+     * Return the IDs of all commits ever made or fetched, every commit before its parents.
+     * In date order, the newest commit whose children are all listed comes next.
+     * In topological order, the parents of a commit come right after it once their other children are listed,
+     * so a line of history is listed in one piece rather than interleaved with the others by date.
+     * @param topoOrder true for topological order, false for date order
+     */
+    static List<String> sorted(boolean topoOrder) {
+        Map<String, Entry> graph = update();
+        Map<String, Integer> children = new HashMap<>();
+        for (Entry commit : graph.values()) {
+            for (String parentID : commit.parentIDs()) {
+                children.merge(parentID, 1, Integer::sum);
+            }
+        }
+        Comparator<String> newestFirst = Comparator.comparingLong((String id) -> graph.get(id)._time).reversed()
+                .thenComparing(Comparator.naturalOrder());
+        PriorityQueue<String> byDate = new PriorityQueue<>(newestFirst);
+        Deque<String> byTopo = new ArrayDeque<>();
+        for (String id : graph.keySet()) {
+            if (!children.containsKey(id)) {
+                byDate.add(id);
+            }
+        } // The tips, which no commit has as a parent.
+        if (topoOrder) {
+            while (!byDate.isEmpty()) {
+                byTopo.addLast(byDate.poll());
+            }
+        }
+
+        List<String> sorted = new ArrayList<>(graph.size());
+        while (!byDate.isEmpty() || !byTopo.isEmpty()) {
+            String id = topoOrder ? byTopo.pollFirst() : byDate.poll();
+            sorted.add(id);
+            List<String> parentIDs = graph.get(id).parentIDs();
+            for (int i = parentIDs.size() - 1; i >= 0; i -= 1) {
+                String parentID = parentIDs.get(i);
+                if (!graph.containsKey(parentID) || children.merge(parentID, -1, Integer::sum) > 0) {
+                    continue;
+                } // Special case: a parent beyond a shallow boundary, or with children still to list, waits.
+                if (topoOrder) {
+                    byTopo.addFirst(parentID);
+                } else {
+                    byDate.add(parentID);
+                }
+            } // The first parent is pushed last, so that the topological order follows it first.
+        }
+        return sorted;
+    }
+
+    /* HELPER METHODS */
+
+    /**
+     * Return the graph, after adding the entries of the commits of allCommitsID it does not hold,
+     * which are read without caching them.
+     */
+    private static Map<String, Entry> update() {
+        Map<String, Entry> graph = getCommitGraph();
+        ObjectDatabase objects = currObjectDatabase();
+        for (String commitID : getAllCommitsID()) {
+            if (graph.containsKey(commitID)) {
+                continue;
+            }
+            Commit commit = (Commit) objects.peek(commitID);
+            if (commit != null) {
+                cacheCommitGraphEntry(commitID, entry(commit));
+            } // Special case: a recorded commit may not be written yet by a concurrent process.
+        }
+        return graph;
+    }
+
+    /** Return the entry of a commit. */
+    private static Entry entry(Commit commit) {
+        return new Entry(commit.getTime(), commit.getParentCommitID(), commit.getParentMergeCommitID());
+    }
+
+    /** Return the parent ID of a field of the commit-graph file. */
+    private static String parent(String field) {
+        return field.equals(NO_PARENT) ? null : field;
+    }
+
+    /** Return the field of the commit-graph file of a parent ID. */
+    private static String field(String parentID) {
+        return parentID == null || parentID.isEmpty() ? NO_PARENT : parentID;
+    }
+}
@@ -0,0 +1,204 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * This class represents a walk over the history of an object database, newest commit first,
+ * which finds the commits reachable from some commits (the interesting ones)
+ * but not from others (the uninteresting ones) without loading the whole history.
+ *
+ * Every commit carries the flags of the tips it is reachable from, and passes them to its parents.
+ * The walk stops as soon as every queued commit is reachable from an uninteresting tip,
+ * since nothing older can be reachable from the interesting tips only.
+ * Thus pushing one new commit on top of the remote branch reads two commits, however long the history is.
+ * The order of the walk only affects how early it stops: a commit reachable from an uninteresting tip
+ * is never missed, and a clock skew at worst reports a few commits that are not new.
+ *
+ * For shallow fetches, the walk can also be limited to a depth, in which case the interesting commits
+ * at the limit are reported as the new shallow boundaries (see Shallow). The current shallow boundaries
+ * of the receiver do not pass the uninteresting flag on, since the receiver lacks their parents.
+ *
+ * @author XIE Changyuan
+ */
+public class CommitWalk {
+
+    /** Flag: the commit is reachable from an interesting tip. */
+    private static final int INTERESTING = 1;
+    /** Flag: the commit is reachable from an uninteresting tip. */
+    private static final int UNINTERESTING = 2;
+    /** The depth of a walk that is not limited. */
+    static final int INFINITE_DEPTH = Integer.MAX_VALUE;
+
+    /** The object database the commits are read from. */
+    private final ObjectDatabase _objects;
+    /** The commits read so far, keyed by ID. */
+    private final Map<String, Commit> _commits = new HashMap<>();
+    /** The flags of every commit reached so far, keyed by ID. */
+    private final Map<String, Integer> _flags = new HashMap<>();
+    /** The commits to visit, newest first. */
+    private final PriorityQueue<Commit> _queue = new PriorityQueue<>(
+            Comparator.comparingLong(Commit::getTime).reversed().thenComparing(Commit::id));
+    /** The IDs of the queued commits. */
+    private final Set<String> _queued = new HashSet<>();
+    /** The number of queued commits the walk must go on past (see mustWalkOn()). */
+    private int _interestingQueued = 0;
+    /** The number of generations of the history walked from the interesting tips, the tips included. */
+    private int _depth = INFINITE_DEPTH;
+    /** The distance from the nearest interesting tip of every interesting commit, keyed by ID. */
+    private final Map<String, Integer> _distances = new HashMap<>();
+    /** The shallow boundaries of the receiver, which do not pass the uninteresting flag on. */
+    private final Set<String> _shallow = new HashSet<>();
+    /** The interesting commits whose parents are not walked, either beyond the depth or missing. */
+    private final Set<String> _boundaries = new LinkedHashSet<>();
+
+    /** Construct a walk over the commits of the designated object database. */
+    CommitWalk(ObjectDatabase objects) {
+        _objects = objects;
+    }
+
+    /** Walk from the commit with designated ID, reporting the commits reachable from it. */
+    void markInteresting(String commitID) {
+        _distances.put(commitID, 0);
+        mark(commitID, INTERESTING);
+    }
+
+    /**
+     * Walk from the commit with designated ID, excluding the commits reachable from it.
+     * A commit that is not in the object database is ignored.
+     */
+    void markUninteresting(String commitID) {
+        mark(commitID, UNINTERESTING);
+    }
+
+    /** Limit the walk to DEPTH generations from the interesting tips, the tips included. */
+    void setDepth(int depth) {
+        _depth = depth;
+    }
+
+    /** Do not pass the uninteresting flag on from the commit with designated ID (a shallow boundary). */
+    void markShallow(String commitID) {
+        _shallow.add(commitID);
+    }
+
+    /**
+     * Walk until every queued commit is reachable from an uninteresting tip.
+     * @return the IDs of the commits reachable from the interesting tips
+     *         but not from the uninteresting ones, newest first
+     */
+    Set<String> run() {
+        List<String> visited = new ArrayList<>();
+        while (_interestingQueued > 0) {
+            Commit commit = _queue.poll();
+            String id = commit.id();
+            _queued.remove(id);
+            int flags = _flags.get(id);
+            if (mustWalkOn(flags)) {
+                _interestingQueued -= 1;
+            }
+            if (flags == INTERESTING) {
+                visited.add(id);
+            }
+            int parentFlags = _shallow.contains(id) ? flags & INTERESTING : flags;
+            int distance = _distances.getOrDefault(id, INFINITE_DEPTH);
+            if ((flags & INTERESTING) != 0 && distance + 1 >= _depth) {
+                parentFlags &= ~INTERESTING;
+                if (commit.getParentCommitID() != null) {
+                    _boundaries.add(id);
+                }
+            } // Special case: the parents of a commit at the depth limit are not fetched.
+            for (String parentID : new String[]{commit.getParentCommitID(), commit.getParentMergeCommitID()}) {
+                if (parentID == null || parentID.equals("")) {
+                    continue;
+                }
+                if ((parentFlags & INTERESTING) != 0) {
+                    _distances.merge(parentID, distance + 1, Math::min);
+                }
+                mark(parentID, parentFlags);
+                if ((parentFlags & INTERESTING) != 0 && !_commits.containsKey(parentID)) {
+                    _boundaries.add(id);
+                } // Special case: the parent is missing, since the walked repository is shallow itself.
+            }
+        }
+        Set<String> result = new LinkedHashSet<>();
+        for (String id : visited) {
+            if (_flags.get(id) == INTERESTING) {
+                result.add(id);
+            }
+        } // Special case: a commit may have turned out reachable from an uninteresting tip after its visit.
+        return result;
+    }
+
+    /**
+     * Return true if the walk found the commit with designated ID reachable from an interesting tip.
+     * After run(), this tells whether an uninteresting tip is an ancestor of the interesting ones,
+     * which is the fast-forward check of push.
+     */
+    boolean reachedFromInteresting(String commitID) {
+        return (_flags.getOrDefault(commitID, 0) & INTERESTING) != 0;
+    }
+
+    /**
+     * Return the interesting commits whose parents were not walked,
+     * either because of the depth limit or because they are missing.
+     */
+    Set<String> boundaries() {
+        return _boundaries;
+    }
+
+    /** Return the number of commits read by the walk. */
+    int commitsRead() {
+        return _commits.size();
+    }
+
+    /* HELPER METHODS */
+
+    /** Add FLAGS to the commit with designated ID, and queue it if its flags changed. */
+    private void mark(String commitID, int flags) {
+        if (commitID == null || commitID.equals("") || flags == 0) {
+            return;
+        } // Special case: skip missing parents, and parents that get no flag.
+        int oldFlags = _flags.getOrDefault(commitID, 0);
+        int newFlags = oldFlags | flags;
+        if (newFlags == oldFlags) {
+            return;
+        }
+        Commit commit = _commits.get(commitID);
+        if (commit == null) {
+            commit = (Commit) _objects.get(commitID);
+            if (commit == null) {
+                return;
+            } // Special case: an uninteresting tip unknown to this object database.
+            _commits.put(commitID, commit);
+        }
+        _flags.put(commitID, newFlags);
+        if (_queued.contains(commitID)) {
+            if (mustWalkOn(oldFlags) != mustWalkOn(newFlags)) {
+                _interestingQueued += mustWalkOn(newFlags) ? 1 : -1;
+            }
+            return;
+        } // Special case: the queued commit passes its new flags on when visited.
+        _queue.add(commit);
+        _queued.add(commitID);
+        if (mustWalkOn(newFlags)) {
+            _interestingQueued += 1;
+        }
+    }
+
+    /**
+     * Return true if the walk must go on past a commit with designated FLAGS.
+     * This is the case of a commit reachable from interesting tips only. If the receiver is shallow,
+     * this is also the case of any interesting commit, since a shallow boundary below it
+     * may pass the interesting flag on alone (the receiver lacks its parents).
+     */
+    private boolean mustWalkOn(int flags) {
+        return flags == INTERESTING || ((flags & INTERESTING) != 0 && !_shallow.isEmpty());
+    }
+}
@@ -0,0 +1,127 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import static gitlet.Utils.*;
+
+/**
+ * This class represents one end of a connection between a Gitlet client and a Gitlet server
+ * (see Server), over a blocking NIO SocketChannel.
+ *
+ * Messages are sent as lines, each prefixed with its length in bytes.
+ * A line of length 0 is a flush, which ends a group of lines and pushes the buffered output
+ * to the other end. Between lines, a pack may be sent raw (see PackFile), since a pack
+ * carries its own length and checksum.
+ *
+ * @author XIE Changyuan
+ */
+public class Connection implements Closeable {
+
+    /** The size of the buffers of the connection. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** The maximum length of a line, guarding against a broken peer. */
+    private static final int MAX_LINE_LENGTH = 1 << 16;
+
+    /** The channel of the connection. */
+    private final SocketChannel _channel;
+    /** The buffered input of the connection. */
+    private final DataInputStream _in;
+    /** The buffered output of the connection. */
+    private final DataOutputStream _out;
+
+    /** Construct a connection over an opened CHANNEL. */
+    Connection(SocketChannel channel) {
+        _channel = channel;
+        _in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+        _out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+    }
+
+    /**
+     * Connect to a Gitlet server.
+     * Throws a GitletException if the server cannot be reached.
+     */
+    static Connection connect(String host, int port) {
+        try {
+            return new Connection(SocketChannel.open(new InetSocketAddress(host, port)));
+        } catch (IOException excp) {
+            throw error("Cannot connect to %s:%d: %s", host, port, excp.getMessage());
+        }
+    }
+
+    /** Send a line. The line is buffered until the next flush. */
+    void writeLine(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        try {
+            _out.writeInt(bytes.length);
+            _out.write(bytes);
+        } catch (IOException excp) {
+            throw error("Connection lost: %s", excp.getMessage());
+        }
+    }
+
+    /** Send a flush, and push all buffered output to the other end. */
+    void writeFlush() {
+        try {
+            _out.writeInt(0);
+            _out.flush();
+        } catch (IOException excp) {
+            throw error("Connection lost: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Receive a line.
+     * Throws a GitletException if the connection is closed.
+     * @return the line, or null if it is a flush
+     */
+    String readLine() {
+        try {
+            int length = _in.readInt();
+            if (length == 0) {
+                return null;
+            }
+            if (length < 0 || length > MAX_LINE_LENGTH) {
+                throw error("Protocol error: bad line length %d.", length);
+            }
+            byte[] bytes = new byte[length];
+            _in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (EOFException excp) {
+            throw error("Connection closed by the other end.");
+        } catch (IOException excp) {
+            throw error("Connection lost: %s", excp.getMessage());
+        }
+    }
+
+    /** Return the input of the connection, for reading a raw pack. */
+    InputStream in() {
+        return _in;
+    }
+
+    /** Return the output of the connection, for writing a raw pack. Flushed by the next writeFlush(). */
+    OutputStream out() {
+        return _out;
+    }
+
+    /** Close the connection. */
+    @Override
+    public void close() {
+        try {
+            _channel.close();
+        } catch (IOException excp) {
+            // Closing is best effort.
+        }
+    }
+}
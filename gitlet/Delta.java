@@ -0,0 +1,157 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/**
+ * This class houses static methods that encode an object as a delta against another (the base),
+ * which is used by pack files to store similar versions of a file compactly.
+ * This class will never be instantiated since there are only static methods.
+ *
+ * A delta is a list of instructions that rebuild the target from the base:
+ * 1. COPY offset length: copy a range of the base
+ * 2. INSERT length bytes: insert literal bytes
+ * Matches are found by indexing every BLOCK-sized block of the base, and extending
+ * each match found in the target as far as possible in both directions.
+ *
+ * @author XIE Changyuan
+ */
+public class Delta {
+
+    /** The size of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+    /** Instruction: copy a range of the base. */
+    private static final byte COPY = 0;
+    /** Instruction: insert literal bytes. */
+    private static final byte INSERT = 1;
+
+    /* STATIC METHODS */
+
+    /**
+     * Encode TARGET as a delta against BASE.
+     * @return the delta, or null if it would not be considerably smaller than TARGET itself
+     */
+    static byte[] encode(byte[] base, byte[] target) {
+        Map<Integer, Integer> index = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            index.putIfAbsent(blockHash(base, i), i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(base.length);
+            out.writeInt(target.length);
+            int insertFrom = 0; // the start of the pending literal bytes
+            int i = 0;
+            while (i + BLOCK <= target.length) {
+                Integer candidate = index.get(blockHash(target, i));
+                if (candidate == null || !regionMatches(base, candidate, target, i, BLOCK)) {
+                    i += 1;
+                    continue;
+                }
+                int baseStart = candidate;
+                int targetStart = i;
+                while (baseStart > 0 && targetStart > insertFrom
+                        && base[baseStart - 1] == target[targetStart - 1]) {
+                    baseStart -= 1;
+                    targetStart -= 1;
+                } // Extend the match backwards over the pending literal bytes.
+                int end = i + BLOCK;
+                int baseEnd = candidate + BLOCK;
+                while (end < target.length && baseEnd < base.length && base[baseEnd] == target[end]) {
+                    end += 1;
+                    baseEnd += 1;
+                } // Extend the match forwards.
+                writeInsert(out, target, insertFrom, targetStart);
+                out.writeByte(COPY);
+                out.writeInt(baseStart);
+                out.writeInt(end - targetStart);
+                i = end;
+                insertFrom = end;
+            }
+            writeInsert(out, target, insertFrom, target.length);
+            out.flush();
+        } catch (IOException excp) {
+            throw error("Cannot encode a delta: %s", excp.getMessage());
+        }
+        byte[] delta = bytes.toByteArray();
+        if (delta.length > target.length / 2) {
+            return null;
+        } // Special case: a delta that saves little is not worth resolving its base upon reading.
+        return delta;
+    }
+
+    /**
+     * Rebuild the target from BASE and a DELTA made by encode().
+     * Throws a GitletException if the delta does not belong to the base, or is corrupted.
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        try {
+            if (in.readInt() != base.length) {
+                throw error("Delta does not match its base.");
+            }
+            int targetLength = in.readInt();
+            if (targetLength < 0 || targetLength > PackFile.MAX_OBJECT_SIZE) {
+                throw error("Corrupted delta: bad target length %d.", targetLength);
+            }
+            byte[] target = new byte[targetLength];
+            int position = 0;
+            while (position < target.length) {
+                byte instruction = in.readByte();
+                if (instruction == COPY) {
+                    int offset = in.readInt();
+                    int length = in.readInt();
+                    System.arraycopy(base, offset, target, position, length);
+                    position += length;
+                } else {
+                    int length = in.readInt();
+                    in.readFully(target, position, length);
+                    position += length;
+                }
+            }
+            return target;
+        } catch (IOException | IndexOutOfBoundsException excp) {
+            throw error("Corrupted delta: %s", excp.getMessage());
+        }
+    }
+
+    /* HELPER METHODS */
+
+    /** Write an INSERT instruction with the bytes of TARGET in [FROM, TO), if there is any. */
+    private static void writeInsert(DataOutputStream out, byte[] target, int from, int to)
+            throws IOException {
+        if (from >= to) {
+            return;
+        }
+        out.writeByte(INSERT);
+        out.writeInt(to - from);
+        out.write(target, from, to - from);
+    }
+
+    /** Return the hash of the BLOCK bytes of BYTES starting at START. */
+    private static int blockHash(byte[] bytes, int start) {
+        int hash = 1;
+        for (int i = start; i < start + BLOCK; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash;
+    }
+
+    /** Return true if LENGTH bytes of A from A_START equal those of B from B_START. */
+    private static boolean regionMatches(byte[] a, int aStart, byte[] b, int bStart, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aStart + i] != b[bStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
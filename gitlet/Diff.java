@@ -0,0 +1,208 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static gitlet.Blob.currFileID;
+import static gitlet.Cache.*;
+import static gitlet.Repository.cwd;
+import static gitlet.Repository.printAndExit;
+import static gitlet.Utils.*;
+
+/**
+ * This class houses static methods of the diff command, which prints the changes between
+ * the working directory and the staging area, the staging area and the head commit, or two commits,
+ * as unified diffs with CONTEXT lines of context around each change.
+ *
+ * Only the paths whose Blob IDs differ are read and diffed: two Trees are compared by their sorted entries
+ * (see TreeDiff), and working files by the stat index (see StatIndex), so a large commit with few changes
+ * costs little more than walking its Tree. The contents are diffed line by line (see LineDiff),
+ * and the diff of each file is printed as soon as it is computed.
+ * Between two Trees, an added path renamed or copied from another is diffed against it (see Rename).
+ * This class will never be instantiated since there are only static methods.
+ *
+ * @author XIE Changyuan
+ */
+public class Diff {
+
+    /** The number of unchanged lines printed around each change. */
+    private static final int CONTEXT = 3;
+    /** The marker printed after a last line without a line terminator. */
+    private static final String NO_NEWLINE = "\\ No newline at end of file";
+
+    /* DIFF COMMAND */
+
+    /**
+     * Print the changes of the working directory that are not staged:
+     * the tracked files changed or deleted since they were committed or added.
+     * Untracked files are not shown.
+     */
+    static void diffWorkingTree() {
+        Repository.assertGITLET();
+        Tree tree = Repository.currentTree();
+        if (tree == null) {
+            return;
+        } // Special case: there is nothing to compare with before the first commit.
+        PrintWriter out = output();
+        for (Map.Entry<String, String> entry : tree.entries()) {
+            String fileName = entry.getKey();
+            String workingID = currFileID(fileName);
+            if (workingID.equals(entry.getValue())) {
+                continue;
+            } // Special case: skip a working file that still holds its Blob.
+            File file = join(cwd(), fileName);
+            String workingContent = file.exists() ? readContentsAsString(file) : null;
+            printFileDiff(out, fileName, fileName, workingContent == null ? "deleted file\n" : "",
+                    getBlob(entry.getValue()).getContent(), workingContent);
+        }
+        out.flush();
+    }
+
+    /** Print the changes staged for the next commit, against the head commit. */
+    static void diffStaged() {
+        Repository.assertGITLET();
+        Tree headTree = Tree.getLatestCommitTree();
+        printTreeDiff(TreeDiff.diff(headTree, Repository.currentTree()));
+    }
+
+    /** Print the changes from the commit with the OLD ID to the commit with the NEW ID, which may be abbreviated. */
+    static void diffCommits(String oldCommitID, String newCommitID) {
+        Repository.assertGITLET();
+        Commit oldCommit = getCommit(oldCommitID);
+        Commit newCommit = getCommit(newCommitID);
+        if (oldCommit == null || newCommit == null) {
+            printAndExit("No commit with that id exists.");
+        } // Special case: abort if either commit does not exist.
+        printTreeDiff(TreeDiff.diff(oldCommit.getCommitTreeID(), newCommit.getCommitTreeID()));
+    }
+
+    /* HELPER METHODS */
+
+    /**
+     * Print the diffs of the changes between two Trees, an added path renamed or copied from another
+     * (see Rename) being diffed against that path. The removed path of a rename is not printed on its own.
+     * The Blobs a partial fetch left out are faulted in as one batch first (see Promisor).
+     */
+    private static void printTreeDiff(List<TreeDiff> changes) {
+        List<String> blobIDs = new ArrayList<>();
+        Map<String, String> oldBlobIDs = new HashMap<>();
+        for (TreeDiff change : changes) {
+            blobIDs.add(change.getOldBlobID());
+            blobIDs.add(change.getNewBlobID());
+            oldBlobIDs.put(change.getFileName(), change.getOldBlobID());
+        }
+        Promisor.prefetch(currObjectDatabase(), blobIDs);
+        Map<String, Rename> renames = new HashMap<>();
+        Set<String> renamedFiles = new HashSet<>();
+        for (Rename rename : Rename.detect(changes, true)) {
+            renames.put(rename.getNewFileName(), rename);
+            if (!rename.isCopy()) {
+                renamedFiles.add(rename.getOldFileName());
+            }
+        }
+        PrintWriter out = output();
+        for (TreeDiff change : changes) {
+            String fileName = change.getFileName();
+            Rename rename = renames.get(fileName);
+            if (change.isRemoved() && renamedFiles.contains(fileName)) {
+                continue;
+            } // Special case: the removed path of a rename is printed with the added one.
+            String newContent = change.isRemoved() ? null : getBlob(change.getNewBlobID()).getContent();
+            if (rename != null) {
+                String kind = rename.isCopy() ? "copy" : "rename";
+                String header = "similarity index " + rename.getSimilarity() + "%\n"
+                        + kind + " from " + rename.getOldFileName() + "\n" + kind + " to " + fileName + "\n";
+                String oldContent = getBlob(oldBlobIDs.get(rename.getOldFileName())).getContent();
+                printFileDiff(out, rename.getOldFileName(), fileName, header, oldContent, newContent);
+                continue;
+            } // Special case: a renamed or copied path is diffed against its source.
+            String oldContent = change.isAdded() ? null : getBlob(change.getOldBlobID()).getContent();
+            String header = change.isAdded() ? "new file\n" : change.isRemoved() ? "deleted file\n" : "";
+            printFileDiff(out, fileName, fileName, header, oldContent, newContent);
+        }
+        out.flush();
+    }
+
+    /** Return a buffered writer to the standard output, which must be flushed when done. */
+    private static PrintWriter output() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+    }
+
+    /**
+     * Print the unified diff of a file from OLD CONTENT to NEW CONTENT,
+     * either of which is null if the file does not exist on that side, after the extended HEADER lines.
+     * The edits closer than 2 * CONTEXT lines to each other are printed in one hunk.
+     */
+    private static void printFileDiff(PrintWriter out, String oldFileName, String newFileName, String header,
+                                      String oldContent, String newContent) {
+        List<String> oldLines = LineDiff.splitLines(oldContent == null ? "" : oldContent);
+        List<String> newLines = LineDiff.splitLines(newContent == null ? "" : newContent);
+        List<LineDiff> edits = LineDiff.diff(oldLines, newLines);
+        out.print("diff --git a/" + oldFileName + " b/" + newFileName + "\n");
+        out.print(header);
+        if (edits.isEmpty()) {
+            return;
+        } // Special case: an empty file added or deleted, or an exact rename, has no hunk.
+        out.print("--- " + (oldContent == null ? "/dev/null" : "a/" + oldFileName) + "\n");
+        out.print("+++ " + (newContent == null ? "/dev/null" : "b/" + newFileName) + "\n");
+        int first = 0;
+        while (first < edits.size()) {
+            int last = first;
+            while (last + 1 < edits.size()
+                    && edits.get(last + 1).getAStart() - edits.get(last).getAEnd() <= 2 * CONTEXT) {
+                last += 1;
+            }
+            printHunk(out, oldLines, newLines, edits.subList(first, last + 1));
+            first = last + 1;
+        }
+    }
+
+    /** Print a hunk holding EDITS, with CONTEXT lines before the first one and after the last one. */
+    private static void printHunk(PrintWriter out, List<String> oldLines, List<String> newLines,
+                                  List<LineDiff> edits) {
+        LineDiff firstEdit = edits.get(0);
+        LineDiff lastEdit = edits.get(edits.size() - 1);
+        int oldLo = Math.max(0, firstEdit.getAStart() - CONTEXT);
+        int oldHi = Math.min(oldLines.size(), lastEdit.getAEnd() + CONTEXT);
+        int newLo = firstEdit.getBStart() - (firstEdit.getAStart() - oldLo);
+        int newHi = lastEdit.getBEnd() + (oldHi - lastEdit.getAEnd());
+        out.print("@@ -" + range(oldLo, oldHi) + " +" + range(newLo, newHi) + " @@\n");
+        int oldPos = oldLo;
+        for (LineDiff edit : edits) {
+            printLines(out, ' ', oldLines, oldPos, edit.getAStart());
+            printLines(out, '-', oldLines, edit.getAStart(), edit.getAEnd());
+            printLines(out, '+', newLines, edit.getBStart(), edit.getBEnd());
+            oldPos = edit.getAEnd();
+        }
+        printLines(out, ' ', oldLines, oldPos, oldHi);
+    }
+
+    /** Print lines [from, to) with a designated prefix. */
+    private static void printLines(PrintWriter out, char prefix, List<String> lines, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            String line = lines.get(i);
+            out.print(prefix);
+            out.print(line);
+            if (!line.endsWith("\n")) {
+                out.print("\n" + NO_NEWLINE + "\n");
+            } // Special case: the last line has no line terminator.
+        }
+    }
+
+    /** Return the range [lo, hi) of lines in the hunk header format: the first line, and the number of lines. */
+    private static String range(int lo, int hi) {
+        int length = hi - lo;
+        if (length == 1) {
+            return String.valueOf(lo + 1);
+        }
+        return (length == 0 ? lo : lo + 1) + "," + length;
+    }
+}
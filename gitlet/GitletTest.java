@@ -2,11 +2,30 @@ package gitlet;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
 
 import static gitlet.Cache.*;
-import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Repository.gitletDir;
+import static gitlet.Repository.promisorFile;
+import static gitlet.Repository.shallowFile;
 import static gitlet.Utils.*;
 import static org.junit.Assert.*;
 
@@ -170,6 +189,53 @@ public class GitletTest {
         gitletExecute("log");
     }
 
+    /** The log of a file only shows the commits that changed it. */
+    @Test
+    public void fileLogTest() throws IOException {
+        gitletExecute("init");
+        writeAndAdd("_hello.txt", "hello");
+        gitletExecute("commit", "added hello");
+        writeAndAdd("_bye.txt", "bye");
+        gitletExecute("commit", "added bye");
+        writeAndAdd("_hello.txt", "hello again");
+        gitletExecute("commit", "changed hello");
+        gitletExecute("rm", "_hello.txt");
+        gitletExecute("commit", "removed hello");
+
+        String log = gitletOutput("log", "--", "_hello.txt");
+        assertEquals(3, log.split("===\n").length - 1);
+        assertTrue(log.contains("\nremoved hello\n") && log.contains("\nchanged hello\n")
+                && log.contains("\nadded hello\n") && !log.contains("added bye"));
+    }
+
+
+    /** Every commit gets a filter of the paths it changed, which never misses a changed path. */
+    @Test
+    public void changedPathsTest() throws IOException {
+        gitletExecute("init");
+        writeAndAdd("_hello.txt", "hello");
+        writeAndAdd("_bye.txt", "bye");
+        gitletExecute("commit", "added both");
+        writeAndAdd("_hello.txt", "hello again");
+        gitletExecute("commit", "changed hello");
+        Commit head = getLatestCommit();
+
+        assertTrue(ChangedPaths.mayHaveChanged(head.id(), "_hello.txt"));
+        assertFalse(ChangedPaths.mayHaveChanged(head.id(), "_bye.txt"));
+        assertTrue(ChangedPaths.mayHaveChanged(head.getParentCommitID(), "_bye.txt"));
+        assertTrue(ChangedPaths.mayHaveChanged("no such commit", "_bye.txt"));
+        File changedPaths = join(gitletDir(), "changed-paths");
+        assertEquals(3, readCompleteLines(changedPaths).size());
+
+        String content = readContentsAsString(changedPaths);
+        writeContents(changedPaths, content.substring(0, content.length() - 5));
+        cleanCache();
+        assertTrue(ChangedPaths.mayHaveChanged(head.id(), "_bye.txt"));
+        writeAndAdd("_hello.txt", "hello once more");
+        gitletExecute("commit", "changed hello again");
+        assertFalse(ChangedPaths.mayHaveChanged(getLatestCommitID(), "_bye.txt"));
+        assertEquals(3, readCompleteLines(changedPaths).size());
+    } // Special case: a torn line is skipped, then cut off by the next append.
 
     /* GLOBAL-LOG COMMAND */
 
@@ -198,6 +264,59 @@ public class GitletTest {
         gitletExecute("global-log");
     }
 
+    /** Test global-log prints every commit before its parents, and keeps lines of history together in topo order. */
+    @Test
+    public void globalLogOrderTest() throws IOException {
+        gitletExecute("init");
+        gitletExecute("branch", "cool-bean");
+        writeAndAdd("_hello.txt", "hello");
+        gitletExecute("commit", "master 1");
+        writeAndAdd("_hello.txt", "hello again");
+        gitletExecute("commit", "master 2");
+        gitletExecute("checkout", "cool-bean");
+        writeAndAdd("_bye.txt", "bye");
+        gitletExecute("commit", "cool-bean 1");
+        writeAndAdd("_bye.txt", "bye again");
+        gitletExecute("commit", "cool-bean 2");
+        gitletExecute("checkout", "master");
+        gitletExecute("merge", "cool-bean");
+
+        assertEquals(List.of("Merged cool-bean into master.", "master 2", "master 1",
+                        "cool-bean 2", "cool-bean 1", "initial commit"),
+                logMessages(gitletOutput("global-log", "--topo-order")));
+        List<String> byDate = logMessages(gitletOutput("global-log"));
+        assertEquals(6, byDate.size());
+        assertEquals("Merged cool-bean into master.", byDate.get(0));
+        assertEquals("initial commit", byDate.get(5));
+        assertTrue(byDate.indexOf("master 2") < byDate.indexOf("master 1")
+                && byDate.indexOf("cool-bean 2") < byDate.indexOf("cool-bean 1"));
+        assertEquals(6, readCompleteLines(join(gitletDir(), "commit-graph")).size());
+    }
+
+    /** A commit whose write back aborts should leave no trace in the commit-graph or the changed-path filters. */
+    @Test
+    public void abortedCommitGraphTest() throws IOException {
+        gitletExecute("init");
+        String initialID = getLatestCommitID();
+        cleanCache();
+        writeAndAdd("_hello.txt", "one");
+        gitletExecute("commit", "one");
+        writeAndAdd("_hello.txt", "two");
+        Repository.commit("two");
+        writeContents(join(gitletDir(), "branches", "master"), initialID); // Another process moves master.
+        try {
+            Cache.writeBack();
+            fail();
+        } catch (GitletException excp) {
+            assertEquals("The repository was changed by another Gitlet process; please retry.", excp.getMessage());
+        }
+        cleanCache();
+
+        assertEquals(2, readCompleteLines(join(gitletDir(), "commit-graph")).size());
+        assertEquals(2, readCompleteLines(join(gitletDir(), "changed-paths")).size());
+        assertEquals(List.of("one", "initial commit"), logMessages(gitletOutput("global-log")));
+    }
+
     /* FIND COMMAND */
 
     /** Sanity test for find command. */
@@ -338,6 +457,29 @@ public class GitletTest {
         gitletExecute("status");
     }
 
+    /** Checkout of a branch only writes the files that differ, and records them in the stat index. */
+    @Test
+    public void checkoutChangedFilesTest() throws IOException {
+        gitletExecute("init");
+        writeAndAdd("_same.txt", "same");
+        writeAndAdd("_changed.txt", "old");
+        gitletExecute("commit", "two files");
+        gitletExecute("branch", "other");
+        writeAndAdd("_changed.txt", "new");
+        gitletExecute("commit", "changed one");
+
+        File same = join(CWD, "_same.txt");
+        assertTrue(same.setLastModified(1000000000000L));
+        writeTestFile("_changed.txt", "dirty");
+        gitletExecute("checkout", "other");
+        assertEquals(1000000000000L, same.lastModified());
+        assertFile("_changed.txt", "old");
+        assertTrue(readContentsAsString(Repository.indexFile()).contains(" _changed.txt\n"));
+        gitletExecute("checkout", "master");
+        assertFile("_changed.txt", "new");
+        assertEquals(1000000000000L, same.lastModified());
+    }
+
     /* BRANCH COMMAND */
 
     /** Sanity test for branch command. */
@@ -396,6 +538,126 @@ public class GitletTest {
         System.out.println(Commit.lca(commit1, commit2).id());
     }
 
+    /** A fast-forward merge is written back, applies only the diff, and keeps untracked files. */
+    @Test
+    public void fastForwardTest() throws IOException {
+        gitletExecute("init");
+        writeAndAdd("_kept.txt", "kept");
+        writeAndAdd("_gone.txt", "gone");
+        gitletExecute("commit", "base");
+        String baseTreeID = getLatestCommit().getCommitTreeID();
+        gitletExecute("branch", "ahead");
+        gitletExecute("checkout", "ahead");
+        writeAndAdd("_kept.txt", "changed");
+        gitletExecute("rm", "_gone.txt");
+        writeAndAdd("_new.txt", "new");
+        gitletExecute("commit", "ahead");
+        String aheadID = getLatestCommitID();
+        assertEquals("[_gone.txt (removed), _kept.txt (modified), _new.txt (added)]",
+                TreeDiff.diff(baseTreeID, getLatestCommit().getCommitTreeID()).toString());
+        cleanCache();
+
+        gitletExecute("checkout", "master");
+        writeTestFile("_untracked.txt", "untracked");
+        gitletExecute("merge", "ahead");
+        assertEquals(aheadID, getBranch("master"));
+        assertFile("_kept.txt", "changed");
+        assertFile("_new.txt", "new");
+        assertFileNotExist("_gone.txt");
+        assertFile("_untracked.txt", "untracked");
+        deleteTestFile("_untracked.txt");
+    }
+
+    /** Every way a file can change on both sides of a merge. */
+    @Test
+    public void mergePlanTest() throws IOException {
+        gitletExecute("init");
+        for (String name : new String[]{"_theirs", "_ours", "_both", "_conflict", "_removed"}) {
+            writeAndAdd(name + ".txt", "base");
+        }
+        gitletExecute("commit", "base");
+        gitletExecute("branch", "other");
+        writeAndAdd("_ours.txt", "ours");
+        writeAndAdd("_both.txt", "same");
+        writeAndAdd("_conflict.txt", "ours");
+        gitletExecute("commit", "ours");
+        gitletExecute("checkout", "other");
+        writeAndAdd("_theirs.txt", "theirs");
+        writeAndAdd("_both.txt", "same");
+        writeAndAdd("_conflict.txt", "theirs");
+        gitletExecute("rm", "_removed.txt");
+        writeAndAdd("_added.txt", "added");
+        gitletExecute("commit", "theirs");
+        gitletExecute("checkout", "master");
+
+        gitletExecute("merge", "other");
+        assertFile("_theirs.txt", "theirs");
+        assertFile("_ours.txt", "ours");
+        assertFile("_both.txt", "same");
+        assertFile("_conflict.txt", "<<<<<<< HEAD\nours=======\ntheirs>>>>>>>\n");
+        assertFileNotExist("_removed.txt");
+        assertFile("_added.txt", "added");
+        assertFalse(getLatestCommit().trackedFile("_removed.txt"));
+    }
+
+    /** Edits to different lines of a file merge cleanly, and only overlapping edits conflict. */
+    @Test
+    public void lineMergeTest() throws IOException {
+        gitletExecute("init");
+        writeAndAdd("_clean.txt", "a\nb\nc\nd\ne\n");
+        writeAndAdd("_conflict.txt", "a\nb\nc\nd\ne\n");
+        gitletExecute("commit", "base");
+        gitletExecute("branch", "other");
+        writeAndAdd("_clean.txt", "A\nb\nc\nd\ne\n");
+        writeAndAdd("_conflict.txt", "a\nb\nours\nd\nE\n");
+        gitletExecute("commit", "ours");
+        gitletExecute("checkout", "other");
+        writeAndAdd("_clean.txt", "a\nb\nc\nd\nE\nf\n");
+        writeAndAdd("_conflict.txt", "a\nb\ntheirs\nd\nE\n");
+        gitletExecute("commit", "theirs");
+        gitletExecute("checkout", "master");
+
+        gitletExecute("merge", "other");
+        assertFile("_clean.txt", "A\nb\nc\nd\nE\nf\n");
+        assertFile("_conflict.txt", "a\nb\n<<<<<<< HEAD\nours\n=======\ntheirs\n>>>>>>>\nd\nE\n");
+
+        LineMerge merged = LineMerge.merge("1\n2\n3\n", "0\n1\n2\n3\n", "1\n2\n3\n4\n");
+        assertEquals("0\n1\n2\n3\n4\n", merged.getContent());
+        assertFalse(merged.isConflicted());
+    }
+
+    /** An edit to a file is carried onto the path the other branch renamed it to, both ways. */
+    @Test
+    public void renameMergeTest() throws IOException {
+        String lines = "1\n2\n3\n4\n5\n6\n7\n8\n";
+        gitletExecute("init");
+        writeAndAdd("_ours.txt", lines);
+        writeAndAdd("_theirs.txt", lines.replace("1", "one"));
+        gitletExecute("commit", "base");
+        gitletExecute("branch", "other");
+        writeAndAdd("_ours.txt", lines.replace("8", "eight"));
+        gitletExecute("rm", "_theirs.txt");
+        writeAndAdd("_renamed.txt", lines.replace("1", "one").replace("2", "two"));
+        gitletExecute("commit", "ours");
+        gitletExecute("checkout", "other");
+        gitletExecute("rm", "_ours.txt");
+        writeAndAdd("_moved.txt", lines.replace("1", "ONE"));
+        writeAndAdd("_theirs.txt", lines.replace("1", "one").replace("8", "eight"));
+        gitletExecute("commit", "theirs");
+        gitletExecute("checkout", "master");
+
+        gitletExecute("merge", "other");
+        assertFileNotExist("_ours.txt");
+        assertFile("_moved.txt", lines.replace("1", "ONE").replace("8", "eight"));
+        assertFileNotExist("_theirs.txt");
+        assertFile("_renamed.txt", lines.replace("1", "one").replace("2", "two").replace("8", "eight"));
+
+        String base = getLatestCommit().getParentCommitID();
+        String diff = gitletOutput("diff", base, getLatestCommit().id());
+        assertTrue(diff.startsWith("diff --git a/_ours.txt b/_moved.txt\nsimilarity index 81%\n"
+                + "rename from _ours.txt\nrename to _moved.txt\n"));
+    }
+
     /** A sanity test for the merge command. */
     @Test
     public void mergeSanityTest() throws IOException {
@@ -479,6 +741,63 @@ public class GitletTest {
                 "<<<<<<< HEAD\n!CONFLICT\n=======\nCONFLICT\n>>>>>>>\n");
     }
 
+    /* DIFF COMMAND */
+
+    /** The diff command prints unstaged, staged and committed changes, skipping unchanged files. */
+    @Test
+    public void diffTest() throws IOException {
+        gitletExecute("init");
+        writeAndAdd("_same.txt", "same\n");
+        writeAndAdd("_hello.txt", "a\nb\nc\n");
+        gitletExecute("commit", "base");
+        writeAndAdd("_hello.txt", "a\nB\nc\n");
+        writeTestFile("_hello.txt", "a\nB\nc\nd\n");
+
+        String hunk = "diff --git a/_hello.txt b/_hello.txt\n--- a/_hello.txt\n+++ b/_hello.txt\n";
+        assertEquals(hunk + "@@ -1,3 +1,4 @@\n a\n B\n c\n+d\n", gitletOutput("diff"));
+        assertEquals(hunk + "@@ -1,3 +1,3 @@\n a\n-b\n+B\n c\n", gitletOutput("diff", "--cached"));
+        gitletExecute("commit", "changed");
+        String head = getLatestCommit().id();
+        String base = getLatestCommit().getParentCommitID();
+        assertEquals(hunk + "@@ -1,3 +1,3 @@\n a\n-b\n+B\n c\n", gitletOutput("diff", base, head));
+        assertEquals("", gitletOutput("diff", head, head));
+    }
+
+    /* BLAME COMMAND */
+
+    /** Every line is blamed on the commit that last changed it, across a rename, and the result is cached. */
+    @Test
+    public void blameTest() throws IOException {
+        gitletExecute("init");
+        writeAndAdd("_hello.txt", "a\nb\nc\n");
+        gitletExecute("commit", "first");
+        String first = getLatestCommit().id();
+        writeAndAdd("_hello.txt", "a\nB\nc\nd\n");
+        gitletExecute("commit", "second");
+        String second = getLatestCommit().id();
+        writeAndAdd("_bye.txt", "bye\n");
+        gitletExecute("commit", "unrelated");
+        gitletExecute("rm", "_hello.txt");
+        writeAndAdd("_renamed.txt", "a\nB\nc\nd\ne\n");
+        gitletExecute("commit", "renamed");
+        String renamed = getLatestCommit().id();
+
+        assertEquals(List.of(first, second, first, second, renamed),
+                List.of(Blame.blameLines(getLatestCommit(), "_renamed.txt")));
+        String output = gitletOutput("blame", "_renamed.txt");
+        assertTrue(output.startsWith(first.substring(0, 8) + " ("));
+        assertTrue(output.endsWith(" 5) e\n"));
+        assertEquals(1, join(gitletDir(), "blame").list().length);
+
+        deleteDirectory(join(gitletDir(), "blame"));
+        cleanCache();
+        Blame.blameLines(getLatestCommit(), "_renamed.txt");
+        assertEquals(1, join(gitletDir(), "blame").list().length);
+        writeContents(join(gitletDir(), "branches", "master"), first); // Another process moves master meanwhile.
+        Cache.writeBack(); // The cache is written outside the journal, so a blame commits nothing to conflict with.
+        assertEquals(first, readContentsAsString(join(gitletDir(), "branches", "master")));
+    }
+
     /* ADD-REMOTE COMMAND */
 
     /** A sanity test for add-remote command. */
@@ -531,6 +850,639 @@ public class GitletTest {
     }
 
 
+    /* PERSISTENCE */
+
+    /** A journal left behind by an interrupted write back should be replayed by the next command. */
+    @Test
+    public void journalRecoveryTest() throws IOException {
+        gitletExecute("init");
+        writeAndAdd("_hello.txt", "hello");
+        gitletExecute("commit", "added hello");
+        String commitID = getLatestCommitID();
+        cleanCache();
+
+        TreeMap<String, byte[]> updates = new TreeMap<>();
+        updates.put("branches" + File.separator + "other", commitID.getBytes());
+        writeObject(join(gitletDir(), "JOURNAL"), updates);
+        gitletExecute("status");
+        assertFalse(join(gitletDir(), "JOURNAL").exists());
+        assertEquals(commitID, readContentsAsString(join(gitletDir(), "branches", "other")));
+    }
+
+    /** A write back should abort rather than overwrite a branch another process changed after it was read. */
+    @Test
+    public void concurrentWriteBackTest() throws IOException {
+        gitletExecute("init");
+        String initialID = getLatestCommitID();
+        cleanCache();
+        writeAndAdd("_hello.txt", "hello");
+        gitletExecute("commit", "added hello");
+        String helloID = getLatestCommitID();
+        cleanCache();
+
+        Repository.branch("other"); // Reads that there is no branch "other", and records it at the head.
+        File other = join(gitletDir(), "branches", "other");
+        writeContents(other, initialID); // Another process creates the branch elsewhere meanwhile.
+        try {
+            Cache.writeBack();
+            fail();
+        } catch (GitletException excp) {
+            assertEquals("The repository was changed by another Gitlet process; please retry.", excp.getMessage());
+        }
+        cleanCache();
+        assertEquals(initialID, readContentsAsString(other));
+        assertEquals(helloID, readContentsAsString(join(gitletDir(), "branches", "master")));
+        assertFalse(join(gitletDir(), "JOURNAL").exists());
+        try (FileChannel channel = FileChannel.open(join(gitletDir(), "refs.lock").toPath(),
+                StandardOpenOption.WRITE)) {
+            assertNotNull(channel.tryLock());
+        } // The aborted write back released the lock.
+    }
+
+    /** A journal whose writer still holds refs.lock is being committed, so recovery should leave it alone. */
+    @Test
+    public void journalInUseTest() throws IOException {
+        gitletExecute("init");
+        writeAndAdd("_hello.txt", "hello");
+        gitletExecute("commit", "added hello");
+        String commitID = getLatestCommitID();
+        cleanCache();
+
+        TreeMap<String, byte[]> updates = new TreeMap<>();
+        updates.put("branches" + File.separator + "other", commitID.getBytes());
+        File journalFile = join(gitletDir(), "JOURNAL");
+        writeObject(journalFile, updates);
+        File other = join(gitletDir(), "branches", "other");
+        try (FileChannel channel = FileChannel.open(join(gitletDir(), "refs.lock").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.lock(); // Held as the writer would, until the channel is closed.
+            Journal.open(gitletDir()).recover();
+            assertTrue(journalFile.exists());
+            assertFalse(other.exists());
+        }
+        Journal.open(gitletDir()).recover();
+        assertFalse(journalFile.exists());
+        assertEquals(commitID, readContentsAsString(other));
+    }
+
+    /** A finished write back should leave no temporary file and no journal behind. */
+    @Test
+    public void writeBackLeavesNoTempFilesTest() throws IOException {
+        gitletExecute("init");
+        writeAndAdd("_hello.txt", "hello");
+        gitletExecute("commit", "added hello");
+        gitletExecute("log");
+        assertFalse(join(gitletDir(), "JOURNAL").exists());
+        for (String fileName : plainFilenamesIn(gitletDir())) {
+            assertFalse(fileName.startsWith(TEMP_PREFIX));
+        }
+    }
+
+    /** Several threads should be able to use the object databases of several repositories at once. */
+    @Test
+    public void objectDatabaseConcurrencyTest() throws InterruptedException {
+        File[] gitletDirs = {join(CWD, "_repo1", ".gitlet"), join(CWD, "_repo2", ".gitlet")};
+        for (File gitletDir : gitletDirs) {
+            deleteDirectory(gitletDir.getParentFile());
+            join(gitletDir, "objects").mkdirs();
+        }
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            int n = i;
+            threads[i] = new Thread(() -> {
+                ObjectDatabase database = ObjectDatabase.open(gitletDirs[n % 2]);
+                for (int j = 0; j < 100; j++) {
+                    database.put(new Blob("blob " + n + " " + j));
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (File gitletDir : gitletDirs) {
+            ObjectDatabase.open(gitletDir).writeBack();
+        }
+        ObjectDatabase.closeAll();
+
+        for (int i = 0; i < threads.length; i++) {
+            ObjectDatabase database = ObjectDatabase.open(gitletDirs[i % 2]);
+            ObjectDatabase other = ObjectDatabase.open(gitletDirs[(i + 1) % 2]);
+            for (int j = 0; j < 100; j++) {
+                String id = new Blob("blob " + i + " " + j).id();
+                assertEquals("blob " + i + " " + j, ((Blob) database.get(id)).getContent());
+                assertFalse(other.contains(id));
+            }
+        }
+        for (File gitletDir : gitletDirs) {
+            deleteDirectory(gitletDir.getParentFile());
+        }
+    }
+
+    /** Two threads should be able to run commands on two repositories at once, each with its own caches. */
+    @Test
+    public void repositoryInstanceTest() throws IOException, InterruptedException {
+        gitletExecute("init");
+        File[] cwds = {join(CWD, "_repo1"), join(CWD, "_repo2")};
+        Thread[] threads = new Thread[cwds.length];
+        List<Throwable> failures = new ArrayList<>();
+        for (int i = 0; i < threads.length; i++) {
+            File cwd = cwds[i];
+            deleteDirectory(cwd);
+            cwd.mkdirs();
+            threads[i] = new Thread(() -> {
+                try {
+                    new Repository(cwd).run(Repository::init);
+                    for (int j = 0; j < 20; j++) {
+                        String message = cwd.getName() + " " + j;
+                        writeContents(join(cwd, "_hello.txt"), message);
+                        new Repository(cwd).run(() -> {
+                            Repository.add("_hello.txt");
+                            Repository.commit(message);
+                        });
+                    }
+                } catch (Throwable excp) {
+                    synchronized (failures) {
+                        failures.add(excp);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(List.of(), failures);
+
+        for (File cwd : cwds) {
+            new Repository(cwd).run(() -> {
+                assertEquals(cwd.getName() + " 19", getLatestCommit().getMessage());
+                assertEquals("master", getHEAD());
+                int commits = 0;
+                for (String commitID : getAllCommitsID()) {
+                    assertTrue(getCommit(commitID) != null);
+                    commits += 1;
+                }
+                assertEquals(21, commits);
+            });
+            deleteDirectory(cwd);
+        }
+        assertEquals(join(CWD, ".gitlet"), gitletDir()); // The repository of this thread is bound again.
+    }
+
+    /** A delta should rebuild the target from its base, and be refused if it saves little. */
+    @Test
+    public void deltaTest() {
+        StringBuilder base = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            base.append("line ").append(i).append("\n");
+        }
+        String target = base.toString().replace("line 500\n", "line 500 changed\nnew line\n") + "tail\n";
+        byte[] delta = Delta.encode(base.toString().getBytes(), target.getBytes());
+        assertNotNull(delta);
+        assertTrue(delta.length < target.length() / 10);
+        assertEquals(target, new String(Delta.apply(base.toString().getBytes(), delta)));
+        assertNull(Delta.encode("abc".getBytes(), "something else entirely".getBytes()));
+    }
+
+    /** Objects sent as a pack should be readable from the receiving object database, including deltas. */
+    @Test
+    public void packFileTest() throws IOException {
+        File[] gitletDirs = {join(CWD, "_repo1", ".gitlet"), join(CWD, "_repo2", ".gitlet")};
+        for (File gitletDir : gitletDirs) {
+            deleteDirectory(gitletDir.getParentFile());
+            join(gitletDir, "objects").mkdirs();
+        }
+        ObjectDatabase from = ObjectDatabase.open(gitletDirs[0]);
+        List<String> ids = new ArrayList<>();
+        Map<String, String> deltaBases = new HashMap<>();
+        String content = "";
+        for (int i = 0; i < 20; i++) {
+            content += "version " + i + " of a file that grows a little with every version\n";
+            String id = from.put(new Blob(content));
+            if (!ids.isEmpty()) {
+                deltaBases.put(id, ids.get(ids.size() - 1));
+            }
+            ids.add(id);
+        }
+        from.writeBack();
+        ByteArrayOutputStream pack = new ByteArrayOutputStream();
+        PackFile.write(pack, from, ids, deltaBases);
+
+        ObjectDatabase to = ObjectDatabase.open(gitletDirs[1]);
+        to.receivePack(new ByteArrayInputStream(pack.toByteArray()));
+        ObjectDatabase.closeAll();
+        to = ObjectDatabase.open(gitletDirs[1]);
+        for (String id : ids) {
+            assertTrue(to.contains(id));
+            assertEquals(((Blob) from.get(id)).getContent(), ((Blob) to.get(id)).getContent());
+        }
+        String lastID = ids.get(ids.size() - 1);
+        assertEquals(lastID, to.get(lastID.substring(0, 8)).id());
+        assertNull(join(gitletDirs[1], "objects", lastID.substring(0, 2)).listFiles());
+
+        byte[] corrupted = pack.toByteArray();
+        corrupted[corrupted.length / 2] ^= 1;
+        try {
+            to.receivePack(new ByteArrayInputStream(corrupted));
+            fail();
+        } catch (GitletException excp) {
+            assertTrue(excp.getMessage().startsWith("Cannot receive pack"));
+        }
+
+        String forgedID = sha1("forged");
+        byte[] blob = compress(serialize(new Blob("not forged")));
+        byte[][] forged = {forgedPack(forgedID, 0, null, blob.length, blob),
+            forgedPack(forgedID, 1, forgedID, blob.length, blob)};
+        for (byte[] forgedPack : forged) {
+            try {
+                to.receivePack(new ByteArrayInputStream(forgedPack));
+                fail();
+            } catch (GitletException excp) {
+                assertTrue(excp.getMessage().startsWith("Cannot receive pack"));
+            }
+            assertFalse(to.contains(forgedID));
+        } // Special case: an entry not hashing to its ID, and a delta based on itself.
+        for (File gitletDir : gitletDirs) {
+            deleteDirectory(gitletDir.getParentFile());
+        }
+    }
+
+    /** A received pack should be refused without running out of memory, leaking a temporary file or
+     *  deserializing anything but HashObjects, whatever its entries announce. */
+    @Test
+    public void untrustedPackTest() throws IOException, ReflectiveOperationException {
+        File gitletDir = join(CWD, "_repo1", ".gitlet");
+        deleteDirectory(gitletDir.getParentFile());
+        join(gitletDir, "objects").mkdirs();
+        ObjectDatabase to = ObjectDatabase.open(gitletDir);
+
+        Tree smuggler = new Tree();
+        Field structure = Tree.class.getDeclaredField("_structure");
+        structure.setAccessible(true);
+        structure.set(smuggler, new HashMap<>(Map.of("a", sha1("a"))));
+        String id = smuggler.id(); // Hashes to its ID, but is made of a class no HashObject uses.
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        ByteArrayOutputStream bomb = new ByteArrayOutputStream();
+        byte[] zeros = new byte[1 << 20];
+        byte[] buffer = new byte[1 << 16];
+        for (int i = 0; i <= PackFile.MAX_OBJECT_SIZE / zeros.length; i += 1) {
+            deflater.setInput(zeros);
+            while (!deflater.needsInput()) {
+                bomb.write(buffer, 0, deflater.deflate(buffer));
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            bomb.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+
+        byte[] empty = new byte[0];
+        byte[] smuggled = compress(serialize(smuggler));
+        byte[][] forged = {forgedPack(id, 0, null, -1, empty), forgedPack(id, 0, null, Integer.MAX_VALUE, empty),
+            forgedPack(id, 0, null, bomb.size(), bomb.toByteArray()),
+            forgedPack(id, 0, null, smuggled.length, smuggled)};
+        String[] reasons = {"Bad entry length -1.", "Bad entry length 2147483647.",
+            "decompressed data too long", "filter status: REJECTED"};
+        for (int i = 0; i < forged.length; i += 1) {
+            try {
+                to.receivePack(new ByteArrayInputStream(forged[i]));
+                fail();
+            } catch (GitletException excp) {
+                assertTrue(excp.getMessage().startsWith("Cannot receive pack"));
+                assertTrue(excp.getMessage().endsWith(reasons[i]));
+            }
+            assertFalse(to.contains(id));
+            assertEquals(List.of(), plainFilenamesIn(join(gitletDir, "objects", PackFile.PACK_DIR_NAME)));
+        }
+        deleteDirectory(gitletDir.getParentFile());
+    }
+
+    /**
+     * Return a pack of one entry with designated ID, type, base ID (or null), announced length and data,
+     * as PackFile.write() would if LENGTH is the length of DATA.
+     */
+    private static byte[] forgedPack(String id, int type, String baseID, int length, byte[] data)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x4750434B);
+        out.writeInt(1);
+        out.writeInt(1);
+        out.writeBytes(id);
+        out.writeByte(type);
+        if (baseID != null) {
+            out.writeBytes(baseID);
+        }
+        out.writeInt(length);
+        out.write(data);
+        try {
+            out.write(MessageDigest.getInstance("SHA-1").digest(bytes.toByteArray()));
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp);
+        }
+        return bytes.toByteArray();
+    }
+
+
+    /* COMMIT WALK */
+
+    /** A walk should read only the new commits, and tell whether a push is a fast-forward. */
+    @Test
+    public void commitWalkTest() throws IOException {
+        gitletExecute("init");
+        List<String> commitIDs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            writeAndAdd("_walk.txt", "version " + i);
+            gitletExecute("commit", "commit " + i);
+            commitIDs.add(getLatestCommitID());
+            cleanCache();
+        }
+        gitletExecute("branch", "other");
+        gitletExecute("checkout", "other");
+        gitletExecute("reset", commitIDs.get(2));
+        writeAndAdd("_other.txt", "other");
+        gitletExecute("commit", "diverged");
+        String divergedID = getLatestCommitID();
+        ObjectDatabase objects = Cache.currObjectDatabase();
+
+        CommitWalk walk = new CommitWalk(objects);
+        walk.markInteresting(commitIDs.get(4));
+        walk.markUninteresting(commitIDs.get(3));
+        assertEquals(Set.of(commitIDs.get(4)), walk.run());
+        assertTrue(walk.reachedFromInteresting(commitIDs.get(3)));
+        assertTrue(walk.commitsRead() <= 3);
+
+        walk = new CommitWalk(objects);
+        walk.markInteresting(commitIDs.get(4));
+        walk.markUninteresting(commitIDs.get(1));
+        assertEquals(Set.of(commitIDs.get(4), commitIDs.get(3), commitIDs.get(2)), walk.run());
+
+        walk = new CommitWalk(objects);
+        walk.markInteresting(divergedID);
+        walk.markUninteresting(commitIDs.get(4));
+        assertEquals(Set.of(divergedID), walk.run());
+        assertFalse(walk.reachedFromInteresting(commitIDs.get(4)));
+        cleanCache();
+    }
+
+    /* NETWORK REMOTE */
+
+    /** Fetch from and push to a repository served by a loopback server. */
+    @Test
+    public void networkRemoteTest() throws IOException {
+        File served = join(CWD, "_served");
+        deleteDirectory(served);
+        gitletExecute("init");
+        writeAndAdd("a", "a");
+        gitletExecute("commit", "served commit");
+        String servedHeadID = getLatestCommitID();
+        cleanCache();
+        join(served, "origin").mkdirs();
+        assertTrue(gitletDir().renameTo(join(served, "origin", ".gitlet")));
+
+        Server server = Server.start(served, 0, false);
+        try {
+            gitletExecute("init");
+            gitletExecute("add-remote", "origin", "gitlet://localhost:" + server.port() + "/origin");
+            gitletExecute("fetch", "origin", "master");
+            assertEquals(servedHeadID, readContentsAsString(join(gitletDir(), "branches", "origin", "master")));
+            gitletExecute("reset", servedHeadID);
+            assertFile("a", "a");
+
+            writeAndAdd("b", "b");
+            gitletExecute("commit", "pushed commit");
+            String localHeadID = getLatestCommitID();
+            cleanCache();
+            gitletExecute("push", "origin", "master");
+            assertEquals(localHeadID, readContentsAsString(join(served, "origin", ".gitlet", "branches", "master")));
+            assertEquals("b", readContentsAsString(join(served, "origin", "b")));
+        } finally {
+            server.close();
+            deleteDirectory(served);
+        }
+    }
+
+    /** A loopback server should answer malformed and mistyped object IDs with an error line. */
+    @Test
+    public void serverObjectIDTest() throws IOException {
+        File served = join(CWD, "_served");
+        deleteDirectory(served);
+        gitletExecute("init");
+        writeAndAdd("a", "a");
+        gitletExecute("commit", "served commit");
+        String treeID = getLatestCommit().getCommitTreeID();
+        cleanCache();
+        join(served, "origin").mkdirs();
+        assertTrue(gitletDir().renameTo(join(served, "origin", ".gitlet")));
+
+        Server server = Server.start(served, 0, false);
+        try {
+            String[] wants = {"../../../../../../../../../../etc/passwd", "x", treeID};
+            String[] errors = {"error Protocol error: bad object id ../../../../../../../../../../etc/passwd.",
+                "error Protocol error: bad object id x.", "error No commit with id " + treeID + " exists."};
+            for (int i = 0; i < wants.length; i += 1) {
+                try (Connection connection = Connection.connect("localhost", server.port())) {
+                    connection.writeLine("upload-pack origin");
+                    connection.writeFlush();
+                    while (connection.readLine() != null) {
+                        continue;
+                    } // Skip the advertisement.
+                    connection.writeLine("want " + wants[i]);
+                    connection.writeFlush();
+                    assertEquals(errors[i], connection.readLine());
+                }
+            }
+        } finally {
+            server.close();
+            deleteDirectory(served);
+        }
+    }
+
+    /** A pushed branch name must stay under the branches folder. */
+    @Test
+    public void branchNameTest() {
+        assertTrue(Branch.isValidName("master"));
+        assertTrue(Branch.isValidName("origin/master"));
+        assertFalse(Branch.isValidName(""));
+        assertFalse(Branch.isValidName(".."));
+        assertFalse(Branch.isValidName("../../../pwned_branch"));
+        assertFalse(Branch.isValidName("origin/.."));
+        assertFalse(Branch.isValidName("/tmp/pwned_branch"));
+        assertFalse(Branch.isValidName("a/b/c"));
+        assertFalse(Branch.isValidName("..\\pwned_branch"));
+    }
+
+    /** A pushed file name must stay under the working directory. */
+    @Test
+    public void fileNameTest() {
+        assertTrue(Tree.isSafeFileName("a.txt"));
+        assertTrue(Tree.isSafeFileName("..a.txt"));
+        assertFalse(Tree.isSafeFileName(""));
+        assertFalse(Tree.isSafeFileName("../evil.txt"));
+        assertFalse(Tree.isSafeFileName("a/../../evil.txt"));
+        assertFalse(Tree.isSafeFileName("/tmp/evil.txt"));
+        assertFalse(Tree.isSafeFileName("..\\evil.txt"));
+        Tree tree = new Tree();
+        tree.putBlobID("a.txt", "0");
+        assertNull(tree.unsafeFileName());
+        tree.putBlobID("../evil.txt", "0");
+        assertEquals("../evil.txt", tree.unsafeFileName());
+    }
+
+    /* CLONE */
+
+    /** Clone a local repository with two branches into a new directory. */
+    @Test
+    public void cloneTest() throws IOException {
+        File cloneDir = join(CWD, "_clone");
+        deleteDirectory(cloneDir);
+        gitletExecute("init");
+        gitletExecute("branch", "other");
+        writeAndAdd("_clone.txt", "clone");
+        gitletExecute("commit", "cloned commit");
+        String headID = getLatestCommitID();
+        cleanCache();
+        File remoteGitlet = join(cloneDir, "origin", ".gitlet");
+        remoteGitlet.getParentFile().mkdirs();
+        assertTrue(gitletDir().renameTo(remoteGitlet));
+        join(CWD, "_clone.txt").delete();
+
+        try {
+            gitletExecute("clone", remoteGitlet.getPath(), join("_clone", "copy").getPath());
+            File copyGitlet = join(cloneDir, "copy", ".gitlet");
+            assertEquals("clone", readContentsAsString(join(cloneDir, "copy", "_clone.txt")));
+            assertEquals("master", readContentsAsString(join(copyGitlet, "HEAD")));
+            assertEquals(headID, readContentsAsString(join(copyGitlet, "branches", "master")));
+            assertEquals(headID, readContentsAsString(join(copyGitlet, "branches", "origin", "master")));
+            assertTrue(join(copyGitlet, "branches", "origin", "other").isFile());
+            String objectPath = headID.substring(0, 2) + File.separator + headID.substring(2);
+            assertTrue(Files.isSameFile(join(remoteGitlet, "objects", objectPath).toPath(),
+                    join(copyGitlet, "objects", objectPath).toPath()));
+        } finally {
+            Repository.assignStaticVariables(CWD);
+            deleteDirectory(cloneDir);
+        }
+    }
+
+    /* SHALLOW FETCH */
+
+    /** Fetch one generation, deepen to three, then fetch the whole history. */
+    @Test
+    public void shallowFetchTest() throws IOException {
+        File shallowDir = join(CWD, "_shallow");
+        deleteDirectory(shallowDir);
+        gitletExecute("init");
+        List<String> commitIDs = new ArrayList<>();
+        for (int i = 0; i < 5; i += 1) {
+            writeAndAdd("_shallow" + i + ".txt", "" + i);
+            gitletExecute("commit", "commit " + i);
+            commitIDs.add(getLatestCommitID());
+            cleanCache();
+        }
+        File remoteGitlet = join(shallowDir, "origin", ".gitlet");
+        remoteGitlet.getParentFile().mkdirs();
+        assertTrue(gitletDir().renameTo(remoteGitlet));
+        for (int i = 0; i < 5; i += 1) {
+            join(CWD, "_shallow" + i + ".txt").delete();
+        }
+
+        try {
+            gitletExecute("init");
+            gitletExecute("add-remote", "origin", remoteGitlet.getPath());
+            gitletExecute("fetch", "--depth", "1", "origin", "master");
+            assertEquals(commitIDs.get(4) + "\n", readContentsAsString(shallowFile()));
+            assertNull(Cache.currObjectDatabase().get(commitIDs.get(3)));
+            cleanCache();
+
+            gitletExecute("fetch", "--depth", "3", "origin", "master");
+            assertEquals(commitIDs.get(2) + "\n", readContentsAsString(shallowFile()));
+            assertNotNull(Cache.currObjectDatabase().get(commitIDs.get(3)));
+            cleanCache();
+
+            gitletExecute("fetch", "origin", "master");
+            assertFalse(shallowFile().exists());
+            assertNotNull(Cache.currObjectDatabase().get(commitIDs.get(0)));
+            gitletExecute("reset", commitIDs.get(4));
+            assertFile("_shallow0.txt", "0");
+        } finally {
+            cleanCache();
+            deleteDirectory(shallowDir);
+        }
+    }
+
+    /* PARTIAL FETCH */
+
+    /** Fetch commits and Trees only, clone the partial repository, then fault the Blobs in upon checkout. */
+    @Test
+    public void partialFetchTest() throws IOException {
+        File partialDir = join(CWD, "_partial");
+        deleteDirectory(partialDir);
+        gitletExecute("init");
+        writeAndAdd("_partial.txt", "partial");
+        gitletExecute("commit", "partial commit");
+        String headID = getLatestCommitID();
+        String blobID = getLatestCommit().getBlobID("_partial.txt");
+        cleanCache();
+        File remoteGitlet = join(partialDir, "origin", ".gitlet");
+        remoteGitlet.getParentFile().mkdirs();
+        assertTrue(gitletDir().renameTo(remoteGitlet));
+        join(CWD, "_partial.txt").delete();
+
+        try {
+            gitletExecute("init");
+            gitletExecute("add-remote", "origin", remoteGitlet.getPath());
+            gitletExecute("fetch", "--filter=blob:none", "origin", "master");
+            assertEquals("origin\n", readContentsAsString(promisorFile()));
+            assertTrue(Cache.currObjectDatabase().contains(headID));
+            assertFalse(Cache.currObjectDatabase().contains(blobID));
+            cleanCache();
+
+            Branch.moveCurrBranch(headID);
+            writeBack();
+            cleanCache();
+            gitletExecute("clone", gitletDir().getPath(), join("_partial", "copy").getPath());
+            File copyGitlet = join(partialDir, "copy", ".gitlet");
+            assertEquals("origin\norigin-origin\n", readContentsAsString(join(copyGitlet, "promisor")));
+            assertEquals("partial", readContentsAsString(join(partialDir, "copy", "_partial.txt")));
+            Repository.assignStaticVariables(CWD);
+            assertFalse(Cache.currObjectDatabase().contains(blobID));
+            cleanCache();
+
+            gitletExecute("reset", headID);
+            assertFile("_partial.txt", "partial");
+            assertTrue(Cache.currObjectDatabase().contains(blobID));
+        } finally {
+            cleanCache();
+            deleteDirectory(partialDir);
+        }
+    }
+
+    /* TRACE */
+
+    /** Test tracing counts the work of commands only while enabled, and sums it up as JSON. */
+    @Test
+    public void traceTest() throws IOException {
+        Trace.enable();
+        try {
+            gitletExecute("init");
+            writeAndAdd("_hello.txt", "hello");
+            gitletExecute("commit", "added hello");
+            assertTrue(Trace.get(Trace.Counter.SHA1) > 0);
+            assertTrue(Trace.get(Trace.Counter.OBJECTS_WRITTEN) > 0);
+            assertTrue(Trace.get(Trace.Counter.BYTES_WRITTEN) > 0);
+            String summary = Trace.summary();
+            assertTrue(summary.startsWith("{") && summary.endsWith("}"));
+            assertTrue(summary.contains("\"writeBack\":{\"ms\":") && summary.contains("\"cacheHitRate\":"));
+        } finally {
+            Trace.disable();
+        }
+        gitletExecute("status");
+        assertEquals(0, Trace.get(Trace.Counter.SHA1) + Trace.get(Trace.Counter.BYTES_READ));
+    }
+
     /* AUTO GRADER DEBUGS */
 
     @Test
@@ -652,13 +1604,38 @@ public class GitletTest {
         if (command[0].equals("init")) {
             Repository.assignStaticVariables(CWD);
             Repository.deleteCWDFiles();
-            deleteDirectory(GITLET_DIR);
+            deleteDirectory(gitletDir());
         } // Special case: make sure there is no .gitlet directory before init command.
           // Implemented for testing purposes.
         Main.main(command);
         cleanCache();
     }
 
+    /** Execute a command with Gitlet and return what it prints. */
+    private static String gitletOutput(String... command) throws IOException {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output));
+        try {
+            gitletExecute(command);
+        } finally {
+            System.setOut(stdout);
+        }
+        return output.toString();
+    }
+
+    /** Return the messages of the commits in the output of a log command, in order. */
+    private static List<String> logMessages(String log) {
+        List<String> messages = new ArrayList<>();
+        String[] lines = log.split("\n");
+        for (int i = 0; i < lines.length; i += 1) {
+            if (lines[i].startsWith("Date: ")) {
+                messages.add(lines[i + 1]);
+            }
+        }
+        return messages;
+    }
+
     /** Write content into a designated file name. Overwriting or creating file as needed. */
     private static void writeTestFile(String fileName, String content) {
         File file = join(CWD, fileName);
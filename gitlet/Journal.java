@@ -0,0 +1,278 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * This class represents the journal of one repository, which makes updating its references
+ * (branches, HEAD, STAGE and allCommitsID) crash-safe and safe among concurrent processes.
+ * Like ObjectDatabase, a Journal is opened once per .gitlet directory,
+ * so the references of a remote repository are updated through its own Journal.
+ *
+ * Reference updates are first recorded in memory. On commit, they are written to
+ * the JOURNAL file (a write-ahead log) with a single atomic rename, which is the
+ * commit point of the whole write back. Afterwards, every update is applied by
+ * renaming a temporary file over the reference. Since the JOURNAL is already durable,
+ * the references are not synced one by one: each touched directory is synced once,
+ * then the JOURNAL is deleted.
+ * If the process dies in between, the next Gitlet run replays the JOURNAL,
+ * so the references either all keep their old values or all get their new ones.
+ * HashObjects are always written (and synced) before the JOURNAL,
+ * so a reference never points to a missing object.
+ *
+ * Committing is guarded by a short lock on the refs.lock file (FileChannel.lock),
+ * which serializes writers among processes. Every reference a process has read is
+ * remembered; if another process has changed it before the commit, the commit is
+ * refused instead of silently overwriting the other process's update.
+ * Readers take no lock: since references are replaced by renames,
+ * they always see either the old or the new version of a file.
+ *
+ * @author XIE Changyuan
+ */
+public class Journal {
+
+    /** Opened journals, keyed by the .gitlet directory (as given and normalized). */
+    private static final ConcurrentMap<File, Journal> OPENED = new ConcurrentHashMap<>();
+
+    /** The .gitlet directory of the repository. */
+    private final File _gitletDir;
+    /** The JOURNAL file, the write-ahead log of the reference updates. */
+    private final File _journalFile;
+    /** The refs.lock file. */
+    private final File _lockFile;
+    /**
+     * Reference updates waiting for commit.
+     * Maps a path relative to the .gitlet directory to its new content,
+     * or to null if the file should be deleted.
+     */
+    private final TreeMap<String, byte[]> _pending = new TreeMap<>();
+    /**
+     * The content of every reference as first read by this process,
+     * keyed by the path relative to the .gitlet directory. A null value means the file did not exist.
+     */
+    private final Map<String, byte[]> _observed = new HashMap<>();
+    /** The channel of the refs.lock file, open while the lock is held. */
+    private FileChannel _lockChannel = null;
+
+    /**
+     * Construct the journal of a repository.
+     * This method is `private` since journals should be obtained from open().
+     * @param gitletDir the .gitlet directory of the repository
+     */
+    private Journal(File gitletDir) {
+        _gitletDir = gitletDir;
+        _journalFile = join(gitletDir, "JOURNAL");
+        _lockFile = join(gitletDir, "refs.lock");
+    }
+
+    /** Return the journal of the repository with the designated .gitlet directory. */
+    static Journal open(File gitletDir) {
+        Journal journal = OPENED.get(gitletDir);
+        if (journal == null) {
+            File normalized = gitletDir.getAbsoluteFile().toPath().normalize().toFile();
+            journal = OPENED.computeIfAbsent(normalized, Journal::new);
+            OPENED.putIfAbsent(gitletDir, journal);
+        } // Special case: the same directory may be designated by different paths.
+        return journal;
+    }
+
+    /** Discard all opened journals, with their recorded updates and read references. Used for testing proposes. */
+    static void closeAll() {
+        OPENED.clear();
+    }
+
+    /**
+     * Forget the recorded updates and the references read so far.
+     * Used by a long-running process (see Server) before serving a new request.
+     */
+    void discard() {
+        _pending.clear();
+        _observed.clear();
+    }
+
+    /**
+     * Read a reference FILE as String, remembering its content
+     * so that a concurrent change can be detected upon commit.
+     * @return the content of FILE, or null if it does not exist
+     */
+    String readReference(File file) {
+        byte[] content = file.isFile() ? readContents(file) : null;
+        _observed.putIfAbsent(relativePath(file), content);
+        return content == null ? null : new String(content, StandardCharsets.UTF_8);
+    }
+
+    /** Record that FILE should be overwritten with CONTENT upon commit. */
+    void recordWrite(File file, String content) {
+        recordWrite(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Record that FILE should be overwritten with CONTENT upon commit. */
+    void recordWrite(File file, byte[] content) {
+        _pending.put(relativePath(file), content);
+    }
+
+    /** Record that FILE should be deleted upon commit. */
+    void recordDelete(File file) {
+        _pending.put(relativePath(file), null);
+    }
+
+    /**
+     * Drop the recorded updates that would not change anything: those the file already has,
+     * and those that merely write back what this process read (e.g. the cached branches of a read-only command),
+     * which must neither overwrite nor conflict with a concurrent update of the file.
+     * @return true if there is any update left to commit
+     */
+    boolean hasPendingUpdates() {
+        _pending.entrySet().removeIf(entry -> isUpToDate(entry.getKey(), entry.getValue())
+                || (_observed.containsKey(entry.getKey())
+                    && Arrays.equals(_observed.get(entry.getKey()), entry.getValue())));
+        return !_pending.isEmpty();
+    }
+
+    /**
+     * Commit all recorded updates. Must be invoked while holding the lock.
+     * 1. Drop the updates that would not change anything
+     * 2. Abort if another process changed a reference since this process read it
+     * 3. Atomically write and sync the JOURNAL (the commit point)
+     * 4. Apply the updates, syncing each touched directory once
+     * 5. Delete the JOURNAL
+     */
+    void commit() {
+        if (!hasPendingUpdates()) {
+            return;
+        } // Special case: nothing to commit, leave the filesystem untouched.
+        TreeMap<String, byte[]> updates = new TreeMap<>(_pending);
+        _pending.clear();
+        for (String path : updates.keySet()) {
+            if (_observed.containsKey(path) && !isUpToDate(path, _observed.get(path))) {
+                throw error("The repository was changed by another Gitlet process; please retry.");
+            } // Special case: abort instead of overwriting a concurrent update.
+        }
+        writeContentsAtomically(_journalFile, serialize(updates));
+        apply(updates);
+        _journalFile.delete();
+        _observed.putAll(updates);
+    }
+
+    /**
+     * Replay the JOURNAL left behind by an interrupted write back, if any.
+     * Must be invoked before reading any reference of the repository.
+     * If another process holds the lock, its JOURNAL is in use rather than left behind,
+     * so it is not touched, and this method does not wait.
+     */
+    @SuppressWarnings("unchecked")
+    void recover() {
+        if (!_journalFile.exists() || !tryLock()) {
+            return;
+        }
+        try {
+            if (_journalFile.exists()) {
+                apply(readObject(_journalFile, TreeMap.class));
+                _journalFile.delete();
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    /** Take the lock on the references of the repository, waiting for other processes if needed. */
+    void lock() {
+        try {
+            _lockChannel = FileChannel.open(_lockFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            _lockChannel.lock();
+        } catch (IOException excp) {
+            throw error("Cannot lock the repository: %s", excp.getMessage());
+        }
+    }
+
+    /** Release the lock on the references of the repository, if held. */
+    void unlock() {
+        if (_lockChannel == null) {
+            return;
+        }
+        try {
+            _lockChannel.close(); // Closing the channel releases its lock.
+        } catch (IOException excp) {
+            // The lock is released with the process anyway.
+        }
+        _lockChannel = null;
+    }
+
+    /* HELPER METHODS */
+
+    /**
+     * Apply the updates to the filesystem, each one by an atomic rename or a deletion.
+     * The updates are durable in the JOURNAL already, so the renamed files are not synced one by one,
+     * and each touched directory is synced once at the end.
+     */
+    private void apply(Map<String, byte[]> updates) {
+        Set<File> folders = new HashSet<>();
+        for (Map.Entry<String, byte[]> entry : updates.entrySet()) {
+            File file = join(_gitletDir, entry.getKey());
+            File folder = file.getParentFile();
+            if (entry.getValue() == null) {
+                if (file.delete()) {
+                    folders.add(folder);
+                }
+            } else if (!isUpToDate(entry.getKey(), entry.getValue())) {
+                if (folder.mkdirs()) {
+                    folders.add(folder.getParentFile());
+                } // Special case: a new folder (e.g. of a remote's branches) is an entry of its parent.
+                File temp = tempFileFor(file);
+                writeContents(temp, entry.getValue());
+                atomicMove(temp, file);
+                folders.add(folder);
+            }
+        }
+        for (File touched : folders) {
+            syncDirectory(touched);
+        }
+    }
+
+    /**
+     * Take the lock on the references of the repository without waiting.
+     * @return true if the lock is acquired
+     */
+    private boolean tryLock() {
+        try {
+            _lockChannel = FileChannel.open(_lockFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (_lockChannel.tryLock() != null) {
+                return true;
+            }
+        } catch (IOException | OverlappingFileLockException excp) {
+            // Treat as held by another process.
+        }
+        unlock();
+        return false;
+    }
+
+    /** Return true if the file at PATH already has the designated content. */
+    private boolean isUpToDate(String path, byte[] content) {
+        File file = join(_gitletDir, path);
+        if (content == null) {
+            return !file.exists();
+        }
+        return file.isFile() && Arrays.equals(readContents(file), content);
+    }
+
+    /** Return the path of FILE relative to the .gitlet directory. */
+    private String relativePath(File file) {
+        return _gitletDir.toPath().relativize(file.getAbsoluteFile().toPath().normalize()).toString();
+    }
+}
@@ -0,0 +1,333 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class represents an edit between two sequences of lines: lines [aStart, aEnd) of the old sequence
+ * are replaced by lines [bStart, bEnd) of the new one. It also houses the static methods of the line diff.
+ *
+ * The diff is Myers' O((N+M)D) algorithm in its linear-space form: the middle snake of the edit graph
+ * is found by walking from both ends at once, which splits the problem in two, and the halves are diffed
+ * the same way (on an explicit stack, since a multi-MB file may split many times). Lines are interned
+ * to ints first, so comparing two lines is comparing two ints, and the common prefix and suffix of every
+ * subproblem are stripped before any search.
+ *
+ * Two safeguards keep large, heavily rewritten files fast, at the price of a diff that may not be minimal:
+ * the lines that only one side has are edits for sure, so only the lines both sides have are searched
+ * (a rewritten file costs a hash lookup per line); and a search that goes beyond COST_LIMIT edits
+ * splits at its furthest reaching point instead of the middle snake.
+ *
+ * @author XIE Changyuan
+ */
+public class LineDiff {
+
+    /** The least number of edits a middle snake search may walk before it settles for its furthest point. */
+    private static final int COST_LIMIT = 256;
+
+    /** The first replaced line of the old sequence. */
+    private final int _aStart;
+    /** The line after the last replaced line of the old sequence. */
+    private final int _aEnd;
+    /** The first inserted line of the new sequence. */
+    private final int _bStart;
+    /** The line after the last inserted line of the new sequence. */
+    private final int _bEnd;
+
+    /** Construct the edit that replaces lines [aStart, aEnd) with lines [bStart, bEnd). */
+    LineDiff(int aStart, int aEnd, int bStart, int bEnd) {
+        _aStart = aStart;
+        _aEnd = aEnd;
+        _bStart = bStart;
+        _bEnd = bEnd;
+    }
+
+    int getAStart() {
+        return _aStart;
+    }
+    int getAEnd() {
+        return _aEnd;
+    }
+    int getBStart() {
+        return _bStart;
+    }
+    int getBEnd() {
+        return _bEnd;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + _aStart + ", " + _aEnd + ") -> [" + _bStart + ", " + _bEnd + ")";
+    }
+
+    /* STATIC METHODS */
+
+    /**
+     * Split a content into lines, each keeping its line terminator,
+     * so that joining the lines gives the content back.
+     */
+    static List<String> splitLines(String content) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < content.length(); i += 1) {
+            if (content.charAt(i) == '\n') {
+                lines.add(content.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < content.length()) {
+            lines.add(content.substring(start));
+        } // Special case: the last line has no line terminator.
+        return lines;
+    }
+
+    /**
+     * Intern several sequences of lines into ints, equal lines getting equal ints.
+     * @return the interned sequences, in the same order
+     */
+    @SafeVarargs
+    static int[][] intern(List<String>... sequences) {
+        Map<String, Integer> ids = new HashMap<>();
+        int[][] interned = new int[sequences.length][];
+        for (int i = 0; i < sequences.length; i += 1) {
+            List<String> lines = sequences[i];
+            interned[i] = new int[lines.size()];
+            for (int j = 0; j < lines.size(); j += 1) {
+                Integer id = ids.putIfAbsent(lines.get(j), ids.size());
+                interned[i][j] = id == null ? ids.size() - 1 : id;
+            }
+        }
+        return interned;
+    }
+
+    /** Diff two sequences of lines. */
+    static List<LineDiff> diff(List<String> a, List<String> b) {
+        int[][] interned = intern(a, b);
+        return diff(interned[0], interned[1]);
+    }
+
+    /**
+     * Diff two sequences of interned lines.
+     * The lines that only one side has are left out of the search, and put back as edits.
+     * @return the edits that turn A into B, sorted, neither overlapping nor adjacent
+     */
+    static List<LineDiff> diff(int[] a, int[] b) {
+        int[] aKept = linesIn(a, b);
+        int[] bKept = linesIn(b, a);
+        List<LineDiff> keptEdits = search(pick(a, aKept), pick(b, bKept));
+        List<LineDiff> edits = new ArrayList<>();
+        int aPos = 0;
+        int bPos = 0;
+        int i = 0;
+        int j = 0;
+        keptEdits.add(new LineDiff(aKept.length, aKept.length, bKept.length, bKept.length)); // The end.
+        for (LineDiff keptEdit : keptEdits) {
+            for (; i < keptEdit._aStart; i += 1, j += 1) {
+                int aMatch = aKept[i];
+                int bMatch = bKept[j];
+                if (aPos < aMatch || bPos < bMatch) {
+                    edits.add(new LineDiff(aPos, aMatch, bPos, bMatch));
+                }
+                aPos = aMatch + 1;
+                bPos = bMatch + 1;
+            } // Every pair of lines matched by the search is a match of A and B, with edits in between.
+            i = keptEdit._aEnd;
+            j = keptEdit._bEnd;
+        }
+        if (aPos < a.length || bPos < b.length) {
+            edits.add(new LineDiff(aPos, a.length, bPos, b.length));
+        }
+        return edits;
+    }
+
+    /* HELPER METHODS */
+
+    /** Return the indices of the lines of A that B has too. */
+    private static int[] linesIn(int[] a, int[] b) {
+        Set<Integer> bLines = new HashSet<>();
+        for (int line : b) {
+            bLines.add(line);
+        }
+        int[] kept = new int[a.length];
+        int size = 0;
+        for (int i = 0; i < a.length; i += 1) {
+            if (bLines.contains(a[i])) {
+                kept[size] = i;
+                size += 1;
+            }
+        }
+        return Arrays.copyOf(kept, size);
+    }
+
+    /** Return the lines of A at designated indices. */
+    private static int[] pick(int[] a, int[] indices) {
+        int[] picked = new int[indices.length];
+        for (int i = 0; i < indices.length; i += 1) {
+            picked[i] = a[indices[i]];
+        }
+        return picked;
+    }
+
+    /**
+     * Diff two sequences of interned lines with the linear-space Myers algorithm.
+     * @return the edits that turn A into B, sorted, neither overlapping nor adjacent
+     */
+    private static List<LineDiff> search(int[] a, int[] b) {
+        List<LineDiff> edits = new ArrayList<>();
+        Deque<int[]> problems = new ArrayDeque<>();
+        problems.push(new int[]{0, a.length, 0, b.length});
+        while (!problems.isEmpty()) {
+            int[] problem = problems.pop();
+            int aLo = problem[0];
+            int aHi = problem[1];
+            int bLo = problem[2];
+            int bHi = problem[3];
+            while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+            }
+            if (aLo == aHi || bLo == bHi) {
+                if (aLo < aHi || bLo < bHi) {
+                    edits.add(new LineDiff(aLo, aHi, bLo, bHi));
+                }
+                continue;
+            } // Special case: what is left is only deleted or only inserted.
+            int[] split = middleSnake(a, aLo, aHi, b, bLo, bHi);
+            if (split == null) {
+                edits.add(new LineDiff(aLo, aHi, bLo, bHi));
+                continue;
+            } // Special case: nothing in common.
+            problems.push(new int[]{split[0], aHi, split[1], bHi});
+            problems.push(new int[]{aLo, split[0], bLo, split[1]});
+        }
+        edits.sort((x, y) -> x._aStart != y._aStart ? Integer.compare(x._aStart, y._aStart)
+                : Integer.compare(x._bStart, y._bStart));
+        return coalesce(edits);
+    }
+
+    /**
+     * Find a point that an optimal path through the edit graph of A[aLo, aHi) and B[bLo, bHi) passes,
+     * by walking the furthest reaching D-paths from both corners until they overlap.
+     * Both ranges must be non-empty, and differ in their first and last lines.
+     * Special case: beyond the cost limit, settle for the furthest reaching point of the forward walk,
+     * which still splits the problem, but not necessarily on an optimal path.
+     * @return the point as {x, y} in the coordinates of A and B, or null if the ranges have no line in common
+     */
+    private static int[] middleSnake(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD + 1;
+        int length = 2 * maxD + 3;
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0; // The forward walk detects the overlap if delta is odd.
+        int forwardStart = 0;
+        int forwardEnd = 0;
+        int backwardStart = 0;
+        int backwardEnd = 0;
+        int limit = Math.max(COST_LIMIT, (int) Math.sqrt(n + m));
+        for (int d = 0; d <= maxD; d += 1) {
+            if (d > limit) {
+                return furthestPoint(forward, offset, d - 1, forwardStart, forwardEnd, n, m, aLo, bLo);
+            } // Special case: the files differ too much for a minimal diff to be worth its cost.
+            for (int k = -d + forwardStart; k <= d - forwardEnd; k += 2) {
+                int x = (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1]))
+                        ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                if (x > n) {
+                    forwardEnd += 2;
+                } else if (y > m) {
+                    forwardStart += 2;
+                } else if (odd) {
+                    int reverse = offset + delta - k;
+                    if (reverse >= 0 && reverse < length && backward[reverse] != -1
+                            && x >= n - backward[reverse]) {
+                        return new int[]{aLo + x, bLo + y};
+                    }
+                }
+            }
+            for (int k = -d + backwardStart; k <= d - backwardEnd; k += 2) {
+                int x = (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1]))
+                        ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                if (x > n) {
+                    backwardEnd += 2;
+                } else if (y > m) {
+                    backwardStart += 2;
+                } else if (!odd) {
+                    int ahead = offset + delta - k;
+                    if (ahead >= 0 && ahead < length && forward[ahead] != -1) {
+                        int forwardX = forward[ahead];
+                        int forwardY = forwardX - (delta - k);
+                        if (forwardX >= n - x) {
+                            return new int[]{aLo + forwardX, bLo + forwardY};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the furthest point from the start among the forward D-paths, as {x, y} in the coordinates of A and B.
+     * The D-paths stay in the edit graph, and are not at its corners since D > 0 and no path reached the end.
+     */
+    private static int[] furthestPoint(int[] forward, int offset, int d, int start, int end,
+                                       int n, int m, int aLo, int bLo) {
+        int bestX = -1;
+        int bestY = -1;
+        for (int k = -d + start; k <= d - end; k += 2) {
+            int x = forward[offset + k];
+            int y = x - k;
+            if (x <= n && y >= 0 && y <= m && x + y > bestX + bestY) {
+                bestX = x;
+                bestY = y;
+            }
+        }
+        return new int[]{aLo + bestX, bLo + bestY};
+    }
+
+    /** Merge the sorted edits that touch each other into one. */
+    private static List<LineDiff> coalesce(List<LineDiff> edits) {
+        List<LineDiff> coalesced = new ArrayList<>();
+        for (LineDiff edit : edits) {
+            int last = coalesced.size() - 1;
+            if (last >= 0 && coalesced.get(last)._aEnd == edit._aStart
+                    && coalesced.get(last)._bEnd == edit._bStart) {
+                LineDiff previous = coalesced.get(last);
+                coalesced.set(last, new LineDiff(previous._aStart, edit._aEnd, previous._bStart, edit._bEnd));
+            } else {
+                coalesced.add(edit);
+            }
+        }
+        return coalesced;
+    }
+}
@@ -0,0 +1,148 @@
+package gitlet;
+
+import java.util.List;
+
+/**
+ * This class represents the result of a three-way merge of file contents, and houses the static method
+ * that computes it: the merged content, and the number of conflict regions in it.
+ *
+ * The merge is diff3: the base is diffed against ours and against theirs (see LineDiff), and the edits
+ * of both sides are walked together in the order of the base lines. Edits that overlap or touch each other
+ * form a region. A region edited by one side takes that side, a region both sides edited alike takes
+ * either, and only a region both sides edited differently becomes a conflict, with the lines of each side
+ * between the usual markers. The lines outside the regions are the same on all three sides.
+ *
+ * @author XIE Changyuan
+ */
+public class LineMerge {
+
+    /** The merged content. */
+    private final String _content;
+    /** The number of conflict regions in the merged content. */
+    private final int _conflicts;
+
+    /** Construct the result of a merge. */
+    private LineMerge(String content, int conflicts) {
+        _content = content;
+        _conflicts = conflicts;
+    }
+
+    String getContent() {
+        return _content;
+    }
+    int getConflicts() {
+        return _conflicts;
+    }
+    boolean isConflicted() {
+        return _conflicts > 0;
+    }
+
+    /* STATIC METHODS */
+
+    /**
+     * Merge the changes from BASE to OURS and from BASE to THEIRS, line by line.
+     * 1. Intern the lines of all three contents, and diff the base against each side
+     * 2. Walk the edits of both sides in order, gathering the ones that overlap or touch into a region
+     * 3. Copy the base lines before the region, then the lines of the side that edited it,
+     *    or a conflict if both sides edited it differently
+     */
+    static LineMerge merge(String base, String ours, String theirs) {
+        List<String> baseLines = LineDiff.splitLines(base);
+        List<String> oursLines = LineDiff.splitLines(ours);
+        List<String> theirsLines = LineDiff.splitLines(theirs);
+        int[][] interned = LineDiff.intern(baseLines, oursLines, theirsLines);
+        List<LineDiff> oursEdits = LineDiff.diff(interned[0], interned[1]);
+        List<LineDiff> theirsEdits = LineDiff.diff(interned[0], interned[2]);
+
+        StringBuilder content = new StringBuilder();
+        int conflicts = 0;
+        int basePos = 0;
+        int oursShift = 0; // The lines ours has beyond the base before the current position.
+        int theirsShift = 0;
+        int i = 0;
+        int j = 0;
+        while (i < oursEdits.size() || j < theirsEdits.size()) {
+            int lo = Math.min(i < oursEdits.size() ? oursEdits.get(i).getAStart() : Integer.MAX_VALUE,
+                    j < theirsEdits.size() ? theirsEdits.get(j).getAStart() : Integer.MAX_VALUE);
+            int hi = lo;
+            int oursEnd = i;
+            int theirsEnd = j;
+            boolean grown = true;
+            while (grown) {
+                grown = false;
+                for (; oursEnd < oursEdits.size() && oursEdits.get(oursEnd).getAStart() <= hi; oursEnd += 1) {
+                    hi = Math.max(hi, oursEdits.get(oursEnd).getAEnd());
+                    grown = true;
+                }
+                for (; theirsEnd < theirsEdits.size() && theirsEdits.get(theirsEnd).getAStart() <= hi;
+                     theirsEnd += 1) {
+                    hi = Math.max(hi, theirsEdits.get(theirsEnd).getAEnd());
+                    grown = true;
+                }
+            } // The region grows until no edit of either side overlaps or touches it.
+
+            int oursLo = lo + oursShift;
+            int theirsLo = lo + theirsShift;
+            oursShift += shift(oursEdits, i, oursEnd);
+            theirsShift += shift(theirsEdits, j, theirsEnd);
+            int oursHi = hi + oursShift;
+            int theirsHi = hi + theirsShift;
+
+            append(content, baseLines, basePos, lo);
+            if (oursEnd == i) {
+                append(content, theirsLines, theirsLo, theirsHi);
+            } else if (theirsEnd == j || same(interned[1], oursLo, oursHi, interned[2], theirsLo, theirsHi)) {
+                append(content, oursLines, oursLo, oursHi);
+            } else {
+                content.append("<<<<<<< HEAD\n");
+                append(content, oursLines, oursLo, oursHi);
+                content.append("=======\n");
+                append(content, theirsLines, theirsLo, theirsHi);
+                content.append(">>>>>>>\n");
+                conflicts += 1;
+            } // Special case: only a region both sides edited differently is a conflict.
+            basePos = hi;
+            i = oursEnd;
+            j = theirsEnd;
+        }
+        append(content, baseLines, basePos, baseLines.size());
+        return new LineMerge(content.toString(), conflicts);
+    }
+
+    /** Return the conflict of two whole contents, for a file one side deleted. */
+    static LineMerge conflict(String ours, String theirs) {
+        return new LineMerge("<<<<<<< HEAD\n" + ours + "=======\n" + theirs + ">>>>>>>\n", 1);
+    }
+
+    /* HELPER METHODS */
+
+    /** Return the number of lines the edits [from, to) add, less the number of lines they replace. */
+    private static int shift(List<LineDiff> edits, int from, int to) {
+        int shift = 0;
+        for (int k = from; k < to; k += 1) {
+            LineDiff edit = edits.get(k);
+            shift += (edit.getBEnd() - edit.getBStart()) - (edit.getAEnd() - edit.getAStart());
+        }
+        return shift;
+    }
+
+    /** Append lines [from, to) to the content. */
+    private static void append(StringBuilder content, List<String> lines, int from, int to) {
+        for (int k = from; k < to; k += 1) {
+            content.append(lines.get(k));
+        }
+    }
+
+    /** Return true if the interned lines A[aLo, aHi) and B[bLo, bHi) are the same. */
+    private static boolean same(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi) {
+        if (aHi - aLo != bHi - bLo) {
+            return false;
+        }
+        for (int k = 0; k < aHi - aLo; k += 1) {
+            if (a[aLo + k] != b[bLo + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
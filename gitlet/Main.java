@@ -2,6 +2,7 @@ package gitlet;
 
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Objects;
 
 import static gitlet.Repository.printAndExit;
@@ -18,109 +19,176 @@ import static gitlet.Repository.printAndExit;
 public class Main {
 
     static final File localCWD  = new File(System.getProperty("user.dir"));
-    static String currCommand;
 
     /**
-     * Usage: java gitlet.Main ARGS, where ARGS contains
+     * Usage: java gitlet.Main [--trace] ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
+     * With --trace (or the GITLET_TRACE environment variable), a JSON summary of where the time went
+     * is printed at exit (see Trace).
      */
+    @SuppressWarnings("try")
     public static void main(String[] args) {
+        args = Trace.start(args);
         assertNotArgsNum(args, 0);
         String command = args[0];
-        currCommand = command;
         String[] operands = getOperands(args);
 
         Repository.assignStaticVariables(localCWD);
-        switch (command) {
-            case "init" -> {
-                assertArgsNum(operands, 0);
-                Repository.init();
-            }
-            case "add" -> {
-                assertArgsNum(operands, 1);
-                Repository.add(operands[0]);
-            }
-            case "commit" -> {
-                assertArgsNum(operands, 1);
-                Repository.commit(operands[0]);
-            }
-            case "rm" -> {
-                assertArgsNum(operands, 1);
-                Repository.rm(operands[0]);
-            }
-            case "log" -> {
-                assertArgsNum(operands, 0);
-                Repository.log();
-            }
-            case "global-log" -> {
-                assertArgsNum(operands, 0);
-                Repository.globalLog();
-            }
-            case "find" -> {
-                assertArgsNum(operands, 1);
-                Repository.find(operands[0]);
-            }
-            case "status" -> {
-                assertArgsNum(operands, 0);
-                Repository.status();
-            }
-            case "checkout" -> {
-                switch (operands.length) {
-                    case 1 -> {
-                        Repository.checkout3(operands[0]);
+        try (Trace.Phase phase = Trace.phase("recover")) {
+            Repository.recoverRepository();
+        }
+        try {
+            try (Trace.Phase phase = Trace.phase("command")) {
+                switch (command) {
+                    case "init" -> {
+                        assertArgsNum(operands, 0);
+                        Repository.init();
+                    }
+                    case "add" -> {
+                        assertArgsNum(operands, 1);
+                        Repository.add(operands[0]);
+                    }
+                    case "commit" -> {
+                        assertArgsNum(operands, 1);
+                        Repository.commit(operands[0]);
+                    }
+                    case "rm" -> {
+                        assertArgsNum(operands, 1);
+                        Repository.rm(operands[0]);
+                    }
+                    case "log" -> {
+                        if (operands.length == 2) {
+                            assertString("--", operands[0]);
+                            Repository.logFile(operands[1]);
+                        } else {
+                            assertArgsNum(operands, 0);
+                            Repository.log();
+                        } // Special case: the history of a file with log -- [file name].
+                    }
+                    case "global-log" -> {
+                        if (operands.length == 1) {
+                            assertString("--topo-order", operands[0]);
+                            Repository.globalLog(true);
+                        } else {
+                            assertArgsNum(operands, 0);
+                            Repository.globalLog(false);
+                        } // Special case: keep every line of history together with global-log --topo-order.
+                    }
+                    case "find" -> {
+                        assertArgsNum(operands, 1);
+                        Repository.find(operands[0]);
+                    }
+                    case "status" -> {
+                        assertArgsNum(operands, 0);
+                        Repository.status();
+                    }
+                    case "checkout" -> {
+                        switch (operands.length) {
+                            case 1 -> {
+                                Repository.checkout3(operands[0]);
+                            }
+                            case 2 -> {
+                                assertString("--", operands[0]);
+                                Repository.checkout1(operands[1]);
+                            }
+                            case 3 -> {
+                                assertString("--", operands[1]);
+                                Repository.checkout2(operands[0], operands[2]);
+                            }
+                            default -> printAndExit("Invalid number of arguments for: checkout.");
+                        }
+                    }
+                    case "diff" -> {
+                        switch (operands.length) {
+                            case 0 -> Diff.diffWorkingTree();
+                            case 1 -> {
+                                assertString("--cached", operands[0]);
+                                Diff.diffStaged();
+                            }
+                            case 2 -> Diff.diffCommits(operands[0], operands[1]);
+                            default -> printAndExit("Incorrect operands.");
+                        }
+                    }
+                    case "blame" -> {
+                        assertArgsNum(operands, 1);
+                        Blame.blame(operands[0]);
+                    }
+                    case "branch" -> {
+                        assertArgsNum(operands, 1);
+                        Repository.branch(operands[0]);
+                    }
+                    case "rm-branch" -> {
+                        assertArgsNum(operands, 1);
+                        Repository.rmBranch(operands[0]);
+                    }
+                    case "reset" -> {
+                        assertArgsNum(operands, 1);
+                        Repository.reset(operands[0]);
+                    }
+                    case "merge" -> {
+                        assertArgsNum(operands, 1);
+                        Repository.merge(operands[0]);
                     }
-                    case 2 -> {
-                        assertString("--", operands[0]);
-                        Repository.checkout1(operands[1]);
+                    case "add-remote" -> {
+                        assertArgsNum(operands, 2);
+                        Remote.addRemote(operands[0], operands[1]);
                     }
-                    case 3 -> {
-                        assertString("--", operands[1]);
-                        Repository.checkout2(operands[0], operands[2]);
+                    case "rm-remote" -> {
+                        assertArgsNum(operands, 1);
+                        Remote.rmRemote(operands[0]);
+                    }
+                    case "push" -> {
+                        assertArgsNum(operands, 2);
+                        Remote.push(operands[0], operands[1]);
+                    }
+                    case "fetch" -> {
+                        int depth = CommitWalk.INFINITE_DEPTH;
+                        boolean blobs = true;
+                        int first = 0;
+                        while (operands.length - first > 2) {
+                            if (operands[first].equals("--depth")) {
+                                depth = parseNumber(operands[first + 1]);
+                                if (depth <= 0) {
+                                    printAndExit("Incorrect operands.");
+                                }
+                                first += 2;
+                            } else {
+                                assertString("--filter=" + Promisor.BLOB_NONE, operands[first]);
+                                blobs = false;
+                                first += 1;
+                            }
+                        } // Special case: a shallow fetch with --depth, or a partial fetch with --filter.
+                        assertArgsNum(Arrays.copyOfRange(operands, first, operands.length), 2);
+                        Remote.fetch(operands[first], operands[first + 1], depth, blobs);
+                    }
+                    case "clone" -> {
+                        assertArgsNum(operands, 2);
+                        Remote.clone(operands[0], localCWD.toPath().resolve(operands[1]).toFile());
+                    }
+                    case "pull" -> {
+                        assertArgsNum(operands, 2);
+                        Remote.pull(operands[0], operands[1]);
+                    }
+                    case "serve" -> {
+                        boolean allInterfaces = operands.length > 0 && operands[0].equals("--bind-all");
+                        int first = allInterfaces ? 1 : 0;
+                        if (operands.length - first > 1) {
+                            printAndExit("Incorrect operands.");
+                        } // Special case: listen on all interfaces only with --bind-all.
+                        Server.serve(localCWD, operands.length == first
+                                ? Server.DEFAULT_PORT : parseNumber(operands[first]), allInterfaces);
+                    }
+                    default -> {
+                        printAndExit("No command with that name exists.");
                     }
-                    default -> printAndExit("Invalid number of arguments for: checkout.");
                 }
             }
-            case "branch" -> {
-                assertArgsNum(operands, 1);
-                Repository.branch(operands[0]);
-            }
-            case "rm-branch" -> {
-                assertArgsNum(operands, 1);
-                Repository.rmBranch(operands[0]);
-            }
-            case "reset" -> {
-                assertArgsNum(operands, 1);
-                Repository.reset(operands[0]);
-            }
-            case "merge" -> {
-                assertArgsNum(operands, 1);
-                Repository.merge(operands[0]);
-            }
-            case "add-remote" -> {
-                assertArgsNum(operands, 2);
-                Remote.addRemote(operands[0], operands[1]);
-            }
-            case "rm-remote" -> {
-                assertArgsNum(operands, 1);
-                Remote.rmRemote(operands[0]);
+            try (Trace.Phase phase = Trace.phase("writeBack")) {
+                Cache.writeBack();
             }
-            case "push" -> {
-                assertArgsNum(operands, 2);
-                Remote.push(operands[0], operands[1]);
-            }
-            case "fetch" -> {
-                assertArgsNum(operands, 2);
-                Remote.fetch(operands[0], operands[1]);
-            }
-            case "pull" -> {
-                assertArgsNum(operands, 2);
-                Remote.pull(operands[0], operands[1]);
-            }
-            default -> {
-                printAndExit("No command with that name exists.");
-            }
-        }
-        Cache.writeBack();
+        } catch (GitletException excp) {
+            printAndExit(excp.getMessage());
+        } // Special case: report a failure (e.g. a lost connection) as a message rather than a stack trace.
     }
 
     /* HELPER METHODS */
@@ -158,6 +226,20 @@ public class Main {
         return operands;
     }
 
+    /**
+     * Parse a number operand, such as a port or a depth.
+     * @param number the given operand
+     * @return the number
+     */
+    private static int parseNumber(String number) {
+        try {
+            return Integer.parseInt(number);
+        } catch (NumberFormatException excp) {
+            printAndExit("Incorrect operands.");
+            return -1;
+        }
+    }
+
     /**
      * Assert two String are equal.
      * @param expected the expected String
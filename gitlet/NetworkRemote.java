@@ -0,0 +1,292 @@
+package gitlet;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Repository.printAndExit;
+import static gitlet.Utils.*;
+
+/**
+ * This class houses static methods of the push and fetch commands for remotes designated by
+ * gitlet://host:port/path URLs, which talk to a Gitlet server (see Server for the protocol).
+ * This class will never be instantiated since there are only static methods.
+ *
+ * Fetch negotiates the commits the local repository has in common with the server in rounds:
+ * the local commits are walked from every branch, newest first, and sent as batches of haves.
+ * Up to WINDOW batches are sent before the answer of the first one is read, so the walk and
+ * the server's answers overlap instead of paying a round trip per batch.
+ * Once a commit is acknowledged, its ancestors are known to be common and are not sent.
+ *
+ * @author XIE Changyuan
+ */
+public class NetworkRemote {
+
+    /** The prefix of a remote URL. */
+    private static final String URL_PREFIX = "gitlet://";
+    /** The number of haves in a round of negotiation. */
+    private static final int HAVE_BATCH = 32;
+    /** The number of rounds sent before their answers are read. */
+    private static final int WINDOW = 2;
+    /** The number of haves after which the negotiation gives up and takes what it has found. */
+    private static final int MAX_HAVES = 256;
+
+    /** Return true if the location of a remote is a URL rather than a path. */
+    static boolean isURL(String location) {
+        return location.startsWith(URL_PREFIX);
+    }
+
+    /**
+     * Parse a remote URL gitlet://host[:port]/path.
+     * Abort if the URL is malformed.
+     */
+    static URI parseURL(String url) {
+        try {
+            URI uri = new URI(url);
+            if (uri.getHost() == null || uri.getPath() == null || uri.getPath().length() <= 1) {
+                printAndExit("Bad remote repository syntax.");
+            } // Special case: abort if the host or the path is missing.
+            return uri;
+        } catch (URISyntaxException excp) {
+            printAndExit("Bad remote repository syntax.");
+            return null;
+        }
+    }
+
+    /* FETCH COMMAND */
+
+    /**
+     * Fetch DEPTH generations of a branch from the server at URL into the local object database,
+     * and update the shallow boundaries (see Shallow). Without BLOBS, only commits and Trees are fetched.
+     * The caller moves the local branch.
+     * @return the ID of the head commit of the remote branch
+     */
+    static String fetch(String url, String remoteBranchName, int depth, boolean blobs) {
+        try (Connection connection = open(url, "upload-pack")) {
+            String remoteHeadCommitID = readAdvertisement(connection).get(remoteBranchName);
+            if (remoteHeadCommitID == null) {
+                printAndExit("That remote does not have that branch.");
+            } // Special case:abort if the remote repo does not have a branch with the given name.
+            if (Cache.currObjectDatabase().contains(remoteHeadCommitID) && Cache.getShallow().isEmpty()
+                    && depth == CommitWalk.INFINITE_DEPTH) {
+                connection.writeFlush();
+                return remoteHeadCommitID;
+            } // Special case: the local repo has the remote branch already, want nothing.
+            download(connection, List.of(remoteHeadCommitID), depth, blobs);
+            return remoteHeadCommitID;
+        }
+    }
+
+    /**
+     * Fetch all branches of the server at URL into the empty local object database, for the clone command.
+     * @return the branch name - commit ID pairs of the server, and its current branch under "HEAD"
+     */
+    static Map<String, String> cloneRepository(String url) {
+        try (Connection connection = open(url, "upload-pack")) {
+            Map<String, String> references = readAdvertisement(connection);
+            Set<String> wants = new LinkedHashSet<>();
+            for (Map.Entry<String, String> reference : references.entrySet()) {
+                if (!reference.getKey().equals("HEAD")) {
+                    wants.add(reference.getValue());
+                }
+            }
+            download(connection, wants, CommitWalk.INFINITE_DEPTH, true);
+            return references;
+        }
+    }
+
+    /**
+     * Send the wanted commits, negotiate, and receive the objects of the commits
+     * the local repository does not have, recording them and the new shallow boundaries.
+     */
+    private static void download(Connection connection, Collection<String> wants, int depth, boolean blobs) {
+        ObjectDatabase local = Cache.currObjectDatabase();
+        for (String commitID : wants) {
+            connection.writeLine("want " + commitID);
+        }
+        if (depth != CommitWalk.INFINITE_DEPTH) {
+            connection.writeLine("deepen " + depth);
+        }
+        if (!blobs) {
+            connection.writeLine("filter " + Promisor.BLOB_NONE);
+        }
+        for (String commitID : Cache.getShallow()) {
+            connection.writeLine("shallow " + commitID);
+        }
+        connection.writeFlush();
+        negotiate(connection, local);
+        Set<String> boundaries = new HashSet<>();
+        for (String line = readLine(connection); line != null; line = readLine(connection)) {
+            boundaries.add(Server.objectID(Server.argument(line, "shallow")));
+        }
+        for (String commitID : Server.receiveObjects(connection, local)) {
+            Commit.recordCommitID(commitID);
+        }
+        Shallow.updateShallow(boundaries);
+    }
+
+    /**
+     * Send the local commits as rounds of haves, newest first, until the walk is exhausted
+     * or MAX_HAVES are sent, keeping up to WINDOW rounds in flight.
+     * Commits reachable from an acknowledged commit are not sent.
+     */
+    private static void negotiate(Connection connection, ObjectDatabase local) {
+        Queue<String> bfs = new ArrayDeque<>();
+        Set<String> queued = new HashSet<>();
+        for (String commitID : Branch.loadAllBranches()) {
+            if (commitID != null && queued.add(commitID)) {
+                bfs.add(commitID);
+            }
+        }
+        Set<String> common = new HashSet<>();
+        int sent = 0;
+        int inFlight = 0;
+        while (sent < MAX_HAVES && !bfs.isEmpty()) {
+            int batch = 0;
+            while (batch < HAVE_BATCH && !bfs.isEmpty()) {
+                String commitID = bfs.poll();
+                Commit commit = (Commit) local.get(commitID);
+                if (commit == null) {
+                    continue;
+                } // Special case: the parent of a shallow boundary is not in the local repo.
+                boolean isCommon = common.contains(commitID);
+                for (String parentID : new String[]{commit.getParentCommitID(),
+                        commit.getParentMergeCommitID()}) {
+                    if (parentID == null || parentID.equals("")) {
+                        continue;
+                    }
+                    if (isCommon) {
+                        common.add(parentID);
+                    } else if (queued.add(parentID)) {
+                        bfs.add(parentID);
+                    }
+                } // Special case: the ancestors of a common commit are common, and need not be walked.
+                if (!isCommon) {
+                    connection.writeLine("have " + commitID);
+                    batch += 1;
+                }
+            }
+            if (batch == 0) {
+                break;
+            }
+            connection.writeFlush();
+            sent += batch;
+            inFlight += 1;
+            if (inFlight == WINDOW) {
+                readAcks(connection, common);
+                inFlight -= 1;
+            }
+        }
+        connection.writeLine("done");
+        connection.writeFlush();
+        for (; inFlight > 0; inFlight--) {
+            readAcks(connection, common);
+        }
+    }
+
+    /** Read the answer to a round of haves, adding the acknowledged commits to COMMON. */
+    private static void readAcks(Connection connection, Set<String> common) {
+        for (String line = readLine(connection); line != null; line = readLine(connection)) {
+            common.add(Server.objectID(Server.argument(line, "ACK")));
+        }
+    }
+
+    /**
+     * Fetch the objects with designated IDs from the server at URL into the local object database,
+     * for a partial fetch (see Promisor).
+     * @return the IDs of the objects the server does not have either
+     */
+    static Set<String> fetchObjects(String url, Set<String> objectIDs) {
+        ObjectDatabase local = Cache.currObjectDatabase();
+        try (Connection connection = open(url, "upload-objects")) {
+            readAdvertisement(connection);
+            for (String objectID : objectIDs) {
+                connection.writeLine("want " + objectID);
+            }
+            connection.writeFlush();
+            Server.receiveObjects(connection, local);
+        }
+        Set<String> unavailable = new LinkedHashSet<>();
+        for (String objectID : objectIDs) {
+            if (!local.contains(objectID)) {
+                unavailable.add(objectID);
+            }
+        }
+        return unavailable;
+    }
+
+    /* PUSH COMMAND */
+
+    /**
+     * Push the current local head to a branch of the server at URL.
+     * The branch is created at the server's HEAD commit if it does not exist,
+     * like a push to a local remote.
+     */
+    static void push(String url, String remoteBranchName) {
+        try (Connection connection = open(url, "receive-pack")) {
+            Map<String, String> references = readAdvertisement(connection);
+            String remoteHeadCommitID = references.containsKey(remoteBranchName)
+                    ? references.get(remoteBranchName) : references.get(references.get("HEAD"));
+            Commit localHeadCommit = Cache.getLatestCommit();
+            Commit remoteHeadCommit = remoteHeadCommitID == null ? null : Cache.getCommit(remoteHeadCommitID);
+            if (remoteHeadCommit == null) {
+                printAndExit("Please pull down remote changes before pushing.");
+            } // Special case: abort if the local repo does not even have the remote branch’s head.
+            Set<String> commitsToPush = Remote.commitsToPush(localHeadCommit, remoteHeadCommit);
+            Server.sendObjects(connection, Cache.currObjectDatabase(), commitsToPush, true);
+            connection.writeLine("update " + remoteBranchName + " "
+                    + remoteHeadCommitID + " " + localHeadCommit.id());
+            connection.writeFlush();
+            String reply = readLine(connection);
+            if (!"ok".equals(reply)) {
+                throw error("Protocol error: unexpected %s.", reply);
+            }
+        }
+    }
+
+    /* HELPER METHODS */
+
+    /** Connect to the server at URL and send the request of the designated service. */
+    private static Connection open(String url, String service) {
+        URI uri = parseURL(url);
+        int port = uri.getPort() == -1 ? Server.DEFAULT_PORT : uri.getPort();
+        Connection connection = Connection.connect(uri.getHost(), port);
+        connection.writeLine(service + " " + uri.getPath().substring(1));
+        connection.writeFlush();
+        return connection;
+    }
+
+    /**
+     * Read the references advertised by the server.
+     * @return the branch name - commit ID pairs, and the current branch of the server under "HEAD"
+     */
+    private static Map<String, String> readAdvertisement(Connection connection) {
+        Map<String, String> references = new TreeMap<>();
+        references.put("HEAD", Server.argument(readLine(connection), "HEAD"));
+        for (String line = readLine(connection); line != null; line = readLine(connection)) {
+            String[] words = Server.split(line);
+            references.put(words[1], Server.objectID(words[0]));
+        }
+        return references;
+    }
+
+    /**
+     * Read a line from the other end (see Connection.readLine()).
+     * Throws a GitletException with the message of the other end if it reports an error.
+     */
+    static String readLine(Connection connection) {
+        String line = connection.readLine();
+        if (line != null && line.startsWith("error ")) {
+            throw error("%s", line.substring("error ".length()));
+        }
+        return line;
+    }
+}
@@ -0,0 +1,347 @@
+package gitlet;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * This class represents the object database of one repository (its .gitlet/objects directory),
+ * together with the cache of the HashObjects loaded from or added to it.
+ * Unlike the rest of the persistence classes, an ObjectDatabase is an instance,
+ * so that several repositories can be used in one JVM, and it is safe to be used
+ * by several threads at once:
+ * 1. Cached objects live in a ConcurrentHashMap, so cache hits take no lock.
+ * 2. A cache miss loads the object while holding one of STRIPES locks chosen by the ID,
+ *    so two threads never deserialize the same object twice,
+ *    while threads loading different objects rarely wait for each other.
+ * 3. New objects are written through the database's own WriteBackPipeline.
+ * Besides loose objects (one file per object), the database reads objects from the
+ * pack files in .gitlet/objects/pack, which are received by push and fetch.
+ * Every ObjectDatabase is opened once per .gitlet directory and shared afterwards.
+ *
+ * @author XIE Changyuan
+ */
+public class ObjectDatabase {
+
+    /** The number of locks guarding cache misses. */
+    private static final int STRIPES = 64;
+    /** Opened databases, keyed by the .gitlet directory (as given and normalized). */
+    private static final ConcurrentMap<File, ObjectDatabase> OPENED = new ConcurrentHashMap<>();
+
+    /** The objects directory. */
+    private final File _objectsDir;
+    /** Cached ID - HashObject pairs. */
+    private final ConcurrentMap<String, HashObject> _cache = new ConcurrentHashMap<>();
+    /** Locks guarding cache misses, chosen by the hash of the requested ID. */
+    private final Object[] _stripes = new Object[STRIPES];
+    /** The pipeline that writes new objects of this database. */
+    private final WriteBackPipeline _pipeline = new WriteBackPipeline();
+    /** The pack files of this database, opened upon the first request. Replaced as a whole when a pack arrives. */
+    private volatile List<PackFile> _packs = null;
+
+    /**
+     * Construct the object database of a repository.
+     * This method is `private` since databases should be obtained from open().
+     * @param gitletDir the .gitlet directory of the repository
+     */
+    private ObjectDatabase(File gitletDir) {
+        _objectsDir = join(gitletDir, "objects");
+        for (int i = 0; i < STRIPES; i++) {
+            _stripes[i] = new Object();
+        }
+    }
+
+    /**
+     * Return the object database of the repository with the designated .gitlet directory,
+     * opening it upon the first request.
+     */
+    static ObjectDatabase open(File gitletDir) {
+        ObjectDatabase database = OPENED.get(gitletDir);
+        if (database == null) {
+            File normalized = gitletDir.getAbsoluteFile().toPath().normalize().toFile();
+            database = OPENED.computeIfAbsent(normalized, ObjectDatabase::new);
+            OPENED.putIfAbsent(gitletDir, database);
+        } // Special case: the same directory may be designated by different paths.
+        return database;
+    }
+
+    /** Forget all opened databases and their caches. Used for testing proposes. */
+    static void closeAll() {
+        OPENED.clear();
+    }
+
+    /**
+     * Lazy loading and caching of HashObjects.
+     * @param id the (possibly abbreviated) ID of the object
+     * @return the HashObject, or null if there is no such object
+     */
+    HashObject get(String id) {
+        if (id == null || id.equals("")) {
+            return null;
+        } // Special case: Get null or "" HashObject
+        HashObject object = _cache.get(id);
+        if (object != null) {
+            Trace.count(Trace.Counter.CACHE_HITS, 1);
+            return object;
+        }
+        Trace.count(Trace.Counter.CACHE_MISSES, 1);
+        synchronized (_stripes[Math.floorMod(id.hashCode(), STRIPES)]) {
+            object = _cache.get(id);
+            if (object == null) {
+                object = load(id);
+                if (object != null) {
+                    _cache.put(id, object);
+                }
+            }
+        }
+        return object;
+    }
+
+    /**
+     * Load a HashObject without caching it, for a walk over many objects that are used once
+     * (see Repository.globalLog()), so that the heap does not grow with the number of objects walked.
+     * An object that is cached already is returned from the cache.
+     * @param id the full ID of the object
+     * @return the HashObject, or null if there is no such object
+     */
+    HashObject peek(String id) {
+        HashObject object = _cache.get(id);
+        return object != null ? object : load(id);
+    }
+
+    /**
+     * Put a HashObject into the cache, and hand it to the write back pipeline
+     * unless it is already in the object database.
+     * @return the ID of the HashObject
+     */
+    String put(HashObject object) {
+        String id = object.id();
+        _cache.put(id, object);
+        File file = objectFile(id);
+        if (!file.exists() && packOf(id) == null) {
+            _pipeline.submit(file, object);
+        } // Special case: objects are content-addressed, an existing file is already right.
+        return id;
+    }
+
+    /** Return true if the database has an object with the designated full ID. */
+    boolean contains(String id) {
+        return _cache.containsKey(id) || objectFile(id).exists() || packOf(id) != null;
+    }
+
+    /**
+     * Return the serialized (uncompressed) object with the designated full ID,
+     * without deserializing it. Used to send objects in a pack.
+     * Throws a GitletException if there is no such object.
+     */
+    byte[] readSerialized(String id) {
+        File file = objectFile(id);
+        if (file.exists()) {
+            byte[] bytes = readContents(file);
+            return isCompressed(bytes) ? decompress(bytes) : bytes;
+        }
+        PackFile pack = packOf(id);
+        if (pack != null) {
+            return pack.read(id);
+        }
+        HashObject object = _cache.get(id);
+        if (object != null) {
+            return serialize(object);
+        } // Special case: an object that is not written yet.
+        throw error("Object %s does not exist.", id);
+    }
+
+    /**
+     * Receive a pack from IN (see PackFile.receive()) and make its objects available.
+     * The pack is durably written when this method returns.
+     */
+    void receivePack(InputStream in) {
+        PackFile pack = PackFile.receive(in, join(_objectsDir, PackFile.PACK_DIR_NAME));
+        synchronized (this) {
+            List<PackFile> packs = new ArrayList<>(packs());
+            packs.add(pack);
+            _packs = packs;
+        }
+    }
+
+    /**
+     * Share the objects with designated IDs of another object database on the same file system,
+     * by hard-linking the loose files and the packs that hold them into this database.
+     * Loose files and packs are never modified once written, so both databases can read the same files,
+     * and only directory entries are written: a transfer between sibling repositories takes
+     * neither the space nor the time of a copy. A linked pack may bring objects that were not asked for.
+     * @return the IDs of the objects that cannot be linked (on another file system, or not written yet),
+     *         which must be transferred otherwise
+     */
+    Set<String> linkObjects(ObjectDatabase from, Set<String> ids) {
+        Set<String> unlinked = new LinkedHashSet<>();
+        Set<File> linkedDirs = new HashSet<>();
+        Map<PackFile, PackFile> linkedPacks = new HashMap<>(); // the pack of FROM -> its link, or null
+        File packDir = join(_objectsDir, PackFile.PACK_DIR_NAME);
+        for (String id : ids) {
+            File source = from.objectFile(id);
+            if (source.exists()) {
+                File target = objectFile(id);
+                target.getParentFile().mkdirs();
+                if (linkFile(source, target)) {
+                    linkedDirs.add(target.getParentFile());
+                    continue;
+                }
+            }
+            PackFile pack = from.packOf(id);
+            if (pack != null && !linkedPacks.containsKey(pack)) {
+                linkedPacks.put(pack, pack.linkInto(packDir));
+            } // Special case: the whole pack is linked once, and holds the other objects asked for too.
+            if (pack == null || linkedPacks.get(pack) == null) {
+                unlinked.add(id);
+            }
+        }
+        linkedPacks.values().removeIf(Objects::isNull);
+        if (!linkedPacks.isEmpty()) {
+            linkedDirs.add(packDir);
+            synchronized (this) {
+                List<PackFile> packs = new ArrayList<>(packs());
+                packs.addAll(linkedPacks.values());
+                _packs = packs;
+            }
+        }
+        for (File dir : linkedDirs) {
+            syncDirectory(dir);
+        }
+        return unlinked;
+    }
+
+    /**
+     * Wait until every object put into this database is durably written.
+     * This is the barrier before any reference is updated.
+     */
+    void writeBack() {
+        _pipeline.await();
+    }
+
+    /** Delete a HashObject from the cache and the filesystem. */
+    void delete(String id) {
+        _cache.remove(id);
+        objectFile(id).delete();
+    }
+
+    /* HELPER METHODS */
+
+    /**
+     * Load a type object with its ID.
+     * @return the deserialized object, or null if it does not exist.
+     */
+    @SuppressWarnings("try")
+    private HashObject load(String id) {
+        try (Trace.Phase phase = Trace.phase("loadObject")) {
+            HashObject object = loadUntraced(id);
+            if (object != null) {
+                Trace.count(Trace.Counter.OBJECTS_LOADED, 1);
+            }
+            return object;
+        }
+    }
+
+    /** Load a type object with its ID, as load() does without tracing it. */
+    private HashObject loadUntraced(String id) {
+        File folder = objectFolder(id);
+        File file = objectFile(id);
+        if (id.length() < UID_LENGTH) {
+            file = abbrevObjectFile(id);
+        } // Special case: if the given ID is abbreviated, use helper method to get the right file.
+        if (folder.exists() && file != null && file.exists()) {
+            return readObject(file, HashObject.class);
+        }
+        HashObject object = loadFromPacks(id);
+        if (object == null && refreshPacks()) {
+            object = loadFromPacks(id);
+        } // Special case: another process (e.g. a push to a served repository) may have added a pack.
+        return object; // Special case: return null if told to load an object that does not exist.
+    }
+
+    /** Load an object with its (possibly abbreviated) ID from the opened packs, or return null. */
+    private HashObject loadFromPacks(String id) {
+        for (PackFile pack : packs()) {
+            String fullID = id.length() < UID_LENGTH ? pack.resolve(id) : id;
+            if (fullID != null && pack.contains(fullID)) {
+                return deserialize(pack.read(fullID), HashObject.class, HashObject.FILTER);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reopen the packs of this database if packs were added since they were opened.
+     * @return true if there are new packs
+     */
+    private synchronized boolean refreshPacks() {
+        List<PackFile> packs = PackFile.openAll(join(_objectsDir, PackFile.PACK_DIR_NAME));
+        if (packs.size() == packs().size()) {
+            return false;
+        }
+        _packs = packs;
+        return true;
+    }
+
+    /** Return the pack files of this database, opening them upon the first request. */
+    private List<PackFile> packs() {
+        List<PackFile> packs = _packs;
+        if (packs == null) {
+            synchronized (this) {
+                if (_packs == null) {
+                    _packs = PackFile.openAll(join(_objectsDir, PackFile.PACK_DIR_NAME));
+                }
+                packs = _packs;
+            }
+        }
+        return packs;
+    }
+
+    /** Return the pack file that has the object with the designated full ID, or null if there is none. */
+    private PackFile packOf(String id) {
+        for (PackFile pack : packs()) {
+            if (pack.contains(id)) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    /** Return the housing directory of a HashObject with the given ID. */
+    private File objectFolder(String id) {
+        return join(_objectsDir, id.substring(0, 2));
+    }
+
+    /** Return the file of a HashObject with the given ID. */
+    private File objectFile(String id) {
+        return join(objectFolder(id), id.substring(2));
+    }
+
+    /** Return the file of a HashObject with the given abbreviated ID, or null if there is none. */
+    private File abbrevObjectFile(String id) {
+        File folder = objectFolder(id);
+        String preFix = id.substring(2);
+        assert preFix.length() >= 4;
+        List<String> fileList = plainFilenamesIn(folder);
+        if (fileList == null) {
+            return null;
+        } // Special case: return null if the folder is empty
+        for (String fileName : fileList) {
+            if (fileName.startsWith(preFix)) {
+                return join(folder, fileName);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,440 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * This class represents a pack file: many HashObjects stored in a single file
+ * .gitlet/objects/pack/pack-[SHA-1].pack, together with its index pack-[SHA-1].idx.
+ * Push and fetch transfer objects as one streamed pack: the sender writes it with write(),
+ * and the receiver copies and indexes it in a single pass with receive().
+ *
+ * The pack format (integers are big-endian, as written by DataOutputStream):
+ * 1. Header: the magic "GPCK", the version, and the number of entries
+ * 2. Entries: the ID (40 ASCII characters), the type (FULL or DELTA),
+ *    the ID of the base if the type is DELTA (the base always comes earlier in the same pack),
+ *    the length of the data, and the data, which is the zlib-compressed serialized object,
+ *    or the zlib-compressed Delta of the serialized object against the serialized base.
+ * 3. Trailer: the SHA-1 of everything above, which also names the pack.
+ * The index holds the magic "GIDX", the number of entries, and the sorted IDs with their offsets.
+ *
+ * @author XIE Changyuan
+ */
+public class PackFile {
+
+    /** The name of the directory of pack files, under the objects directory. */
+    static final String PACK_DIR_NAME = "pack";
+    /** The maximum length of a chain of deltas, bounding the work of reading an object. */
+    static final int MAX_DELTA_DEPTH = 10;
+    /**
+     * The maximum size of the data of an entry, and of a serialized object,
+     * bounding the memory taken by a received pack that announces huge entries or inflates into one.
+     */
+    static final int MAX_OBJECT_SIZE = 1 << 28;
+
+    private static final int MAGIC = 0x4750434B; // "GPCK"
+    private static final int INDEX_MAGIC = 0x47494458; // "GIDX"
+    private static final int VERSION = 1;
+    private static final byte FULL = 0;
+    private static final byte DELTA = 1;
+    /** The number of serialized objects kept by the sender as possible delta bases. */
+    private static final int BASE_CACHE_SIZE = 64;
+
+    /** The pack file. */
+    private final File _pack;
+    /** The offset of every entry in the pack, keyed by ID. */
+    private final TreeMap<String, Long> _offsets;
+    /** The opened pack file, opened upon the first read. */
+    private RandomAccessFile _file = null;
+
+    /**
+     * Construct a pack file representation.
+     * This method is `private` since packs should be obtained from openAll() or receive().
+     */
+    private PackFile(File pack, TreeMap<String, Long> offsets) {
+        _pack = pack;
+        _offsets = offsets;
+    }
+
+    /** Return true if the pack has an object with the designated full ID. */
+    boolean contains(String id) {
+        return _offsets.containsKey(id);
+    }
+
+    /** Return the full ID of the object with the designated abbreviated ID, or null if there is none. */
+    String resolve(String abbrevID) {
+        String id = _offsets.ceilingKey(abbrevID);
+        if (id == null || !id.startsWith(abbrevID)) {
+            return null;
+        }
+        return id;
+    }
+
+    /**
+     * Hard-link this pack and its index into another pack directory (see Utils.linkFile()).
+     * The index is linked last, since the index is what opens a pack.
+     * @return the linked pack, or null if the files cannot be linked
+     */
+    PackFile linkInto(File packDir) {
+        String indexName = _pack.getName().replace(".pack", ".idx");
+        packDir.mkdirs();
+        File pack = join(packDir, _pack.getName());
+        if (!linkFile(_pack, pack) || !linkFile(join(_pack.getParentFile(), indexName), join(packDir, indexName))) {
+            return null;
+        }
+        return new PackFile(pack, _offsets);
+    }
+
+    /** Return the IDs of all objects in the pack. */
+    Set<String> ids() {
+        return Collections.unmodifiableSet(_offsets.keySet());
+    }
+
+    /**
+     * Read the serialized object with the designated full ID, resolving deltas.
+     * Throws a GitletException if the pack is corrupted.
+     */
+    synchronized byte[] read(String id) {
+        return read(id, 0);
+    }
+
+    /**
+     * Read the serialized object with the designated full ID, which is DEPTH deltas down a chain.
+     * Throws a GitletException if the chain is longer than MAX_DELTA_DEPTH, or the base is not in the pack.
+     */
+    private byte[] read(String id, int depth) {
+        if (depth > MAX_DELTA_DEPTH) {
+            throw error("Corrupted pack %s: delta chain of %s is too long.", _pack.getName(), id);
+        } // Special case: a chain with a cycle never ends.
+        Long offset = _offsets.get(id);
+        if (offset == null) {
+            throw error("Corrupted pack %s: missing delta base %s.", _pack.getName(), id);
+        }
+        try {
+            if (_file == null) {
+                _file = new RandomAccessFile(_pack, "r");
+            }
+            _file.seek(offset);
+            _file.skipBytes(UID_LENGTH);
+            byte type = _file.readByte();
+            String baseID = type == DELTA ? readID(_file) : null;
+            byte[] data = new byte[readLength(_file)];
+            _file.readFully(data);
+            Trace.count(Trace.Counter.BYTES_READ, data.length);
+            if (baseID == null) {
+                return decompress(data, MAX_OBJECT_SIZE);
+            }
+            return Delta.apply(read(baseID, depth + 1), decompress(data, MAX_OBJECT_SIZE));
+        } catch (IOException | IllegalArgumentException excp) {
+            throw error("Corrupted pack %s: %s", _pack.getName(), excp.getMessage());
+        }
+    }
+
+    /**
+     * Check that every object of the pack hashes to its ID, as a received pack must before it is used.
+     * The objects are deserialized through HashObject.FILTER, since the pack is not trusted yet.
+     * Throws a GitletException otherwise.
+     */
+    private synchronized void verify() {
+        try {
+            for (String id : _offsets.keySet()) {
+                HashObject object = deserialize(read(id), HashObject.class, HashObject.FILTER);
+                if (!object.id().equals(id)) {
+                    throw error("Object %s does not match its ID.", id);
+                }
+            }
+        } catch (IllegalArgumentException excp) {
+            throw error("Corrupted object: %s", excp.getMessage());
+        } finally {
+            closeFile();
+        }
+    }
+
+    /** Close the opened pack file, if any. It is opened again upon the next read. */
+    private void closeFile() {
+        if (_file == null) {
+            return;
+        }
+        try {
+            _file.close();
+        } catch (IOException excp) {
+            // Closing a file opened for reading is best effort.
+        }
+        _file = null;
+    }
+
+    /* STATIC METHODS */
+
+    /** Open all packs in the designated pack directory. */
+    static List<PackFile> openAll(File packDir) {
+        List<PackFile> packs = new ArrayList<>();
+        List<String> fileNames = plainFilenamesIn(packDir);
+        if (fileNames == null) {
+            return packs;
+        } // Special case: there is no pack directory.
+        for (String fileName : fileNames) {
+            if (!fileName.startsWith("pack-") || !fileName.endsWith(".idx")) {
+                continue;
+            } // Special case: only the index of a pack opens it, the pack is renamed into place first.
+            File index = join(packDir, fileName);
+            File pack = join(packDir, fileName.replace(".idx", ".pack"));
+            packs.add(new PackFile(pack, readIndex(index)));
+        }
+        return packs;
+    }
+
+    /**
+     * Write a pack of the objects with designated IDs, in the designated order, to OUT.
+     * An object is encoded as a delta against the object given by DELTA_BASES
+     * if that saves enough space, the base is written earlier in the same pack,
+     * and the chain of deltas stays within MAX_DELTA_DEPTH; otherwise the object is written in full.
+     */
+    static void write(OutputStream out, ObjectDatabase from, Collection<String> ids,
+                      Map<String, String> deltaBases) throws IOException {
+        MessageDigest digest = sha1Digest();
+        DataOutputStream data = new DataOutputStream(new DigestOutputStream(out, digest));
+        Map<String, byte[]> bases = new LinkedHashMap<String, byte[]>(BASE_CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > BASE_CACHE_SIZE;
+            }
+        }; // Recently written objects, which are likely to be the bases of the next ones.
+        Set<String> baseIDs = new HashSet<>(deltaBases.values());
+        Map<String, Integer> depths = new HashMap<>(); // the written objects, with the length of their chain
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(ids.size());
+        for (String id : ids) {
+            byte[] object = from.readSerialized(id);
+            String baseID = deltaBases.get(id);
+            byte[] delta = null;
+            int depth = 0;
+            if (baseID != null && depths.containsKey(baseID) && depths.get(baseID) < MAX_DELTA_DEPTH) {
+                byte[] base = bases.containsKey(baseID) ? bases.get(baseID) : from.readSerialized(baseID);
+                delta = Delta.encode(base, object);
+            }
+            data.write(id.getBytes(StandardCharsets.US_ASCII));
+            if (delta == null) {
+                data.writeByte(FULL);
+                writeData(data, compress(object));
+            } else {
+                data.writeByte(DELTA);
+                depth = depths.get(baseID) + 1;
+                data.write(baseID.getBytes(StandardCharsets.US_ASCII));
+                writeData(data, compress(delta));
+            }
+            depths.put(id, depth);
+            if (baseIDs.contains(id)) {
+                bases.put(id, object);
+            }
+        }
+        data.flush();
+        out.write(digest.digest());
+        out.flush();
+    }
+
+    /**
+     * Receive a pack from IN into the designated pack directory.
+     * The pack is copied to a temporary file and indexed in the same pass,
+     * refusing duplicate entries, entries longer than MAX_OBJECT_SIZE, and deltas whose base
+     * is not an earlier entry or whose chain is longer than MAX_DELTA_DEPTH. Then its checksum is verified, every object is checked
+     * to hash to its ID, and the pack and its index are synced
+     * and renamed into place (the index last, since it is what makes the pack visible).
+     * Throws a GitletException if the pack is truncated or corrupted.
+     * @return the received pack
+     */
+    static PackFile receive(InputStream in, File packDir) {
+        packDir.mkdirs();
+        File temp = tempFileFor(join(packDir, "incoming.pack"));
+        TreeMap<String, Long> offsets = new TreeMap<>();
+        Map<String, Integer> depths = new HashMap<>();
+        byte[] checksum;
+        try {
+            MessageDigest digest = sha1Digest();
+            DigestInputStream digestIn = new DigestInputStream(in, digest);
+            DataInputStream data = new DataInputStream(digestIn);
+            try (DataOutputStream copy = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)))) {
+                if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                    throw error("Not a pack of this version.");
+                }
+                int count = data.readInt();
+                copy.writeInt(MAGIC);
+                copy.writeInt(VERSION);
+                copy.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    long offset = copy.size();
+                    offsets.put(copyEntry(data, copy, depths), offset);
+                }
+                digestIn.on(false);
+                checksum = new byte[digest.getDigestLength()];
+                data.readFully(checksum);
+                if (!MessageDigest.isEqual(checksum, digest.digest())) {
+                    throw error("Checksum mismatch.");
+                }
+                copy.write(checksum);
+            }
+            new PackFile(temp, offsets).verify();
+        } catch (IOException | RuntimeException excp) {
+            temp.delete();
+            throw error("Cannot receive pack: %s", excp.getMessage());
+        } // Special case: whatever a malformed pack breaks, the temporary file must not be left behind.
+        syncFile(temp);
+        String name = "pack-" + toHex(checksum);
+        File pack = join(packDir, name + ".pack");
+        atomicMove(temp, pack);
+        writeIndex(join(packDir, name + ".idx"), offsets);
+        syncDirectory(packDir);
+        return new PackFile(pack, offsets);
+    }
+
+    /* HELPER METHODS */
+
+    /**
+     * Copy one entry from IN to OUT, recording the length of its delta chain in DEPTHS,
+     * which holds the entries copied so far.
+     * Throws a GitletException if the ID is not a full ID or is copied already, if the data is longer
+     * than MAX_OBJECT_SIZE, or if the entry is a delta whose base is not copied already or whose chain is too long.
+     * @return the ID of the entry
+     */
+    private static String copyEntry(DataInputStream in, DataOutputStream out,
+                                    Map<String, Integer> depths) throws IOException {
+        String id = readID(in);
+        if (!id.matches("[0-9a-f]{" + UID_LENGTH + "}")) {
+            throw error("Bad entry ID.");
+        }
+        if (depths.containsKey(id)) {
+            throw error("Duplicate entry %s.", id);
+        }
+        byte type = in.readByte();
+        out.write(id.getBytes(StandardCharsets.US_ASCII));
+        out.writeByte(type);
+        if (type == DELTA) {
+            String baseID = readID(in);
+            Integer baseDepth = depths.get(baseID);
+            if (baseDepth == null) {
+                throw error("Delta base %s of %s is not an earlier entry.", baseID, id);
+            }
+            if (baseDepth + 1 > MAX_DELTA_DEPTH) {
+                throw error("Delta chain of %s is too long.", id);
+            }
+            depths.put(id, baseDepth + 1);
+            out.write(baseID.getBytes(StandardCharsets.US_ASCII));
+        } else if (type == FULL) {
+            depths.put(id, 0);
+        } else {
+            throw error("Unknown entry type %d.", type);
+        }
+        int length = readLength(in);
+        byte[] data = in.readNBytes(length); // Allocated as the data arrives, not upfront.
+        if (data.length < length) {
+            throw new EOFException("Truncated entry " + id + ".");
+        }
+        writeData(out, data);
+        return id;
+    }
+
+    /**
+     * Read the length of the data of an entry from IN.
+     * Throws a GitletException if it is negative or greater than MAX_OBJECT_SIZE.
+     */
+    private static int readLength(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_OBJECT_SIZE) {
+            throw error("Bad entry length %d.", length);
+        }
+        return length;
+    }
+
+    /** Write a length-prefixed DATA to OUT. */
+    private static void writeData(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    /** Read an ID of 40 ASCII characters from IN. */
+    private static String readID(DataInput in) throws IOException {
+        byte[] id = new byte[UID_LENGTH];
+        in.readFully(id);
+        return new String(id, StandardCharsets.US_ASCII);
+    }
+
+    /** Write the index of a pack atomically. */
+    private static void writeIndex(File index, TreeMap<String, Long> offsets) {
+        File temp = tempFileFor(index);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(offsets.size());
+            for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+                out.write(entry.getKey().getBytes(StandardCharsets.US_ASCII));
+                out.writeLong(entry.getValue());
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write pack index: %s", excp.getMessage());
+        }
+        syncFile(temp);
+        atomicMove(temp, index);
+    }
+
+    /** Read the index of a pack. */
+    private static TreeMap<String, Long> readIndex(File index) {
+        TreeMap<String, Long> offsets = new TreeMap<>();
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(readContents(index)))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                throw error("Not a pack index: %s", index.getName());
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                offsets.put(readID(in), in.readLong());
+            }
+        } catch (IOException excp) {
+            throw error("Corrupted pack index %s: %s", index.getName(), excp.getMessage());
+        }
+        return offsets;
+    }
+
+    private static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : bytes) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Cache.*;
+import static gitlet.Repository.promisorFile;
+import static gitlet.Utils.*;
+
+/**
+ * This class houses static methods related to partial fetches.
+ * A fetch with `--filter=blob:none` transfers commits and Trees only, and the remote it fetches from
+ * becomes a promisor remote, which promises to provide the Blobs left out.
+ * The promisor remotes are listed in the .gitlet/promisor file, one name per line,
+ * which does not exist if every Blob was fetched. A later fetch from a promisor remote leaves Blobs out too.
+ * A missing Blob is faulted in from the promisor remotes upon reading (see Cache.getBlob()),
+ * and the Blobs of a whole commit are fetched as one batch before it is checked out.
+ * This class will never be instantiated since there are only static methods.
+ *
+ * @author XIE Changyuan
+ */
+public class Promisor {
+
+    /** The filter of a partial fetch, which leaves every Blob out. */
+    static final String BLOB_NONE = "blob:none";
+
+    /* STATIC METHODS */
+
+    /** Load the names of the promisor remotes from the promisor file. Invoked by the Cache class. */
+    static List<String> loadPromisors() {
+        List<String> promisors = new ArrayList<>();
+        String content = currJournal().readReference(promisorFile());
+        if (content == null) {
+            return promisors;
+        } // Special case: every Blob was fetched.
+        for (String line : content.split("\n")) {
+            if (!line.isEmpty()) {
+                promisors.add(line);
+            }
+        }
+        return promisors;
+    }
+
+    /** Record the names of the promisor remotes for writing back, deleting the promisor file if there is none. */
+    static void writePromisors(List<String> promisors) {
+        if (promisors.isEmpty()) {
+            currJournal().recordDelete(promisorFile());
+        } else {
+            currJournal().recordWrite(promisorFile(), String.join("\n", promisors) + "\n");
+        }
+    }
+
+    /** Return true if the remote with designated name is a promisor remote. */
+    static boolean isPromisor(String remoteName) {
+        return getPromisors().contains(remoteName);
+    }
+
+    /** Make the remote with designated name a promisor remote, after a partial fetch from it. */
+    static void addPromisor(String remoteName) {
+        if (isPromisor(remoteName)) {
+            return;
+        }
+        List<String> promisors = new ArrayList<>(getPromisors());
+        promisors.add(remoteName);
+        cachePromisors(promisors);
+    }
+
+    /** Forget the remote with designated name as a promisor remote, after it is removed. */
+    static void removePromisor(String remoteName) {
+        if (!isPromisor(remoteName)) {
+            return;
+        }
+        List<String> promisors = new ArrayList<>(getPromisors());
+        promisors.remove(remoteName);
+        cachePromisors(promisors);
+    }
+
+    /**
+     * Fetch the objects with designated IDs that the object database lacks from the promisor remotes,
+     * as one batch per remote, trying the remotes in the order they were added.
+     * Nothing is checked without promisor remotes, so a repository that was never partially fetched
+     * pays nothing. Throws a GitletException if some of them cannot be fetched.
+     * @param objects the object database the objects are read from
+     */
+    static void prefetch(ObjectDatabase objects, Collection<String> objectIDs) {
+        if (!Repository.isBound() || objects != currObjectDatabase() || getPromisors().isEmpty()) {
+            return;
+        } // Special case: only the local repository of a partial fetch has promisor remotes to ask,
+          // and a Server thread serves remote repositories only.
+        Set<String> missing = new LinkedHashSet<>();
+        for (String objectID : objectIDs) {
+            if (objectID != null && !objects.contains(objectID)) {
+                missing.add(objectID);
+            }
+        }
+        for (String remoteName : getPromisors()) {
+            if (missing.isEmpty()) {
+                return;
+            }
+            missing = Remote.fetchObjects(remoteName, missing);
+        }
+        if (!missing.isEmpty()) {
+            throw error("Cannot fetch object %s from the promisor remotes.", missing.iterator().next());
+        }
+    }
+}
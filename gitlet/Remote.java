@@ -1,131 +1,210 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
-import static gitlet.Repository.REMOTES_DIR;
+import static gitlet.Repository.remotesDir;
 import static gitlet.Repository.printAndExit;
 import static gitlet.Utils.*;
 import static java.io.File.separator;
 
+/**
+ * This class represents a remote repository, and houses static methods of the remote commands.
+ * A remote repository is accessed through its own ObjectDatabase and Journal,
+ * opened once per command, while the static paths in Repository keep designating
+ * the local repository. Thus push and fetch read from one object database and write to the other
+ * directly, and objects can be transferred by several threads at once.
+ * A remote designated by a gitlet:// URL is accessed over the network instead (see NetworkRemote),
+ * and the Server accesses the repositories it serves through instances of this class.
+ *
+ * @author XIE Changyuan
+ */
 public class Remote {
 
-    File _remoteWD;
+    /** The .gitlet directory of the remote repository. */
+    private final File _gitletDir;
+    /** The working directory of the remote repository. */
+    private final File _remoteWD;
+    /** The object database of the remote repository. */
+    private final ObjectDatabase _objects;
+    /** The journal of the remote repository's references. */
+    private final Journal _journal;
+    /** Cached branches of the remote repository, "" for a deleted branch. */
+    private final Map<String, String> _branches = new TreeMap<>();
+    /** Cached HEAD of the remote repository. */
+    private String _head = null;
+    /** Cached STAGE (the ID of the staging area) of the remote repository. */
+    private String _stageID = null;
+    /** IDs of commits transferred to the remote repository in this run. */
+    private final Set<String> _recordedCommitIDs = new TreeSet<>();
 
     /**
-     * Construct a remote repository representation.
+     * Construct a remote repository representation,
+     * replaying an interrupted write back of the remote repository if any.
      * @param remoteGitlet the .gitlet directory of the remote repository.
      */
-    private Remote(File remoteGitlet) {
+    Remote(File remoteGitlet) {
+        this._gitletDir = remoteGitlet;
         this._remoteWD = remoteGitlet.getParentFile();
+        this._objects = ObjectDatabase.open(remoteGitlet);
+        this._journal = Journal.open(remoteGitlet);
+        _journal.discard();
+        _journal.recover();
+    }
+
+    /** Return the object database of the remote repository. */
+    ObjectDatabase objects() {
+        return _objects;
+    }
+
+    String getHEAD() {
+        if (_head == null) {
+            _head = _journal.readReference(join(_gitletDir, "HEAD"));
+        }
+        return _head;
+    }
+    String getBranch(String branchName) {
+        if (!_branches.containsKey(branchName)) {
+            _branches.put(branchName, _journal.readReference(branchFile(branchName)));
+        }
+        return _branches.get(branchName);
+    }
+    boolean existBranch(String branchName) {
+        return getBranch(branchName) != null;
+    }
+    void mkNewBranch(String branchName) {
+        _branches.put(branchName, getBranch(getHEAD()));
+    }
+    void moveHEAD(String branchName) {
+        _head = branchName;
+    }
+    void moveCurrBranch(String commitID) {
+        _branches.put(getHEAD(), commitID);
+    }
+    /** Return the commit with designated ID, or null if there is none or the object is not a commit. */
+    Commit getCommit(String id) {
+        HashObject object = _objects.get(id);
+        return object instanceof Commit ? (Commit) object : null;
+    }
+    void mkNewStage() {
+        _stageID = _objects.put(new Tree());
     }
 
     /**
-     * Change the CWD in Gitlet running environment to the remote repository's working directory.
-     * Must call before commanding the remote repository.
+     * Overwrite the files in the remote working directory with the files tracked by
+     * a commit (with designated ID). Nothing is written if a file name of the commit
+     * would resolve out of the working directory.
      */
-    private void remoteRunner() {
-        Repository.assignStaticVariables(this._remoteWD);
+    void checkoutToCommit(String commitID) {
+        checkFileNames(commitID);
+        Tree tree = (Tree) _objects.get(getCommit(commitID).getCommitTreeID());
+        for (String fileName : tree) {
+            Blob blob = (Blob) _objects.get(tree.getBlobID(fileName));
+            writeContents(join(_remoteWD, fileName), blob.getContent());
+        }
     }
+
     /**
-     * Change the CWD in Gitlet running environment to the local repository's working directory.
+     * Throw a GitletException if a file name tracked by a commit (with designated ID)
+     * would resolve out of the remote working directory (see Tree.isSafeFileName()).
      */
-    private void localRunner() {
-        Repository.assignStaticVariables(Main.localCWD);
-    }
-
-    private String getHEAD() {
-        remoteRunner();
-        String x = Cache.getHEAD();
-        localRunner();
-        return x;
-    }
-    private Commit getLatestCommit() {
-        remoteRunner();
-        Commit x = Cache.getLatestCommit();
-        localRunner();
-        return x;
-    }
-    private String getBranch(String branchName) {
-        remoteRunner();
-        String x = Cache.getBranch(branchName);
-        localRunner();
-        return x;
-    }
-    private Commit getCommit(String id) {
-        remoteRunner();
-        Commit x = Cache.getCommit(id);
-        localRunner();
-        return x;
-    }
-    private String cacheAndQueueForWriteHashObject(HashObject object) {
-        remoteRunner();
-        String x = Cache.cacheAndQueueForWriteHashObject(object);
-        localRunner();
-        return x;
-    }
-    private void writeBack() {
-        remoteRunner();
-        Cache.writeBack();
-        localRunner();
-    }
-    private Set<String> commitAncestors(Commit commit) {
-        remoteRunner();
-        Set<String> x = Commit.ancestors(commit);
-        localRunner();
-        return x;
-    }
-    private void moveHEAD(String branchName) {
-        remoteRunner();
-        Branch.moveHEAD(branchName);
-        localRunner();
-    }
-    private void moveCurrBranch(String commitID) {
-        remoteRunner();
-        Branch.moveCurrBranch(commitID);
-        localRunner();
-    }
-    private void checkoutToCommit(String commitID) {
-        remoteRunner();
-        Repository.checkoutToCommit(commitID);
-        localRunner();
-    }
-    private boolean existBranch(String branchName) {
-        remoteRunner();
-        boolean x = Branch.existBranch(branchName);
-        localRunner();
-        return x;
-    }
-    private void mkNewBranch(String branchName) {
-        remoteRunner();
-        Branch.mkNewBranch(branchName);
-        localRunner();
-    }
-    private void mkNewStage() {
-        remoteRunner();
-        Stage.mkNewStage();
-        localRunner();
-    }
-    private Tree getCommitTree(Commit commit) {
-        remoteRunner();
-        Tree x = commit.getCommitTree();
-        localRunner();
-        return x;
-    }
-    private Blob getBlob(String blobID) {
-        remoteRunner();
-        Blob x = Cache.getBlob(blobID);
-        localRunner();
-        return x;
+    void checkFileNames(String commitID) {
+        HashObject object = _objects.get(getCommit(commitID).getCommitTreeID());
+        if (!(object instanceof Tree)) {
+            throw error("Invalid tree in commit %s.", commitID);
+        } // Special case: a pushed commit may name any object as its Tree.
+        String fileName = ((Tree) object).unsafeFileName();
+        if (fileName != null) {
+            throw error("Invalid file name in commit %s: %s", commitID, fileName);
+        }
     }
-    private void recordCommitID(String commitID) {
-        remoteRunner();
-        Commit.recordCommitID(commitID);
-        localRunner();
+
+    /**
+     * Write back the remote repository, in the same order as Cache.writeBack().
+     * 1. Write all new HashObjects
+     * 2. Record the new references (branches, HEAD and STAGE)
+     * 3. Take the reference lock, merge the transferred commit IDs
+     *    into allCommitsID, and commit the references at once through the journal
+     */
+    void writeBack() {
+        _objects.writeBack();
+        for (Map.Entry<String, String> entry : _branches.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            } // Special case: ignore branches that were only looked up.
+            _journal.recordWrite(branchFile(entry.getKey()), entry.getValue());
+        }
+        if (_head != null) {
+            _journal.recordWrite(join(_gitletDir, "HEAD"), _head);
+        }
+        if (_stageID != null) {
+            _journal.recordWrite(join(_gitletDir, "STAGE"), _stageID);
+        }
+        if (!_journal.hasPendingUpdates() && _recordedCommitIDs.isEmpty()) {
+            return;
+        }
+        _journal.lock();
+        try {
+            File allCommitsIDFile = join(_gitletDir, "allCommitsID");
+            Tree allCommitsID = readObject(allCommitsIDFile, Tree.class);
+            for (String commitID : _recordedCommitIDs) {
+                allCommitsID.putBlobID(commitID, null);
+            }
+            _journal.recordWrite(allCommitsIDFile, serialize(allCommitsID));
+            _journal.commit();
+        } finally {
+            _journal.unlock();
+        }
+        _recordedCommitIDs.clear();
     }
 
+    /** Return the names of the branches of the remote repository, except fetched remote branches. */
+    List<String> branchNames() {
+        List<String> branchNames = plainFilenamesIn(join(_gitletDir, "branches"));
+        return branchNames == null ? new ArrayList<>() : branchNames;
+    }
 
+    /** Record the IDs of commits transferred to the remote repository, to be added to its allCommitsID. */
+    void recordCommitIDs(Collection<String> commitIDs) {
+        _recordedCommitIDs.addAll(commitIDs);
+    }
 
+    /**
+     * Get the File object of a branch of the remote repository with designated name,
+     * which must resolve to a path under its branches folder.
+     */
+    private File branchFile(String branchName) {
+        File branches = join(_gitletDir, "branches");
+        File branchFile = join(branches, branchName);
+        try {
+            if (!branchFile.getCanonicalPath().startsWith(branches.getCanonicalPath() + separator)) {
+                throw error("Invalid branch name: %s", branchName);
+            }
+        } catch (IOException excp) {
+            throw error("Invalid branch name: %s", branchName);
+        }
+        return branchFile;
+    }
 
     /* STATIC METHODS */
 
@@ -137,17 +216,27 @@ public class Remote {
      * @param path the given path to the remote.
      */
     public static void addRemote(String remoteName, String path) {
-        if (!path.endsWith("/.gitlet") || path.contains("\\")) {
-            printAndExit("Bad remote repository syntax.");
-        } // Special case: abort if invalid path.
-        File remote = join(REMOTES_DIR, remoteName);
+        checkLocation(path);
+        File remote = join(remotesDir(), remoteName);
         if (remote.exists()) {
             printAndExit("A remote with that name already exists.");
         } // Special case: abort if a remote with the given name already exists.
         writeRemote(remote, path);
     }
+
+    /** Abort if the location of a remote is neither a path ending with /.gitlet nor a valid URL. */
+    private static void checkLocation(String path) {
+        if (NetworkRemote.isURL(path)) {
+            NetworkRemote.parseURL(path);
+        } else if (!path.endsWith("/.gitlet") || path.contains("\\")) {
+            printAndExit("Bad remote repository syntax.");
+        } // Special case: abort if invalid path or URL.
+    }
+
     private static void writeRemote(File remoteFile, String path) {
-        path = path.replace("/", separator);
+        if (!NetworkRemote.isURL(path)) {
+            path = path.replace("/", separator);
+        } // Special case: a URL is kept as is.
         writeContents(remoteFile, path);
     }
 
@@ -157,7 +246,7 @@ public class Remote {
      * @return the remote reference file.
      */
     static File readRemote(String remoteName) {
-        File remoteFile = join(REMOTES_DIR, remoteName);
+        File remoteFile = join(remotesDir(), remoteName);
         if (!remoteFile.exists()) {
             printAndExit("A remote with that name does not exist.");
         } // Special case: abort if a remoteFile with the given name not exists.
@@ -165,14 +254,21 @@ public class Remote {
     }
 
     /**
-     * Get the file of the remote .gitlet directory.
+     * Get the location of the remote, which is either a path or a gitlet:// URL.
      * @param remoteName the given remote name.
+     * @return the location of the remote.
+     */
+    static String remoteLocation(String remoteName) {
+        return readContentsAsString(readRemote(remoteName));
+    }
+
+    /**
+     * Get the file of the remote .gitlet directory.
+     * @param location the path of the remote.
      * @return the .gitlet directory file of the remote.
      */
-    static File getRemoteGitlet(String remoteName) {
-        File remoteFile = readRemote(remoteName);
-        String path = readContentsAsString(remoteFile);
-        File remoteGitlet = join(path);
+    static File getRemoteGitlet(String location) {
+        File remoteGitlet = join(location);
         if (!remoteGitlet.exists()) {
             printAndExit("Remote directory not found.");
         } // Special case: abort if the remote .gitlet directory does not exist.
@@ -188,12 +284,18 @@ public class Remote {
     public static void rmRemote(String remoteName) {
         File remoteFile = readRemote(remoteName);
         remoteFile.delete();
+        Promisor.removePromisor(remoteName);
     }
 
     /* PUSH COMMAND */
 
     public static void push(String remoteName, String remoteBranchName) {
-        File remoteGitlet = getRemoteGitlet(remoteName);
+        String location = remoteLocation(remoteName);
+        if (NetworkRemote.isURL(location)) {
+            NetworkRemote.push(location, remoteBranchName);
+            return;
+        } // Special case: push over the network.
+        File remoteGitlet = getRemoteGitlet(location);
         Remote remote = new Remote(remoteGitlet);
         if (!remote.existBranch(remoteBranchName)) {
             remote.mkNewBranch(remoteBranchName);
@@ -202,104 +304,361 @@ public class Remote {
         Commit remoteHeadCommit = remote.getCommit(remoteHeadCommitID);
         Commit localHeadCommit = Cache.getLatestCommit();
 
-        Set<String> commitsToPush = commitsToPush(localHeadCommit, remoteHeadCommit, remote);
+        Set<String> commitsToPush = commitsToPush(localHeadCommit, remoteHeadCommit);
         pushCommits(commitsToPush, remote);
         pushReset(remote, localHeadCommit.id(), remoteBranchName);
     }
 
-    private static void pushReset(Remote remote, String commitID, String remoteBranchName) {
+    static void pushReset(Remote remote, String commitID, String remoteBranchName) {
         remote.moveHEAD(remoteBranchName);
         remote.moveCurrBranch(commitID);
-        remote.checkoutToCommit(commitID);
         remote.mkNewStage();
         remote.writeBack();
+        remote.checkoutToCommit(commitID);
     }
 
     /**
      * Return a Set of String containing the IDs of commits
      * that should be pushed to the remote repo.
+     * The local history is only walked back to the remote branch's head (see CommitWalk),
+     * which is in the local repo if the push is a fast-forward.
      */
-    private static Set<String> commitsToPush(Commit localC, Commit remoteC, Remote remote) {
-        Set<String> localCommitAncestors = Commit.ancestors(localC);
-        if (!localCommitAncestors.contains(remoteC.id())) {
+    static Set<String> commitsToPush(Commit localC, Commit remoteC) {
+        CommitWalk walk = new CommitWalk(Cache.currObjectDatabase());
+        walk.markInteresting(localC.id());
+        walk.markUninteresting(remoteC.id());
+        Set<String> commitIDs = walk.run();
+        if (!walk.reachedFromInteresting(remoteC.id())) {
             printAndExit("Please pull down remote changes before pushing.");
         } // Special case: abort if the remote branch’s head is not
           // in the history of the current local head.
-        Set<String> remoteCommitAncestors = remote.commitAncestors(remoteC);
-        localCommitAncestors.removeAll(remoteCommitAncestors);
-        return localCommitAncestors;
+        return commitIDs;
     }
 
     private static void pushCommits(Set<String> commitIDs, Remote remote) {
-        for (String commitID : commitIDs) {
-            Commit commit = Cache.getCommit(commitID);
-            pushCommit(commit, remote);
-        }
-        remote.writeBack();
-    }
-
-    private static void pushCommit(Commit commit, Remote remote) {
-        remote.cacheAndQueueForWriteHashObject(commit);
-        Tree tree = commit.getCommitTree();
-        remote.cacheAndQueueForWriteHashObject(tree);
-        for (String fileName : tree) {
-            Blob blob = tree.getBlob(fileName);
-            remote.cacheAndQueueForWriteHashObject(blob);
-        }
-        remote.recordCommitID(commit.id());
+        transferCommits(Cache.currObjectDatabase(), remote._objects, commitIDs, true);
+        remote.recordCommitIDs(commitIDs);
     }
 
     /* FETCH COMMAND */
 
     public static void fetch(String remoteName, String remoteBranchName) {
-        File remoteGitlet = getRemoteGitlet(remoteName);
+        fetch(remoteName, remoteBranchName, CommitWalk.INFINITE_DEPTH, true);
+    }
+
+    /**
+     * Execute the fetch command, fetching DEPTH generations of the history from the remote branch's head.
+     * The commits whose parents are not fetched are recorded as shallow boundaries (see Shallow),
+     * and a later fetch with a larger depth, or without depth, deepens the history.
+     * Without BLOBS, only commits and Trees are fetched, and the remote becomes a promisor remote
+     * (see Promisor); a fetch from a promisor remote never fetches Blobs.
+     */
+    public static void fetch(String remoteName, String remoteBranchName, int depth, boolean blobs) {
+        String location = remoteLocation(remoteName);
+        String localNewBranchName = remoteName + "/" + remoteBranchName;
+        boolean partial = !blobs || Promisor.isPromisor(remoteName);
+        if (partial) {
+            Promisor.addPromisor(remoteName);
+        } // Special case: a partial fetch.
+        if (NetworkRemote.isURL(location)) {
+            String remoteHeadCommitID = NetworkRemote.fetch(location, remoteBranchName, depth, !partial);
+            Branch.moveBranch(localNewBranchName, remoteHeadCommitID);
+            return;
+        } // Special case: fetch over the network.
+        File remoteGitlet = getRemoteGitlet(location);
         Remote remote = new Remote(remoteGitlet);
         if (!remote.existBranch(remoteBranchName)) {
             printAndExit("That remote does not have that branch.");
         } // Special case:abort if the remote repo does not have a branch with the given name.
         String remoteHeadCommitID = remote.getBranch(remoteBranchName);
         Commit remoteHeadCommit = remote.getCommit(remoteHeadCommitID);
-        Commit localHeadCommit;
-        String localNewBranchName = remoteName + "/" + remoteBranchName;
         if (!Branch.existBranch(localNewBranchName)) {
             Branch.mkNewBranch(localNewBranchName);
-            localHeadCommit = null;
-        } else {
-            localHeadCommit = Cache.getCommit(Cache.getBranch(localNewBranchName));
         }
-        Set<String> commitsToFetch = commitsToFetch(localHeadCommit, remoteHeadCommit, remote);
-        fetchCommits(remote, commitsToFetch);
+        CommitWalk walk = fetchWalk(remote._objects, remoteHeadCommit.id(), depth,
+                Branch.loadAllBranches(), Cache.getShallow());
+        Set<String> commitsToFetch = walk.run();
+        fetchCommits(remote, commitsToFetch, !partial);
+        Shallow.updateShallow(walk.boundaries());
         Branch.moveBranch(localNewBranchName, remoteHeadCommitID);
     }
 
     /**
-     * Return a Set of String containing the IDs of commits
-     * that should be fetched from the remote repo.
+     * Return the walk that finds the commits that should be fetched from the remote repo.
+     * The remote history is only walked back to the commits of any local branch
+     * (see CommitWalk); a local branch head the remote repo does not have is ignored.
+     * The walk goes past the local shallow boundaries, and stops at the designated depth.
+     * @param objects the object database of the remote repo
+     * @param commonCommitIDs the IDs of the local commits the remote repo may have in common with the local repo
+     * @param shallowCommitIDs the IDs of the shallow boundaries of the local repo
      */
-    private static Set<String> commitsToFetch(Commit localC, Commit remoteC, Remote remote) {
-        Set<String> localCommitAncestors = Commit.ancestors(localC);
-        Set<String> remoteCommitAncestors = remote.commitAncestors(remoteC);
-        remoteCommitAncestors.removeAll(localCommitAncestors);
-        return remoteCommitAncestors;
+    static CommitWalk fetchWalk(ObjectDatabase objects, String remoteHeadCommitID, int depth,
+                                Collection<String> commonCommitIDs, Collection<String> shallowCommitIDs) {
+        CommitWalk walk = new CommitWalk(objects);
+        walk.setDepth(depth);
+        for (String commitID : shallowCommitIDs) {
+            walk.markShallow(commitID);
+        }
+        walk.markInteresting(remoteHeadCommitID);
+        for (String commitID : commonCommitIDs) {
+            walk.markUninteresting(commitID);
+        }
+        return walk;
     }
 
-    private static void fetchCommits(Remote remote, Set<String> commitIDs) {
+    private static void fetchCommits(Remote remote, Set<String> commitIDs, boolean blobs) {
+        transferCommits(remote._objects, Cache.currObjectDatabase(), commitIDs, blobs);
         for (String commitID : commitIDs) {
-            fetchCommit(remote, commitID);
+            Commit.recordCommitID(commitID);
         }
     }
 
-    private static void fetchCommit(Remote remote, String commitID) {
-        Commit commit = remote.getCommit(commitID);
+    /* TRANSFER */
 
-        Cache.cacheAndQueueForWriteHashObject(commit);
-        Tree tree = remote.getCommitTree(commit);
-        Cache.cacheAndQueueForWriteHashObject(tree);
-        for (String fileName : tree) {
-            Blob blob = remote.getBlob(tree.getBlobID(fileName));
-            Cache.cacheAndQueueForWriteHashObject(blob);
+    /** The size of the buffer between the sending and the receiving thread. */
+    private static final int PIPE_SIZE = 1 << 16;
+
+    /**
+     * Copy the commits with designated IDs, together with their Trees and (if BLOBS) Blobs,
+     * from one object database to another.
+     * 1. Negotiate: collect the objects reachable from the commits that the receiver does not have
+     * 2. Fault in those a partial fetch left out of the sender (see Promisor)
+     * 3. Hard-link the missing loose objects and packs of the sender into the receiver,
+     *    if they are on the same file system (see ObjectDatabase.linkObjects())
+     * 4. Stream every other missing object exactly once, as a single pack, from a sending thread
+     * 5. Receive and index the pack in one pass on this thread
+     */
+    private static void transferCommits(ObjectDatabase from, ObjectDatabase to, Set<String> commitIDs,
+                                        boolean blobs) {
+        Map<String, String> deltaBases = new HashMap<>();
+        Set<String> missingObjects = missingObjects(from, to::contains, commitIDs, blobs, deltaBases);
+        Promisor.prefetch(from, missingObjects);
+        transferObjects(from, to, to.linkObjects(from, missingObjects), deltaBases);
+    }
+
+    /**
+     * Stream the objects with designated IDs from one object database to another, as a single pack.
+     * The objects paired in DELTA_BASES are sent as deltas.
+     */
+    private static void transferObjects(ObjectDatabase from, ObjectDatabase to, Set<String> objectIDs,
+                                        Map<String, String> deltaBases) {
+        if (objectIDs.isEmpty()) {
+            return;
+        } // Special case: the receiver has everything already.
+        try (PipedInputStream in = new PipedInputStream(PIPE_SIZE)) {
+            PipedOutputStream out = new PipedOutputStream(in);
+            Thread sender = new Thread(() -> sendPack(out, from, objectIDs, deltaBases),
+                    "gitlet-sender");
+            sender.start();
+            to.receivePack(new BufferedInputStream(in, PIPE_SIZE));
+            sender.join();
+        } catch (IOException | InterruptedException excp) {
+            throw error("Cannot transfer objects: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Write a pack of the designated objects to OUT, and close it.
+     * If the pack cannot be written, the receiver sees a truncated pack and reports the failure.
+     */
+    static void sendPack(OutputStream out, ObjectDatabase from, Set<String> ids,
+                                 Map<String, String> deltaBases) {
+        try (OutputStream stream = new BufferedOutputStream(out, PIPE_SIZE)) {
+            PackFile.write(stream, from, ids, deltaBases);
+        } catch (IOException excp) {
+            // Reported by the receiver.
+        }
+    }
+
+    /**
+     * Return the IDs of the objects reachable from the commits with designated IDs
+     * (the commits themselves, their Trees and, if BLOBS, the Blobs of these Trees)
+     * that the receiver does not have, as told by RECEIVER_HAS.
+     * Every object is examined once, however many commits share it,
+     * thus a Tree shared by several commits is only walked once.
+     * A missing Blob is paired in DELTA_BASES with the previous missing Blob of the same file name,
+     * which is usually a similar version of it, unless the chain of deltas would grow too long.
+     */
+    static Set<String> missingObjects(ObjectDatabase from, Predicate<String> receiverHas,
+                                      Set<String> commitIDs, boolean blobs, Map<String, String> deltaBases) {
+        Set<String> examined = new HashSet<>();
+        Set<String> missing = new LinkedHashSet<>();
+        Map<String, String> lastBlobs = new HashMap<>(); // file name -> the last missing Blob
+        Map<String, Integer> deltaDepths = new HashMap<>();
+        for (String commitID : commitIDs) {
+            if (examined.add(commitID) && !receiverHas.test(commitID)) {
+                missing.add(commitID);
+            }
+            String treeID = ((Commit) from.get(commitID)).getCommitTreeID();
+            if (!examined.add(treeID)) {
+                continue;
+            } // Special case: skip a Tree that is already walked.
+            if (!receiverHas.test(treeID)) {
+                missing.add(treeID);
+            }
+            if (!blobs) {
+                continue;
+            } // Special case: a partial fetch leaves the Blobs out.
+            Tree tree = (Tree) from.get(treeID);
+            for (String fileName : tree) {
+                String blobID = tree.getBlobID(fileName);
+                if (!examined.add(blobID) || receiverHas.test(blobID)) {
+                    continue;
+                }
+                missing.add(blobID);
+                String baseID = lastBlobs.put(fileName, blobID);
+                int depth = baseID == null ? 0 : deltaDepths.get(baseID) + 1;
+                if (baseID != null && depth <= PackFile.MAX_DELTA_DEPTH) {
+                    deltaBases.put(blobID, baseID);
+                    deltaDepths.put(blobID, depth);
+                } else {
+                    deltaDepths.put(blobID, 0);
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Fetch the objects with designated IDs from the remote with designated name
+     * into the local object database, for a partial fetch (see Promisor).
+     * @return the IDs of the objects the remote does not have either
+     */
+    static Set<String> fetchObjects(String remoteName, Set<String> objectIDs) {
+        String location = remoteLocation(remoteName);
+        if (NetworkRemote.isURL(location)) {
+            return NetworkRemote.fetchObjects(location, objectIDs);
+        } // Special case: fetch over the network.
+        Remote remote = new Remote(getRemoteGitlet(location));
+        Set<String> available = new LinkedHashSet<>();
+        Set<String> unavailable = new LinkedHashSet<>();
+        for (String objectID : objectIDs) {
+            (remote._objects.contains(objectID) ? available : unavailable).add(objectID);
+        }
+        ObjectDatabase local = Cache.currObjectDatabase();
+        transferObjects(remote._objects, local, local.linkObjects(remote._objects, available), new HashMap<>());
+        return unavailable;
+    }
+
+    /* CLONE COMMAND */
+
+    /** The name of the remote a clone is made from. */
+    static final String CLONE_REMOTE_NAME = "origin";
+
+    /**
+     * Execute the clone command: make a repository in DIRECTORY with a copy of the repository at LOCATION.
+     * 1. Set up the repository in DIRECTORY, which must be empty or not exist, without an initial commit
+     * 2. Copy the objects in bulk: the pack files and loose objects of a local repository are hard-linked
+     *    (or copied, across file systems) file by file, while a server sends the objects of all its branches
+     *    as a single pack
+     * 3. Add the remote as "origin", make a remote branch for each of its branches,
+     *    and a local branch for its current branch
+     * 4. Check out the current branch
+     */
+    public static void clone(String location, File directory) {
+        checkLocation(location);
+        String[] entries = directory.list();
+        if (directory.exists() && (entries == null || entries.length > 0)) {
+            printAndExit("Destination directory is not empty.");
+        } // Special case: abort rather than overwrite existing files.
+        File remoteGitlet = NetworkRemote.isURL(location) ? null : getRemoteGitlet(location);
+        directory.mkdirs();
+        Repository.assignStaticVariables(directory);
+        try {
+            Repository.setUpPersistence();
+        } catch (IOException excp) {
+            throw error("Cannot set up the repository: %s", excp.getMessage());
+        }
+        writeObject(Repository.allCommitsIDFile(), new Tree());
+        Map<String, String> references = remoteGitlet == null
+                ? NetworkRemote.cloneRepository(location) : copyRepository(remoteGitlet);
+        String headBranchName = references.remove("HEAD");
+        String headCommitID = references.get(headBranchName);
+        if (headCommitID == null) {
+            throw error("The remote repository is not on a branch.");
+        } // Special case: the remote HEAD is a fetched branch, which is not cloned.
+        addRemote(CLONE_REMOTE_NAME, location);
+        for (Map.Entry<String, String> reference : references.entrySet()) {
+            Branch.moveBranch(CLONE_REMOTE_NAME + "/" + reference.getKey(), reference.getValue());
+        }
+        Stage.mkNewStage();
+        Branch.moveBranch(headBranchName, headCommitID);
+        Branch.moveHEAD(headBranchName);
+        Repository.checkoutToCommit(headCommitID);
+    }
+
+    /**
+     * Copy the objects of the local repository with designated .gitlet directory in bulk,
+     * together with its allCommitsID file, shallow boundaries and promisor remotes.
+     * The references are read before the objects are copied, so every object they need is copied.
+     * @return the branch name - commit ID pairs of the repository, and its current branch under "HEAD"
+     */
+    private static Map<String, String> copyRepository(File remoteGitlet) {
+        Remote remote = new Remote(remoteGitlet);
+        Map<String, String> references = new TreeMap<>();
+        for (String branchName : remote.branchNames()) {
+            references.put(branchName, remote.getBranch(branchName));
+        }
+        references.put("HEAD", remote.getHEAD());
+        copyFiles(join(remoteGitlet, "objects"), Repository.objectsDir(), true);
+        copyFiles(join(remoteGitlet, "allCommitsID"), Repository.allCommitsIDFile(), false);
+        File shallowFile = join(remoteGitlet, "shallow");
+        if (shallowFile.isFile()) {
+            Cache.cacheShallow(new TreeSet<>(List.of(readContentsAsString(shallowFile).split("\n"))));
+        } // Special case: a clone of a shallow repository is shallow.
+        File promisorFile = join(remoteGitlet, "promisor");
+        if (promisorFile.isFile()) {
+            copyPromisors(remoteGitlet, readContentsAsString(promisorFile).split("\n"));
+        } // Special case: a clone of a partial repository lacks the same Blobs.
+        return references;
+    }
+
+    /**
+     * Make the repository cloned from the partial repository with designated .gitlet directory
+     * a partial repository too. Its Blobs are asked first from the cloned repository, as "origin",
+     * then from each promisor remote of the cloned repository, added as "origin-[name]".
+     * A remote path is relative to the working directory of the cloned repository, so it is made absolute.
+     */
+    private static void copyPromisors(File remoteGitlet, String[] promisors) {
+        Promisor.addPromisor(CLONE_REMOTE_NAME);
+        File remoteWD = remoteGitlet.getAbsoluteFile().getParentFile();
+        for (String promisor : promisors) {
+            File remoteFile = join(remoteGitlet, "remotes", promisor);
+            if (promisor.isEmpty() || !remoteFile.isFile()) {
+                continue;
+            }
+            String location = readContentsAsString(remoteFile);
+            if (!NetworkRemote.isURL(location)) {
+                location = remoteWD.toPath().resolve(location).normalize().toString();
+            }
+            String remoteName = CLONE_REMOTE_NAME + "-" + promisor;
+            writeRemote(join(remotesDir(), remoteName), location);
+            Promisor.addPromisor(remoteName);
+        }
+    }
+
+    /**
+     * Copy the file or directory FROM to TO, skipping temporary files.
+     * Every file is copied as a whole and synced, which is sequential I/O.
+     * If LINK, the files are never modified (objects and packs), and are hard-linked instead where possible.
+     */
+    private static void copyFiles(File from, File to, boolean link) {
+        try (Stream<Path> paths = Files.walk(from.toPath())) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (!Files.isRegularFile(path) || path.getFileName().toString().startsWith(TEMP_PREFIX)) {
+                    continue;
+                } // Special case: skip directories, and files being written.
+                File target = to.toPath().resolve(from.toPath().relativize(path)).toFile();
+                target.getParentFile().mkdirs();
+                if (link && linkFile(path.toFile(), target)) {
+                    continue;
+                } // Special case: a link shares the contents, and only writes a directory entry.
+                Files.copy(path, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                syncFile(target);
+            }
+        } catch (IOException excp) {
+            throw error("Cannot copy %s: %s", from, excp.getMessage());
         }
-        Commit.recordCommitID(commitID);
     }
 
     /* PULL COMMAND */
@@ -307,6 +666,6 @@ public class Remote {
     public static void pull(String remoteName, String remoteBranchName) {
         fetch(remoteName, remoteBranchName);
         String localNewBranchName = remoteName + "/" + remoteBranchName;
-        Repository.merge(localNewBranchName);
+        Repository.merge(localNewBranchName, false);
     }
 }
@@ -0,0 +1,238 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Cache.getBlob;
+
+/**
+ * This class represents a rename or a copy of a path between two Trees, with the similarity of the contents,
+ * and houses the static methods that detect them among the changes of a diff (see TreeDiff).
+ *
+ * A path added in the new Tree is paired with a path removed from it (a rename), or with a modified path
+ * (a copy, if asked for). Exact renames are paired first, by Blob ID alone. The rest are paired by similarity:
+ * every content is cut into chunks (a line, or MAX_CHUNK characters of a longer one), and its fingerprint
+ * counts the characters per chunk hash. The similarity of two contents is the share of characters their
+ * fingerprints have in common, relative to the larger content. An index from chunk hashes to the sources
+ * holding them gives each added path its candidates, so only contents that share a chunk are ever compared,
+ * rather than every source with every added path. The chunks that too many sources hold (e.g. blank lines)
+ * are left out of the index, but still count towards the similarity.
+ * The best pairs of at least MIN_SIMILARITY percent are taken first, each added path at most once,
+ * and each removed path renamed at most once.
+ *
+ * @author XIE Changyuan
+ */
+public class Rename {
+
+    /** The least similarity, in percent, of a rename or a copy. */
+    static final int MIN_SIMILARITY = 50;
+    /** The largest number of characters of a chunk. */
+    private static final int MAX_CHUNK = 64;
+    /** The number of sources beyond which a chunk is too common to find candidates by. */
+    private static final int COMMON_CHUNK = 32;
+
+    /** The path in the old Tree. */
+    private final String _oldFileName;
+    /** The path in the new Tree. */
+    private final String _newFileName;
+    /** The similarity of the contents, in percent. */
+    private final int _similarity;
+    /** True if the old path is kept in the new Tree, false if it is removed. */
+    private final boolean _copy;
+
+    /** Construct the rename or the copy of a path. */
+    private Rename(String oldFileName, String newFileName, int similarity, boolean copy) {
+        _oldFileName = oldFileName;
+        _newFileName = newFileName;
+        _similarity = similarity;
+        _copy = copy;
+    }
+
+    String getOldFileName() {
+        return _oldFileName;
+    }
+    String getNewFileName() {
+        return _newFileName;
+    }
+    int getSimilarity() {
+        return _similarity;
+    }
+    boolean isCopy() {
+        return _copy;
+    }
+
+    @Override
+    public String toString() {
+        return _oldFileName + " -> " + _newFileName + " (" + (_copy ? "copy" : "rename") + " " + _similarity + "%)";
+    }
+
+    /* STATIC METHODS */
+
+    /**
+     * Detect the renames between the Trees with designated IDs, either of which may be null for an empty Tree.
+     * @return the new path - old path pairs of the renamed paths
+     */
+    static Map<String, String> renames(String oldTreeID, String newTreeID) {
+        Map<String, String> renames = new TreeMap<>();
+        for (Rename rename : detect(TreeDiff.diff(oldTreeID, newTreeID), false)) {
+            renames.put(rename._newFileName, rename._oldFileName);
+        }
+        return renames;
+    }
+
+    /**
+     * Detect the renames, and the copies if COPIES, among the changes of a diff.
+     * 1. Pair the added paths with the sources holding the same Blob
+     * 2. Fingerprint the contents of the remaining sources, and index them by chunk hash
+     * 3. Score every remaining added path against the sources sharing a chunk with it
+     * 4. Take the pairs from the most similar down, each added path once and each removed path renamed once
+     * @return the renames and copies, sorted by new path
+     */
+    static List<Rename> detect(List<TreeDiff> changes, boolean copies) {
+        List<TreeDiff> sources = new ArrayList<>();
+        List<TreeDiff> targets = new ArrayList<>();
+        for (TreeDiff change : changes) {
+            if (change.isAdded()) {
+                targets.add(change);
+            } else if (change.isRemoved() || copies) {
+                sources.add(change);
+            }
+        }
+        Map<String, Rename> found = new TreeMap<>();
+        if (targets.isEmpty() || sources.isEmpty()) {
+            return new ArrayList<>(found.values());
+        } // Special case: nothing to pair.
+        Set<String> renamed = new HashSet<>();
+
+        Map<String, List<TreeDiff>> sourcesByBlob = new LinkedHashMap<>();
+        for (TreeDiff source : sources) {
+            sourcesByBlob.computeIfAbsent(source.getOldBlobID(), k -> new ArrayList<>()).add(source);
+        }
+        for (TreeDiff target : targets) {
+            List<TreeDiff> sameBlob = sourcesByBlob.get(target.getNewBlobID());
+            if (sameBlob != null) {
+                pair(found, renamed, sameBlob, target, 100, copies);
+            }
+        } // Exact renames cost a lookup each, and need no content.
+
+        List<TreeDiff> restSources = new ArrayList<>();
+        for (TreeDiff source : sources) {
+            if (source.isModified() || !renamed.contains(source.getFileName())) {
+                restSources.add(source);
+            }
+        }
+        List<TreeDiff> restTargets = new ArrayList<>();
+        for (TreeDiff target : targets) {
+            if (!found.containsKey(target.getFileName())) {
+                restTargets.add(target);
+            }
+        }
+        if (restSources.isEmpty() || restTargets.isEmpty()) {
+            return new ArrayList<>(found.values());
+        } // Special case: every path is paired exactly.
+
+        List<Map<Integer, Integer>> fingerprints = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        Map<Integer, List<Integer>> index = new HashMap<>();
+        for (int i = 0; i < restSources.size(); i += 1) {
+            String content = getBlob(restSources.get(i).getOldBlobID()).getContent();
+            Map<Integer, Integer> fingerprint = fingerprint(content);
+            fingerprints.add(fingerprint);
+            sizes.add(content.length());
+            for (int chunk : fingerprint.keySet()) {
+                index.computeIfAbsent(chunk, k -> new ArrayList<>()).add(i);
+            }
+        }
+        List<int[]> scores = new ArrayList<>(); // {similarity, target, source}
+        for (int j = 0; j < restTargets.size(); j += 1) {
+            String content = getBlob(restTargets.get(j).getNewBlobID()).getContent();
+            Map<Integer, Integer> fingerprint = fingerprint(content);
+            Set<Integer> candidates = new HashSet<>();
+            for (int chunk : fingerprint.keySet()) {
+                List<Integer> holders = index.get(chunk);
+                if (holders != null && holders.size() <= COMMON_CHUNK) {
+                    candidates.addAll(holders);
+                }
+            }
+            for (int i : candidates) {
+                int larger = Math.max(sizes.get(i), content.length());
+                if (larger == 0 || 100L * Math.min(sizes.get(i), content.length()) < MIN_SIMILARITY * larger) {
+                    continue;
+                } // Special case: contents too different in size cannot be similar enough.
+                int similarity = (int) (100L * common(fingerprints.get(i), fingerprint) / larger);
+                if (similarity >= MIN_SIMILARITY) {
+                    scores.add(new int[]{similarity, j, i});
+                }
+            }
+        }
+        scores.sort((x, y) -> x[0] != y[0] ? Integer.compare(y[0], x[0])
+                : x[1] != y[1] ? Integer.compare(x[1], y[1]) : Integer.compare(x[2], y[2]));
+        for (int[] score : scores) {
+            TreeDiff target = restTargets.get(score[1]);
+            if (!found.containsKey(target.getFileName())) {
+                pair(found, renamed, List.of(restSources.get(score[2])), target, score[0], copies);
+            }
+        }
+        return new ArrayList<>(found.values());
+    }
+
+    /* HELPER METHODS */
+
+    /**
+     * Pair TARGET with the first of the CANDIDATES it can take: a removed path not renamed yet,
+     * or, if COPIES, any of them.
+     */
+    private static void pair(Map<String, Rename> found, Set<String> renamed, List<TreeDiff> candidates,
+                             TreeDiff target, int similarity, boolean copies) {
+        for (TreeDiff source : candidates) {
+            if (source.isRemoved() && renamed.add(source.getFileName())) {
+                found.put(target.getFileName(),
+                        new Rename(source.getFileName(), target.getFileName(), similarity, false));
+                return;
+            }
+        }
+        if (copies) {
+            found.put(target.getFileName(),
+                    new Rename(candidates.get(0).getFileName(), target.getFileName(), similarity, true));
+        } // Special case: a source already renamed, or kept in the new Tree, is copied.
+    }
+
+    /** Return the fingerprint of a content: the number of characters per chunk hash. */
+    private static Map<Integer, Integer> fingerprint(String content) {
+        Map<Integer, Integer> fingerprint = new HashMap<>();
+        int start = 0;
+        while (start < content.length()) {
+            int end = start;
+            while (end < content.length() && end - start < MAX_CHUNK && content.charAt(end) != '\n') {
+                end += 1;
+            }
+            if (end < content.length() && content.charAt(end) == '\n') {
+                end += 1;
+            } // A chunk ends after a line terminator, or after MAX_CHUNK characters.
+            fingerprint.merge(content.substring(start, end).hashCode(), end - start, Integer::sum);
+            start = end;
+        }
+        return fingerprint;
+    }
+
+    /** Return the number of characters two fingerprints have in common. */
+    private static long common(Map<Integer, Integer> a, Map<Integer, Integer> b) {
+        if (a.size() > b.size()) {
+            return common(b, a);
+        }
+        long common = 0;
+        for (Map.Entry<Integer, Integer> chunk : a.entrySet()) {
+            Integer other = b.get(chunk.getKey());
+            if (other != null) {
+                common += Math.min(chunk.getValue(), other);
+            }
+        }
+        return common;
+    }
+}
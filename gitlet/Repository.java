@@ -1,7 +1,10 @@
 package gitlet;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Set;
@@ -11,7 +14,10 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Comparator;
+import java.util.TreeMap;
 
 
 import static gitlet.Blob.currFileID;
@@ -28,56 +34,218 @@ import static gitlet.Utils.*;
  * methods in other classes correctly.
  * It also sets up persistence and do additional error checking.
  *
+ * An instance is one repository: its paths and its caches (see Cache).
+ * The static methods act on the repository bound to the calling thread, which Main binds
+ * to the working directory. A program serving many repositories runs each command on its own
+ * instance instead (see run()), so commands on different repositories run on different threads at once.
+ *
  * @author XIE Changyuan
  */
 public class Repository {
 
+    /** The repository bound to each thread, which the static methods act on. */
+    private static final ThreadLocal<Repository> CURRENT = new ThreadLocal<>();
+    // A list of files that should be ignored when
+    // counting untracked files or delete all CWD files.
+    static final List<String> DEBUG_CWD_FILES =
+            Arrays.asList("gitlet-design.md", "Makefile", "pom.xml");
+
+    /* INSTANCE VARIABLES */
+
     /**
-     * A list of commit IDs that have the designated commit message.
-     */
-    private static final List<String> FOUND_COMMIT_ID = new ArrayList<>();
-    /**
-     * The current working directory.
+     * The working directory.
      */
-    static File CWD;
+    private final File _cwd;
     /**
      * The .gitlet directory.
      */
-    static File GITLET_DIR;
+    private final File _gitletDir;
     /**
      * The HEAD file.
      */
-    static File HEAD;
+    private final File _head;
     /**
      * The STAGE file.
      */
-    static File STAGE;
+    private final File _stage;
     /**
      * The allCommitsID file.
      */
-    static File ALL_COMMITS_ID;
+    private final File _allCommitsID;
+    /**
+     * The shallow file, which lists the shallow boundaries (see Shallow).
+     */
+    private final File _shallow;
+    /**
+     * The promisor file, which lists the promisor remotes (see Promisor).
+     */
+    private final File _promisor;
+    /**
+     * The index file, which caches the stat of the working files (see StatIndex).
+     */
+    private final File _index;
+    /**
+     * The changed-paths file, which holds a Bloom filter of the changed paths per commit (see ChangedPaths).
+     */
+    private final File _changedPaths;
+    /**
+     * The commit-graph file, which holds the time and the parents of every commit (see CommitGraph).
+     */
+    private final File _commitGraph;
+    /**
+     * The blame directory, which caches the results of the blame command (see Blame).
+     */
+    private final File _blameDir;
     /**
      * The objects directory.
      */
-    static File OBJECTS_DIR;
+    private final File _objectsDir;
     /**
      * The branches directory.
      */
-    static File BRANCHES_DIR;
-    // A list of files that should be ignored when
-    // counting untracked files or delete all CWD files.
-    static final List<String> DEBUG_CWD_FILES =
-            Arrays.asList("gitlet-design.md", "Makefile", "pom.xml");
+    private final File _branchesDir;
+    /**
+     * The remotes directory.
+     */
+    private final File _remotesDir;
+    /**
+     * The cached references and caches of this repository (see Cache).
+     */
+    private Cache _cache = new Cache();
+
+    /**
+     * Make the repository whose working directory is CWD.
+     * Nothing is read until a command runs on it (see run()).
+     */
+    public Repository(File cwd) {
+        _cwd = cwd;
+        _gitletDir = join(cwd, ".gitlet");
+        _head = join(_gitletDir, "HEAD");
+        _stage = join(_gitletDir, "STAGE");
+        _allCommitsID = join(_gitletDir, "allCommitsID");
+        _shallow = join(_gitletDir, "shallow");
+        _promisor = join(_gitletDir, "promisor");
+        _index = join(_gitletDir, "index");
+        _changedPaths = join(_gitletDir, "changed-paths");
+        _commitGraph = join(_gitletDir, "commit-graph");
+        _blameDir = join(_gitletDir, "blame");
+        _objectsDir = join(_gitletDir, "objects");
+        _branchesDir = join(_gitletDir, "branches");
+        _remotesDir = join(_gitletDir, "remotes");
+    }
+
+    /**
+     * Run a COMMAND (e.g. `() -> Repository.commit("message")`) on this repository, on the calling thread.
+     * 1. Bind this repository to the thread, so that the static methods act on it
+     * 2. Replay an interrupted write back, run the command, and write back the caches
+     * 3. Restore whatever repository was bound before, even if the command fails
+     * Commands on different repositories run in parallel, while commands on the same repository
+     * run one at a time, like the requests of a Server.
+     */
+    public void run(Runnable command) {
+        synchronized (Journal.open(_gitletDir)) {
+            within(() -> {
+                recoverRepository();
+                command.run();
+                Cache.writeBack();
+            });
+        }
+    }
+
+    /** Run TASK with this repository bound to the calling thread, then restore the previous one. */
+    void within(Runnable task) {
+        Repository previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            task.run();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /* STATIC VARIABLES */
 
+    /** Bind a new repository whose working directory is CWD to the calling thread. */
     static void assignStaticVariables(File cwd) {
-        CWD = cwd;
-        GITLET_DIR = join(CWD, ".gitlet");
-        HEAD = join(GITLET_DIR, "HEAD");
-        STAGE = join(GITLET_DIR, "STAGE");
-        ALL_COMMITS_ID = join(GITLET_DIR, "allCommitsID");
-        OBJECTS_DIR = join(GITLET_DIR, "objects");
-        BRANCHES_DIR = join(GITLET_DIR, "branches");
-        REMOTES_DIR = join(GITLET_DIR, "remotes");
+        CURRENT.set(new Repository(cwd));
+    }
+
+    /** Return true if a repository is bound to the calling thread. */
+    static boolean isBound() {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * Return the repository bound to the calling thread.
+     * Throws a GitletException if there is none.
+     */
+    static Repository current() {
+        Repository repository = CURRENT.get();
+        if (repository == null) {
+            throw error("No repository is bound to this thread.");
+        }
+        return repository;
+    }
+
+    /** Return the cache of the repository bound to the calling thread. */
+    static Cache currCache() {
+        return current()._cache;
+    }
+
+    /** Drop the cache of the repository bound to the calling thread, if any. Used for testing purposes. */
+    static void resetCache() {
+        Repository repository = CURRENT.get();
+        if (repository != null) {
+            repository._cache = new Cache();
+        }
+    }
+
+    // The paths of the repository bound to the calling thread.
+    static File cwd() {
+        return current()._cwd;
+    }
+    static File gitletDir() {
+        return current()._gitletDir;
+    }
+    static File headFile() {
+        return current()._head;
+    }
+    static File stageFile() {
+        return current()._stage;
+    }
+    static File allCommitsIDFile() {
+        return current()._allCommitsID;
+    }
+    static File shallowFile() {
+        return current()._shallow;
+    }
+    static File promisorFile() {
+        return current()._promisor;
+    }
+    static File indexFile() {
+        return current()._index;
+    }
+    static File changedPathsFile() {
+        return current()._changedPaths;
+    }
+    static File commitGraphFile() {
+        return current()._commitGraph;
+    }
+    static File blameDir() {
+        return current()._blameDir;
+    }
+    static File objectsDir() {
+        return current()._objectsDir;
+    }
+    static File branchesDir() {
+        return current()._branchesDir;
+    }
+    static File remotesDir() {
+        return current()._remotesDir;
     }
 
     /* INIT COMMAND */
@@ -109,30 +277,25 @@ public class Repository {
         mkNewBranch("master");
         moveHEAD("master");
         mkNewStage();
-        writeObject(ALL_COMMITS_ID, new Tree());
+        writeObject(allCommitsIDFile(), new Tree());
     }
 
-    /**
-     * The remotes directory.
-     */
-    static File REMOTES_DIR;
-
     /* ADD COMMAND */
 
     /**
      * Set up the persistence directories.
      */
     static void setUpPersistence() throws IOException {
-        if (GITLET_DIR.exists()) {
+        if (gitletDir().exists()) {
             printAndExit(
                     "A Gitlet version-control system already exists in the current directory.");
         } // Special case: abort if already initialized.
-        BRANCHES_DIR.mkdirs();
-        OBJECTS_DIR.mkdirs();
-        REMOTES_DIR.mkdirs();
-        HEAD.createNewFile();
-        STAGE.createNewFile();
-        ALL_COMMITS_ID.createNewFile();
+        branchesDir().mkdirs();
+        objectsDir().mkdirs();
+        remotesDir().mkdirs();
+        headFile().createNewFile();
+        stageFile().createNewFile();
+        allCommitsIDFile().createNewFile();
     }
 
     /* COMMIT COMMAND */
@@ -146,7 +309,7 @@ public class Repository {
      */
     public static void add(String fileName) {
         assertGITLET();
-        File targetFile = join(CWD, fileName);
+        File targetFile = join(cwd(), fileName);
         if (!targetFile.exists()) {
             printAndExit("File does not exist.");
         } // Special case: abort if such file does not exist
@@ -213,17 +376,22 @@ public class Repository {
     /* GLOBAL-LOG COMMAND */
 
     /**
-     * Print log information about all commits ever made.
-     * 1. Get the allCommitsID Tree which holds all commits' IDs.
-     * 2. Print log information for each of the IDs.
+     * Print log information about all commits ever made, every commit before its parents.
+     * 1. Order the IDs of all commits with the commit-graph, which holds their times and parents (see CommitGraph)
+     * 2. Read each commit without caching it, and print its log information as soon as it is read
+     * Thus no commit is kept after it is printed, and the output starts before the last commit is read.
+     *
+     * @param topoOrder true to keep every line of history together, false to print the newest commits first
      */
-    public static void globalLog() {
+    public static void globalLog(boolean topoOrder) {
         assertGITLET();
-        Tree allCommitsID = getAllCommitsID();
-        for (String commitID : allCommitsID) {
-            Commit commit = getCommit(commitID);
-            System.out.println(commit.logString());
+        ObjectDatabase objects = currObjectDatabase();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+        for (String commitID : CommitGraph.sorted(topoOrder)) {
+            Commit commit = (Commit) objects.peek(commitID);
+            out.println(commit.logString());
         }
+        out.flush();
     }
 
     /* FIND COMMAND */
@@ -243,9 +411,43 @@ public class Repository {
           // null or already printed (useful for global-log command).
         Commit commit = getCommit(commitID);
         System.out.println(commit.logString());
+        if (Shallow.isShallow(commitID)) {
+            return;
+        } // Special case: the fetched history ends at a shallow boundary.
         log(commit.getParentCommitID());
     }
 
+    /**
+     * Execute the log -- [file name] command: print the log information of the commits on the
+     * first-parent chain of the head commit that changed the designated path, i.e. whose Blob of the path
+     * differs from the one of their parent (or, for a commit without a parent, that track the path).
+     * Special case: a commit whose changed-path filter does not hold the path (see ChangedPaths),
+     * or with the same Tree as its parent, changed nothing, and its Tree is not read.
+     *
+     * @param fileName the designated file name.
+     */
+    public static void logFile(String fileName) {
+        assertGITLET();
+        Commit commit = getLatestCommit();
+        while (commit != null) {
+            Commit parent = Shallow.isShallow(commit.id()) ? null : commit.getParentCommit();
+            boolean changed;
+            if (!ChangedPaths.mayHaveChanged(commit.id(), fileName)) {
+                changed = false;
+            } else if (parent == null) {
+                changed = commit.getBlobID(fileName) != null;
+            } else if (parent.getCommitTreeID().equals(commit.getCommitTreeID())) {
+                changed = false;
+            } else {
+                changed = !Objects.equals(parent.getBlobID(fileName), commit.getBlobID(fileName));
+            }
+            if (changed) {
+                System.out.println(commit.logString());
+            }
+            commit = parent;
+        }
+    }
+
     /**
      * Execute the find command.
      * 1. Get the allCommitsID Tree which holds all commits' IDs.
@@ -256,13 +458,14 @@ public class Repository {
     public static void find(String commitMessage) {
         assertGITLET();
         Tree allCommitsID = getAllCommitsID();
+        List<String> foundCommitIDs = new ArrayList<>();
         for (String commitID : allCommitsID) {
-            findCheck(commitID, commitMessage);
+            findCheck(commitID, commitMessage, foundCommitIDs);
         }
-        if (FOUND_COMMIT_ID.isEmpty()) {
+        if (foundCommitIDs.isEmpty()) {
             printAndExit("Found no commit with that message.");
         } // Special case: no such commit exists.
-        for (String commitID : FOUND_COMMIT_ID) {
+        for (String commitID : foundCommitIDs) {
             System.out.println(commitID);
         }
     }
@@ -272,11 +475,12 @@ public class Repository {
      *
      * @param commitID      the designated commit ID.
      * @param commitMessage the matching commit message.
+     * @param foundCommitIDs the list of commit IDs that have the designated commit message.
      */
-    private static void findCheck(String commitID, String commitMessage) {
+    private static void findCheck(String commitID, String commitMessage, List<String> foundCommitIDs) {
         Commit commit = getCommit(commitID);
         if (commit.getMessage().equals(commitMessage)) {
-            FOUND_COMMIT_ID.add(commitID);
+            foundCommitIDs.add(commitID);
         }
     }
 
@@ -388,7 +592,7 @@ public class Repository {
 
     // Return true if a file is not in CWD.
     static boolean notInCWD(String fileName) {
-        return !join(CWD, fileName).exists();
+        return !join(cwd(), fileName).exists();
     }
 
 
@@ -482,29 +686,35 @@ public class Repository {
 
     /**
      * A helper method that checkout to a Commit (with designated ID).
-     * 1. Delete all files in the CWD
-     * 2. Checkout all files tracked by that commit
-     * 3. Clean the staging area
+     * 1. Make the CWD match the files tracked by that commit, applying only the diff
+     *    from the files tracked by the head commit and the staging area (see Checkout)
+     * 2. Clean the staging area
      */
     static void checkoutToCommit(String commitID) {
-        if (!Cache.inRemoteRepo()) {
-            deleteCWDFiles();
-        }
-        checkoutAllCommitFile(commitID);
+        Commit commit = getCommit(commitID);
+        if (commit == null) {
+            printAndExit("No commit with that id exists.");
+        } // Special case: print and exit if requested a Commit that does not exist.
+        Checkout.checkout(currentTree(), commit.getCommitTree());
         mkNewStage();
     }
 
     /**
-     * A private helper method that checkout all files that a Commit (with designated ID) tracked.
+     * Return the Tree of the files the CWD should hold:
+     * the files tracked by the head commit, updated with the staging area.
      */
-    private static void checkoutAllCommitFile(String commitID) {
-        Commit commit = getCommit(commitID);
-        if (commit == null) {
-            printAndExit("No commit with that id exists.");
-        } // Special case: print and exit if requested a Commit that does not exist.
-        for (String fileName : commit.trackedFiles()) {
-            checkoutCommitFile(commit, fileName);
-        }
+    static Tree currentTree() {
+        Commit headCommit = getLatestCommit();
+        if (headCommit == null) {
+            return null;
+        } // Special case: there is no head commit.
+        Tree stage = getStage();
+        if (stage == null || stage.isEmpty()) {
+            return headCommit.getCommitTree();
+        } // Special case: without staged changes, keep the head commit's Tree to diff it by ID.
+        Tree tree = new Tree(headCommit.getCommitTree());
+        tree.updateWith(stage);
+        return tree;
     }
 
     /**
@@ -544,7 +754,7 @@ public class Repository {
      */
     public static void rmBranch(String branchName) {
         assertGITLET();
-        File targetBranch = join(BRANCHES_DIR, branchName);
+        File targetBranch = join(branchesDir(), branchName);
         if (!targetBranch.exists()) {
             printAndExit("A branch with that name does not exist.");
         } // Special case: abort if a branch with the given name does not exist
@@ -586,58 +796,96 @@ public class Repository {
      * Execute the merge command (merge files from the given branch into the current branch).
      * 1. Get the latest Commit object of the current branch,
      *    the given branch, and the common ancestors (split commit).
-     * 2. Calculate which files will be changed in what manners, and perform checks.
+     * 2. Perform checks, and fast-forward if the split commit is the current commit.
+     *    Otherwise, calculate which files will be changed in what manners, and perform checks.
      * 3. Modify the CWD following the result from step 2,
      *    staging for addition or removal as we go.
      * 4. Make a merge commit.
      * @param branchName the designated branch.
      */
     public static void merge(String branchName) {
+        merge(branchName, true);
+    }
+
+    /**
+     * Execute the merge command, as above.
+     * @param reportFastForward whether to print that the current branch is fast-forwarded,
+     *                          which the pull command does not
+     */
+    static void merge(String branchName, boolean reportFastForward) {
         assertGITLET();
         String currCommitID = getLatestCommitID();
         String otherCommitID = getBranch(branchName);
         Commit currCommit = getCommit(currCommitID);
         Commit otherCommit = getCommit(otherCommitID);
         Commit splitCommit = lca(currCommit, otherCommit);
+        if (splitCommit == null && otherCommit != null) {
+            printAndExit("The split point is beyond the shallow history; fetch with a larger --depth.");
+        } // Special case: abort if the common ancestor was not fetched.
+        mergeChecks1(splitCommit, currCommit, otherCommit);
+        if (Objects.equals(splitCommit.id(), currCommit.id())) {
+            fastForward(otherCommit, reportFastForward);
+            return;
+        } // Special case: fast-forward if the split point is the same commit as the current branch.
+        Map<String, String> renames = mergeRenames(splitCommit, currCommit, otherCommit);
         Map<String, Set<String>> mergeModifications =
-                mergeWillModify(splitCommit, currCommit, otherCommit);
-        mergeModifyCWD(currCommit, otherCommit, mergeModifications);
-        Boolean conflicted = !mergeModifications.get("conflict").isEmpty();
+                mergeWillModify(splitCommit, currCommit, otherCommit, renames);
+        Boolean conflicted = mergeModifyCWD(splitCommit, currCommit, otherCommit, renames, mergeModifications);
         mkMergeCommit(branchName, conflicted);
     }
 
     /**
      * Modify files in the CWD (either use the version in the other branch,
-     * or make a conflict file) accordingly.
+     * or merge the changes of both branches) accordingly.
+     * @param renames the new path - split path pairs of the paths renamed by either branch
+     * @return true if any file is left with a conflict
      */
-    private static void mergeModifyCWD(Commit curr,
-                                       Commit other,
-                                       Map<String, Set<String>> mergeModifications) {
+    private static boolean mergeModifyCWD(Commit split,
+                                          Commit curr,
+                                          Commit other,
+                                          Map<String, String> renames,
+                                          Map<String, Set<String>> mergeModifications) {
         Set<String> useOtherFiles = mergeModifications.get("other");
         Set<String> conflictFiles = mergeModifications.get("conflict");
         useOther(useOtherFiles, other);
-        makeConflict(conflictFiles, curr, other);
+        return makeConflict(conflictFiles, split, curr, other, renames);
     }
 
     /**
-     * Modify all conflict files and add them to the stage.
+     * Merge the changes of both branches to all files changed in both, and add them to the stage.
+     * @return true if any file is left with a conflict
      */
-    private static void makeConflict(Set<String> files, Commit curr, Commit other) {
+    private static boolean makeConflict(Set<String> files, Commit split, Commit curr, Commit other,
+                                        Map<String, String> renames) {
+        boolean conflicted = false;
         for (String fileName : files) {
-            File file = join(CWD, fileName);
-            String conflictContent = makeConflictContent(fileName, curr, other);
-            writeContents(file, conflictContent);
+            File file = join(cwd(), fileName);
+            LineMerge merged = makeConflictContent(fileName, split, curr, other, renames);
+            writeContents(file, merged.getContent());
             add(fileName);
+            conflicted = conflicted || merged.isConflicted();
         }
+        return conflicted;
     }
 
     /**
-     * Return the right content for a conflict file after merging.
+     * Return the right content for a file changed in both branches after merging:
+     * the changes that do not overlap are merged line by line (see LineMerge),
+     * and only the lines both branches changed differently are left as a conflict.
+     * A renamed file is merged with its version at the split path in the split commit,
+     * and in the branch that did not rename it.
      */
-    private static String makeConflictContent(String fileName, Commit curr, Commit other) {
-        String currContent = curr.getFileContent(fileName);
-        String otherContent = other.getFileContent(fileName);
-        return "<<<<<<< HEAD\n" + currContent + "=======\n" + otherContent + ">>>>>>>\n";
+    private static LineMerge makeConflictContent(String fileName, Commit split, Commit curr, Commit other,
+                                                 Map<String, String> renames) {
+        String splitName = renames.getOrDefault(fileName, fileName);
+        String currName = curr.trackedFile(fileName) ? fileName : splitName;
+        String otherName = other.trackedFile(fileName) ? fileName : splitName;
+        String currContent = curr.getFileContent(currName);
+        String otherContent = other.getFileContent(otherName);
+        if (!curr.trackedFile(currName) || !other.trackedFile(otherName)) {
+            return LineMerge.conflict(currContent, otherContent);
+        } // Special case: a file deleted in one branch and changed in the other conflicts as a whole.
+        return LineMerge.merge(split.getFileContent(splitName), currContent, otherContent);
     }
 
     /**
@@ -648,7 +896,7 @@ public class Repository {
      */
     private static void useOther(Set<String> files, Commit other) {
         for (String fileName : files) {
-            File file = join(CWD, fileName);
+            File file = join(cwd(), fileName);
             Blob otherFileBlob = getBlob(other.getBlobID(fileName));
             if (otherFileBlob == null) { // the file is removed in the other branch.
                 rm(fileName);
@@ -669,14 +917,8 @@ public class Repository {
      * "conflict" maps to a List of files that is conflicted.
      */
     private static Map<String, Set<String>> mergeWillModify(
-            Commit split, Commit curr, Commit other) {
-        mergeChecks1(split, curr, other);
-        Set<String> mergeFocusFiles = combineSets(
-                split.trackedFiles(),
-                curr.trackedFiles(),
-                other.trackedFiles());
-        Map<String, Set<String>> mergeWillModify =
-                mergeLogic(mergeFocusFiles, split, curr, other);
+            Commit split, Commit curr, Commit other, Map<String, String> renames) {
+        Map<String, Set<String>> mergeWillModify = mergeLogic(split, curr, other, renames);
         Set<String> changingFiles =
                 combineSets(mergeWillModify.get("other"), mergeWillModify.get("conflict"));
         mergeChecks2(changingFiles);
@@ -685,28 +927,121 @@ public class Repository {
 
     /**
      * A private helper method that captures the logic of the merge command.
+     * The sorted entries of the three Trees are walked in one merge-join pass,
+     * so every file is classified from the three Blob IDs at hand, without looking it up in any Tree.
+     * Files on which the current and the other commit agree need nothing, and are skipped.
+     * Then the edits of one branch to a file the other branch renamed are carried to the new path.
      */
-    private static Map<String, Set<String>> mergeLogic(
-            Set<String> focusFiles, Commit split, Commit curr, Commit other) {
+    static Map<String, Set<String>> mergeLogic(Commit split, Commit curr, Commit other,
+                                               Map<String, String> renames) {
         Map<String, Set<String>> map = new HashMap<>();
-        map.put("other", new HashSet<>());
-        map.put("conflict", new HashSet<>());
-        for (String file : focusFiles) {
-            String splitVer = split.getBlobID(file);
-            String currVer = curr.getBlobID(file);
-            String otherVer = other.getBlobID(file);
+        map.put("other", new LinkedHashSet<>());
+        map.put("conflict", new LinkedHashSet<>());
+        String splitTreeID = split.getCommitTreeID();
+        String currTreeID = curr.getCommitTreeID();
+        String otherTreeID = other.getCommitTreeID();
+        if (otherTreeID.equals(splitTreeID) || otherTreeID.equals(currTreeID)) {
+            return map;
+        } // Special case: the other commit brings no change.
+        if (currTreeID.equals(splitTreeID)) {
+            for (TreeDiff change : TreeDiff.diff(splitTreeID, otherTreeID)) {
+                map.get("other").add(change.getFileName());
+            }
+            return map;
+        } // Special case: the current commit changed nothing, every change of the other commit is taken.
+        List<Iterator<Map.Entry<String, String>>> trees = List.of(
+                TreeDiff.entries(getTree(splitTreeID)),
+                TreeDiff.entries(getTree(currTreeID)),
+                TreeDiff.entries(getTree(otherTreeID)));
+        List<Map.Entry<String, String>> heads = new ArrayList<>();
+        for (Iterator<Map.Entry<String, String>> tree : trees) {
+            heads.add(TreeDiff.next(tree));
+        }
+        while (true) {
+            String file = null;
+            for (Map.Entry<String, String> head : heads) {
+                if (head != null && (file == null || head.getKey().compareTo(file) < 0)) {
+                    file = head.getKey();
+                }
+            }
+            if (file == null) {
+                break;
+            } // All three Trees are exhausted.
+            String[] versions = new String[3]; // The split, current and other versions, null if not tracked.
+            for (int i = 0; i < 3; i += 1) {
+                Map.Entry<String, String> head = heads.get(i);
+                if (head != null && head.getKey().equals(file)) {
+                    versions[i] = head.getValue();
+                    heads.set(i, TreeDiff.next(trees.get(i)));
+                }
+            }
+            String splitVer = versions[0];
+            String currVer = versions[1];
+            String otherVer = versions[2];
+            if (Objects.equals(currVer, otherVer)) {
+                continue;
+            } // Do nothing if both versions are the same.
             if (Objects.equals(splitVer, currVer)) {
                 map.get("other").add(file);
-            } else if (!Objects.equals(splitVer, otherVer)
-                    && !Objects.equals(currVer, otherVer)) {
+            } else if (!Objects.equals(splitVer, otherVer)) {
                 map.get("conflict").add(file);
             }
             // Do nothing if Objects.equals(splitVer, otherVer)
-            // or Objects.equals(currVer, otherVer)
+        }
+        for (Map.Entry<String, String> rename : renames.entrySet()) {
+            String newName = rename.getKey();
+            String splitName = rename.getValue();
+            String splitVer = split.getBlobID(splitName);
+            String currVer = curr.getBlobID(splitName);
+            String otherVer = other.getBlobID(splitName);
+            if (otherVer == null && other.trackedFile(newName) && currVer != null && !curr.trackedFile(newName)
+                    && !currVer.equals(splitVer)) {
+                map.get("conflict").remove(splitName);
+                map.get("other").add(splitName);
+                map.get("other").remove(newName);
+                map.get("conflict").add(newName);
+            } // The other branch renamed a file the current branch edited: remove it, and merge the new path.
+            if (currVer == null && curr.trackedFile(newName) && otherVer != null && !other.trackedFile(newName)
+                    && !otherVer.equals(splitVer)) {
+                map.get("conflict").remove(splitName);
+                map.get("conflict").add(newName);
+            } // The current branch renamed a file the other branch edited: keep it removed, and merge the new path.
         }
         return map;
     }
 
+    /**
+     * Return the paths renamed by either branch since the split commit (see Rename),
+     * as new path - split path pairs. A path the branches renamed to different paths is left out.
+     * Special case: no rename needs to be carried if only one branch changed anything.
+     */
+    private static Map<String, String> mergeRenames(Commit split, Commit curr, Commit other) {
+        String splitTreeID = split.getCommitTreeID();
+        String currTreeID = curr.getCommitTreeID();
+        String otherTreeID = other.getCommitTreeID();
+        Map<String, String> renames = new TreeMap<>();
+        if (currTreeID.equals(splitTreeID) || otherTreeID.equals(splitTreeID) || otherTreeID.equals(currTreeID)) {
+            return renames;
+        }
+        Map<String, String> currRenames = Rename.renames(splitTreeID, currTreeID);
+        Map<String, String> otherRenames = Rename.renames(splitTreeID, otherTreeID);
+        Set<String> renamedTwice = new HashSet<>();
+        for (Map.Entry<String, String> rename : currRenames.entrySet()) {
+            if (otherRenames.containsValue(rename.getValue())
+                    && !rename.getValue().equals(otherRenames.get(rename.getKey()))) {
+                renamedTwice.add(rename.getValue());
+            }
+        } // Special case: a rename/rename conflict is left to the plain merge of both paths.
+        for (Map<String, String> sideRenames : List.of(currRenames, otherRenames)) {
+            for (Map.Entry<String, String> rename : sideRenames.entrySet()) {
+                if (!renamedTwice.contains(rename.getValue())) {
+                    renames.put(rename.getKey(), rename.getValue());
+                }
+            }
+        }
+        return renames;
+    }
+
     /**
      * Perform checks for the merge command.
      */
@@ -724,21 +1059,27 @@ public class Repository {
             printAndExit("Given branch is an ancestor of the current branch.");
         } // Exit if the split point is the same commit as the given branch.
           // The merge is complete.
-        if (Objects.equals(split.id(), curr.id())) {
-            fastForward(other);
-            System.exit(0);
-        } // Fast-forward and exit if the split point is the same commit as the current branch.
     }
 
     /**
      * Fast-forward the current branch to the designated commit and print information.
      * Only called when the split commit is the same as the current commit.
+     * Only the files that differ between the two commits are touched (see Checkout),
+     * and the changes are written back like any other command.
      */
-    private static void fastForward(Commit other) {
+    private static void fastForward(Commit other, boolean report) {
         String commitID = other.id();
+        List<String> untrackedFiles = untrackedFiles();
+        for (TreeDiff change : TreeDiff.diff(getLatestCommit().getCommitTreeID(), other.getCommitTreeID())) {
+            if (untrackedFiles.contains(change.getFileName())) {
+                printAndExit(
+                        "There is an untracked file in the way; "
+                                + "delete it, or add and commit it first.");
+            } // Abort if an untracked file would be overwritten or deleted by the fast-forward.
+        }
         checkoutToCommit(commitID);
         moveCurrBranch(commitID);
-        if (!Main.currCommand.equals("pull")) {
+        if (report) {
             System.out.println("Current branch fast-forwarded.");
         } // Special case: do not print fast-forward when pulling.
     }
@@ -770,12 +1111,22 @@ public class Repository {
     /**
      * Assert the CWD contains a .gitlet directory.
      */
-    private static void assertGITLET() {
-        if (!GITLET_DIR.exists()) {
+    static void assertGITLET() {
+        if (!gitletDir().exists()) {
             printAndExit("Not in an initialized Gitlet directory.");
         }
     }
 
+    /**
+     * Replay an interrupted write back of the repository in the CWD, if any.
+     * Invoked at start-up, before any reference is read.
+     */
+    static void recoverRepository() {
+        if (gitletDir().exists()) {
+            Journal.open(gitletDir()).recover();
+        }
+    }
+
     /**
      * Overwrite the file in CWD of designated file name with the content in the given Blob object.
      *
@@ -784,7 +1135,7 @@ public class Repository {
      */
     private static void overwriteCWDFile(String fileName, Blob overwriteSrc) {
         String overwriteContent = overwriteSrc.getContent();
-        File file = join(CWD, fileName);
+        File file = join(cwd(), fileName);
         writeContents(file, overwriteContent);
     }
 
@@ -800,14 +1151,17 @@ public class Repository {
     /**
      * Delete all files in the CWD.
      */
+    @SuppressWarnings("try")
     static void deleteCWDFiles() {
-        Set<String> files = cwdFilesSet();
-        for (String fileName : files) {
-            if (DEBUG_CWD_FILES.contains(fileName)) {
-                continue;
-            } // Ignore development files
-            File file = join(CWD, fileName);
-            file.delete();
+        try (Trace.Phase phase = Trace.phase("deleteCWDFiles")) {
+            Set<String> files = cwdFilesSet();
+            for (String fileName : files) {
+                if (DEBUG_CWD_FILES.contains(fileName)) {
+                    continue;
+                } // Ignore development files
+                File file = join(cwd(), fileName);
+                file.delete();
+            }
         }
     }
 
@@ -815,7 +1169,7 @@ public class Repository {
      * Return a Set of all files' names in the CWD.
      */
     private static Set<String> cwdFilesSet() {
-        List<String> cwdFilesList = plainFilenamesIn(CWD);
+        List<String> cwdFilesList = plainFilenamesIn(cwd());
         if (cwdFilesList == null) {
             return new TreeSet<>();
         }
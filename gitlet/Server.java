@@ -0,0 +1,453 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import static gitlet.Utils.*;
+
+/**
+ * This class represents a Gitlet server, which serves the repositories under a root directory
+ * to remotes designated by gitlet://host:port/path URLs (see NetworkRemote).
+ * The server accepts connections on a ServerSocketChannel, and serves each connection
+ * on a thread of a pool over a blocking channel (see Connection). Requests on the same
+ * repository are served one at a time, while requests on different repositories run in parallel.
+ * The server has no authentication: anyone who can reach the port can push.
+ * Hence it listens on the loopback interface only, unless all interfaces are asked for explicitly.
+ *
+ * A conversation:
+ * 1. The client sends the request "upload-pack PATH" (fetch), "receive-pack PATH" (push)
+ *    or "upload-objects PATH" (faulting in objects left out by a partial fetch, see Promisor)
+ * 2. The server advertises its references: "HEAD BRANCH", then one "ID BRANCH" line per branch
+ * 3. upload-pack: the client sends "want ID" lines, with "deepen DEPTH" for a shallow fetch,
+ *    "filter blob:none" for a partial fetch and "shallow ID" lines for its own shallow boundaries,
+ *    then rounds of "have ID" lines,
+ *    each round answered by "ACK ID" lines for the commits the server has, then "done".
+ *    The server sends the new shallow boundaries of the client as "shallow ID" lines, lists the objects of the commits to send ("commit ID" or "object ID"),
+ *    the client answers with "need ID" lines, and the server sends a pack of the needed objects.
+ * 4. receive-pack: the client lists the objects of the commits to push, the server answers with
+ *    "need ID" lines, the client sends a pack of the needed objects, then
+ *    "update BRANCH OLD_ID NEW_ID". The server answers "ok", or "error MESSAGE" if the branch
+ *    is no longer at OLD_ID.
+ * 5. upload-objects: the client sends "want ID" lines, and the server lists and sends
+ *    those of the objects it has, like upload-pack.
+ * Any failure is reported to the client as "error MESSAGE".
+ * Every object ID read from the other end must be a full ID (see objectID()) before it reaches
+ * an object database, which makes paths of the IDs.
+ *
+ * @author XIE Changyuan
+ */
+public class Server {
+
+    /** The port the server listens on if none is given. */
+    static final int DEFAULT_PORT = 7878;
+    /** The number of connections served at once. */
+    private static final int WORKERS = 8;
+    /** A full object ID, the only form of ID accepted from the other end. */
+    private static final Pattern OBJECT_ID = Pattern.compile("[0-9a-f]{" + UID_LENGTH + "}");
+
+    /** The root directory of the served repositories. */
+    private final Path _root;
+    /** The listening channel. */
+    private final ServerSocketChannel _channel;
+    /** The threads serving the connections. */
+    private final ExecutorService _workers;
+    /** The thread accepting connections. */
+    private final Thread _acceptor;
+    /** The locks serializing the requests on each repository, keyed by its .gitlet directory. */
+    private final ConcurrentMap<File, Object> _repositoryLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Construct a server listening on CHANNEL.
+     * This method is `private` since servers should be obtained from start().
+     */
+    private Server(File root, ServerSocketChannel channel) {
+        _root = root.getAbsoluteFile().toPath().normalize();
+        _channel = channel;
+        _workers = Executors.newFixedThreadPool(WORKERS, runnable -> {
+            Thread thread = new Thread(runnable, "gitlet-server-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        _acceptor = new Thread(this::acceptLoop, "gitlet-server");
+    }
+
+    /**
+     * Start a server of the repositories under ROOT, listening on PORT of the loopback interface,
+     * or of all interfaces if ALLINTERFACES. A PORT of 0 picks a free port (see port()).
+     * Throws a GitletException if the port cannot be listened on.
+     */
+    static Server start(File root, int port, boolean allInterfaces) {
+        try {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            channel.bind(allInterfaces
+                    ? new InetSocketAddress(port) : new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            Server server = new Server(root, channel);
+            server._acceptor.start();
+            return server;
+        } catch (IOException excp) {
+            throw error("Cannot listen on port %d: %s", port, excp.getMessage());
+        }
+    }
+
+    /** Return the port the server listens on. */
+    int port() {
+        return _channel.socket().getLocalPort();
+    }
+
+    /** Stop accepting connections. Connections being served are left to finish. */
+    void close() {
+        try {
+            _channel.close();
+        } catch (IOException excp) {
+            // Closing is best effort.
+        }
+        _workers.shutdown();
+    }
+
+    /**
+     * Execute the serve command: serve the repositories under ROOT on PORT until killed,
+     * on all interfaces if ALLINTERFACES, otherwise on the loopback interface only.
+     */
+    static void serve(File root, int port, boolean allInterfaces) {
+        Server server = start(root, port, allInterfaces);
+        System.out.println("Serving " + root + " on port " + server.port() + ".");
+        try {
+            server._acceptor.join();
+        } catch (InterruptedException excp) {
+            server.close();
+        }
+    }
+
+    /* HELPER METHODS */
+
+    /** Accept connections and hand them to the workers until the server is closed. */
+    private void acceptLoop() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = _channel.accept();
+            } catch (ClosedChannelException excp) {
+                return;
+            } catch (IOException excp) {
+                continue;
+            }
+            _workers.execute(() -> serveConnection(channel));
+        }
+    }
+
+    /** Serve one request on CHANNEL, reporting any failure to the client. */
+    private void serveConnection(SocketChannel channel) {
+        try (Connection connection = new Connection(channel)) {
+            try {
+                String[] request = split(connection.readLine());
+                connection.readLine(); // The flush ending the request.
+                File gitletDir = repository(request[1]);
+                synchronized (_repositoryLocks.computeIfAbsent(gitletDir, dir -> new Object())) {
+                    Remote repository = new Remote(gitletDir);
+                    advertise(connection, repository);
+                    switch (request[0]) {
+                        case "upload-pack" -> uploadPack(connection, repository);
+                        case "receive-pack" -> receivePack(connection, repository);
+                        case "upload-objects" -> uploadObjects(connection, repository);
+                        default -> throw error("Protocol error: unknown request %s.", request[0]);
+                    }
+                }
+            } catch (GitletException excp) {
+                connection.writeLine("error " + excp.getMessage());
+                connection.writeFlush();
+            } catch (RuntimeException excp) {
+                connection.writeLine("error Internal server error: " + excp);
+                connection.writeFlush();
+            } // Special case: a bug must not kill the worker and leave the client waiting.
+        } catch (GitletException excp) {
+            // The client is gone, there is nobody to report to.
+        }
+    }
+
+    /**
+     * Return the .gitlet directory of the repository at PATH under the root.
+     * Throws a GitletException if there is no such repository, or PATH leads out of the root.
+     */
+    private File repository(String path) {
+        Path workingDir = _root.resolve(path).normalize();
+        File gitletDir = workingDir.resolve(".gitlet").toFile();
+        if (!workingDir.startsWith(_root) || !gitletDir.isDirectory()) {
+            throw error("Remote directory not found.");
+        } // Special case: refuse paths like "../other" that escape the served root.
+        return gitletDir;
+    }
+
+    /** Advertise HEAD and the branches of REPOSITORY. */
+    private static void advertise(Connection connection, Remote repository) {
+        connection.writeLine("HEAD " + repository.getHEAD());
+        for (String branchName : repository.branchNames()) {
+            connection.writeLine(repository.getBranch(branchName) + " " + branchName);
+        }
+        connection.writeFlush();
+    }
+
+    /**
+     * Serve a fetch.
+     * 1. Read the wanted commits, the depth, the filter and the shallow boundaries of the client
+     * 2. Answer the rounds of haves with the commits REPOSITORY has in common with the client
+     * 3. Send the new shallow boundaries of the client
+     * 4. Send the objects of the commits reachable from the wanted ones but not from the common ones
+     *    (see CommitWalk), restricted to those the client needs
+     */
+    private static void uploadPack(Connection connection, Remote repository) {
+        List<String> wants = new ArrayList<>();
+        List<String> shallow = new ArrayList<>();
+        int depth = CommitWalk.INFINITE_DEPTH;
+        boolean blobs = true;
+        for (String line = connection.readLine(); line != null; line = connection.readLine()) {
+            String[] words = split(line);
+            switch (words[0]) {
+                case "want" -> {
+                    objectID(words[1]);
+                    if (repository.getCommit(words[1]) == null) {
+                        throw error("No commit with id %s exists.", words[1]);
+                    }
+                    wants.add(words[1]);
+                }
+                case "deepen" -> depth = parseDepth(words[1]);
+                case "filter" -> {
+                    if (!words[1].equals(Promisor.BLOB_NONE)) {
+                        throw error("Protocol error: unknown filter %s.", words[1]);
+                    }
+                    blobs = false;
+                }
+                case "shallow" -> shallow.add(objectID(words[1]));
+                default -> throw error("Protocol error: unexpected %s.", line);
+            }
+        }
+        if (wants.isEmpty()) {
+            return;
+        } // Special case: the client is up to date.
+        Set<String> common = new HashSet<>();
+        while (true) {
+            String line = connection.readLine();
+            if (line == null) {
+                connection.writeFlush();
+                continue;
+            } // Special case: the end of a round.
+            if (line.equals("done")) {
+                connection.readLine();
+                break;
+            }
+            String id = objectID(argument(line, "have"));
+            if (repository.objects().contains(id)) {
+                common.add(id);
+                connection.writeLine("ACK " + id);
+            }
+        }
+        CommitWalk walk = new CommitWalk(repository.objects());
+        walk.setDepth(depth);
+        for (String id : shallow) {
+            walk.markShallow(id);
+        }
+        for (String id : wants) {
+            walk.markInteresting(id);
+        }
+        for (String id : common) {
+            walk.markUninteresting(id);
+        }
+        Set<String> commitIDs = walk.run();
+        for (String id : walk.boundaries()) {
+            connection.writeLine("shallow " + id);
+        }
+        connection.writeFlush();
+        sendObjects(connection, repository.objects(), commitIDs, blobs);
+    }
+
+    /**
+     * Serve the objects left out by a partial fetch.
+     * 1. Read the wanted objects
+     * 2. Send those REPOSITORY has, restricted to those the client needs
+     */
+    private static void uploadObjects(Connection connection, Remote repository) {
+        Set<String> objectIDs = new LinkedHashSet<>();
+        for (String line = connection.readLine(); line != null; line = connection.readLine()) {
+            String id = objectID(argument(line, "want"));
+            if (repository.objects().contains(id)) {
+                objectIDs.add(id);
+            }
+        }
+        offerObjects(connection, repository.objects(), objectIDs, Set.of(), new HashMap<>());
+    }
+
+    /**
+     * Serve a push.
+     * 1. Answer the listed objects with those REPOSITORY needs, and receive them as a pack
+     * 2. Move the branch if it is still where the client saw it, and check it out,
+     *    refusing branch and file names that would resolve out of the repository
+     */
+    private static void receivePack(Connection connection, Remote repository) {
+        Set<String> commitIDs = receiveObjects(connection, repository.objects());
+        String line = connection.readLine();
+        String[] update = line == null ? new String[0] : line.split(" ");
+        connection.readLine();
+        if (update.length != 4 || !update[0].equals("update")) {
+            throw error("Protocol error: bad update.");
+        }
+        objectID(update[2]);
+        objectID(update[3]);
+        String branchName = update[1];
+        if (!Branch.isValidName(branchName)) {
+            throw error("Invalid branch name: %s", branchName);
+        } // Special case: the name becomes a path under the branches folder.
+        String current = repository.existBranch(branchName)
+                ? repository.getBranch(branchName) : repository.getBranch(repository.getHEAD());
+        if (!current.equals(update[2])) {
+            throw error("Please pull down remote changes before pushing.");
+        } // Special case: the branch moved since the client read the advertisement.
+        if (repository.getCommit(update[3]) == null) {
+            throw error("No commit with id %s exists.", update[3]);
+        }
+        repository.checkFileNames(update[3]);
+        repository.recordCommitIDs(commitIDs);
+        Remote.pushReset(repository, update[3], branchName);
+        connection.writeLine("ok");
+        connection.writeFlush();
+    }
+
+    /**
+     * List the objects of the commits with designated IDs, together with their Trees and (if BLOBS) Blobs,
+     * and send a pack of those the other end needs. Used by both ends of a conversation.
+     */
+    static void sendObjects(Connection connection, ObjectDatabase from, Set<String> commitIDs, boolean blobs) {
+        Map<String, String> deltaBases = new HashMap<>();
+        Set<String> candidates = Remote.missingObjects(from, id -> false, commitIDs, blobs, deltaBases);
+        offerObjects(connection, from, candidates, commitIDs, deltaBases);
+    }
+
+    /**
+     * List the candidate objects, labelling the commits with designated IDs,
+     * and send a pack of those the other end needs.
+     * The objects paired in DELTA_BASES are sent as deltas.
+     */
+    private static void offerObjects(Connection connection, ObjectDatabase from, Set<String> candidates,
+                                     Set<String> commitIDs, Map<String, String> deltaBases) {
+        for (String id : candidates) {
+            connection.writeLine((commitIDs.contains(id) ? "commit " : "object ") + id);
+        }
+        connection.writeFlush();
+        Set<String> needs = new HashSet<>();
+        for (String line = NetworkRemote.readLine(connection); line != null;
+             line = NetworkRemote.readLine(connection)) {
+            needs.add(argument(line, "need"));
+        }
+        if (needs.isEmpty()) {
+            return;
+        } // Special case: the other end has everything already.
+        List<String> ids = new ArrayList<>();
+        for (String id : candidates) {
+            if (needs.contains(id)) {
+                ids.add(id);
+            }
+        } // Keep the order of the candidates, which puts every delta base before its deltas.
+        Promisor.prefetch(from, ids);
+        try {
+            PackFile.write(connection.out(), from, ids, deltaBases);
+        } catch (IOException excp) {
+            throw error("Connection lost: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Answer the objects listed by the other end with those the designated object database needs,
+     * and receive them as a pack. Used by both ends of a conversation.
+     * @return the IDs of the listed commits
+     */
+    static Set<String> receiveObjects(Connection connection, ObjectDatabase to) {
+        Set<String> commitIDs = new HashSet<>();
+        boolean needsAny = false;
+        for (String line = NetworkRemote.readLine(connection); line != null;
+             line = NetworkRemote.readLine(connection)) {
+            String[] words = split(line);
+            objectID(words[1]);
+            if (words[0].equals("commit")) {
+                commitIDs.add(words[1]);
+            } else if (!words[0].equals("object")) {
+                throw error("Protocol error: unexpected %s.", line);
+            }
+            if (!to.contains(words[1])) {
+                connection.writeLine("need " + words[1]);
+                needsAny = true;
+            }
+        }
+        connection.writeFlush();
+        if (needsAny) {
+            to.receivePack(connection.in());
+        }
+        return commitIDs;
+    }
+
+    /**
+     * Parse the depth of a "deepen" line.
+     * Throws a GitletException if it is not a positive number.
+     */
+    private static int parseDepth(String depth) {
+        try {
+            int result = Integer.parseInt(depth);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            // Reported below.
+        }
+        throw error("Protocol error: bad depth %s.", depth);
+    }
+
+    /**
+     * Return ID, an object ID read from the other end.
+     * Throws a GitletException if it is not a full ID, so that it cannot name a path out of the objects folder.
+     */
+    static String objectID(String id) {
+        if (!OBJECT_ID.matcher(id).matches()) {
+            throw error("Protocol error: bad object id %s.", id);
+        }
+        return id;
+    }
+
+    /**
+     * Split LINE into two words.
+     * Throws a GitletException if LINE is not made of two words.
+     */
+    static String[] split(String line) {
+        String[] words = line == null ? new String[0] : line.split(" ", 2);
+        if (words.length != 2) {
+            throw error("Protocol error: unexpected %s.", line);
+        }
+        return words;
+    }
+
+    /**
+     * Return the argument of LINE, which must be "KEYWORD ARGUMENT".
+     * Throws a GitletException otherwise.
+     */
+    static String argument(String line, String keyword) {
+        String[] words = split(line);
+        if (!words[0].equals(keyword)) {
+            throw error("Protocol error: unexpected %s.", line);
+        }
+        return words[1];
+    }
+}
@@ -0,0 +1,75 @@
+package gitlet;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Cache.*;
+import static gitlet.Repository.shallowFile;
+
+/**
+ * This class houses static methods that related to the shallow boundaries of the repository:
+ * the commits fetched with `fetch --depth` whose parents are not fetched.
+ * They are listed in the .gitlet/shallow file, one ID per line, which does not exist
+ * if the history is complete. Walks of the history treat a shallow boundary as a root commit.
+ * This class will never be instantiated since there are only static methods.
+ *
+ * @author XIE Changyuan
+ */
+public class Shallow {
+
+    /* STATIC METHODS */
+
+    /** Load the shallow boundaries from the shallow file. Invoked by the Cache class. */
+    static Set<String> loadShallow() {
+        Set<String> shallow = new TreeSet<>();
+        String content = currJournal().readReference(shallowFile());
+        if (content == null) {
+            return shallow;
+        } // Special case: the history is complete.
+        for (String line : content.split("\n")) {
+            if (!line.isEmpty()) {
+                shallow.add(line);
+            }
+        }
+        return shallow;
+    }
+
+    /** Record the shallow boundaries for writing back, deleting the shallow file if there is none. */
+    static void writeShallow(Set<String> shallow) {
+        if (shallow.isEmpty()) {
+            currJournal().recordDelete(shallowFile());
+        } else {
+            currJournal().recordWrite(shallowFile(), String.join("\n", shallow) + "\n");
+        }
+    }
+
+    /** Return true if the commit with designated ID is a shallow boundary. */
+    static boolean isShallow(String commitID) {
+        return getShallow().contains(commitID);
+    }
+
+    /**
+     * Update the shallow boundaries after a fetch.
+     * The new boundaries are the old ones and the designated candidates,
+     * except those whose parents are all in the object database now.
+     */
+    static void updateShallow(Collection<String> candidates) {
+        Set<String> shallow = new TreeSet<>(getShallow());
+        shallow.addAll(candidates);
+        ObjectDatabase objects = currObjectDatabase();
+        shallow.removeIf(commitID -> {
+            Commit commit = (Commit) objects.get(commitID);
+            return commit == null || (hasParent(objects, commit.getParentCommitID())
+                    && hasParent(objects, commit.getParentMergeCommitID()));
+        });
+        cacheShallow(shallow);
+    }
+
+    /* HELPER METHODS */
+
+    /** Return true if the parent with designated ID is in the object database, or there is no such parent. */
+    private static boolean hasParent(ObjectDatabase objects, String parentID) {
+        return parentID == null || parentID.equals("") || objects.contains(parentID);
+    }
+}
@@ -4,10 +4,8 @@ import java.util.List;
 
 import static gitlet.Blob.mkBlob;
 import static gitlet.Cache.*;
-import static gitlet.Repository.STAGE;
+import static gitlet.Repository.stageFile;
 import static gitlet.Tree.mkNewEmptyTree;
-import static gitlet.Utils.readContentsAsString;
-import static gitlet.Utils.writeContents;
 
 /**
  * This class houses static methods that related to Stage (the staging area).
@@ -25,7 +23,7 @@ public class Stage {
      * Return the ID of the current staging area (a Tree object). Invoked by the Cache class.
      */
     static String loadStageID() {
-        return readContentsAsString(STAGE);
+        return currJournal().readReference(stageFile());
     }
 
     /**
@@ -54,10 +52,10 @@ public class Stage {
     }
 
     /**
-     * Write the stage ID in cache back to filesystem. Invoked by the Cache class.
+     * Record the stage ID in cache for writing back to filesystem. Invoked by the Cache class.
      */
     static void writeStageID(String newStagID) {
-        writeContents(STAGE, newStagID);
+        currJournal().recordWrite(stageFile(), newStagID);
     }
 
     /**
@@ -0,0 +1,110 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static gitlet.Cache.*;
+import static gitlet.Repository.indexFile;
+import static gitlet.Utils.*;
+
+/**
+ * This class houses static methods related to the stat index: the size, the modification time and
+ * the Blob ID of the working files that Gitlet wrote or read, in the .gitlet/index file, one file per line.
+ * A working file whose size and modification time match its entry still holds that Blob,
+ * so its ID is known without reading and hashing the file (see Blob.currFileID()).
+ * An entry is only a hint: a file without a matching entry is simply hashed.
+ *
+ * An entry that is not older than the index file itself is not trusted (the file is "racily clean"),
+ * since the file may have been changed again within the same tick of the file system clock.
+ * This class will never be instantiated since there are only static methods.
+ *
+ * @author XIE Changyuan
+ */
+public class StatIndex {
+
+    /** The size, the modification time and the Blob ID of a working file. */
+    static final class Entry {
+        private final long _size;
+        private final long _modified;
+        private final String _blobID;
+
+        Entry(long size, long modified, String blobID) {
+            _size = size;
+            _modified = modified;
+            _blobID = blobID;
+        }
+
+        /** Return true if FILE still has the size and the modification time of this entry. */
+        boolean matches(File file) {
+            return file.length() == _size && file.lastModified() == _modified;
+        }
+    }
+
+    /* STATIC METHODS */
+
+    /**
+     * Load the entries of the index file, keyed by file name. Invoked by the Cache class,
+     * which takes the modification time of the index file beforehand.
+     * The entries may be recorded by several threads at once (see Checkout).
+     */
+    static Map<String, Entry> loadStatIndex() {
+        Map<String, Entry> index = new ConcurrentSkipListMap<>();
+        if (!indexFile().isFile()) {
+            return index;
+        } // Special case: no file was written or read yet.
+        for (String line : readContentsAsString(indexFile()).split("\n")) {
+            String[] fields = line.split(" ", 4);
+            if (fields.length == 4) {
+                index.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Write the index file. The index is a cache rather than a reference: it is neither read nor written
+     * through the journal, so a concurrent process updating it is never a conflict, and it is replaced
+     * atomically on its own, so a reader sees either index whole.
+     */
+    static void writeStatIndex(Map<String, Entry> index) {
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, Entry> entry : index.entrySet()) {
+            Entry stat = entry.getValue();
+            content.append(stat._size).append(' ').append(stat._modified).append(' ')
+                    .append(stat._blobID).append(' ').append(entry.getKey()).append('\n');
+        }
+        writeContentsAtomically(indexFile(), content.toString());
+    }
+
+    /**
+     * Return the ID of the Blob held by the working FILE with designated name according to the index,
+     * or null if the index does not know the file as it is now.
+     */
+    static String lookup(String fileName, File file) {
+        Entry entry = getStatIndex().get(fileName);
+        if (entry == null || entry._modified >= getStatIndexModified() || !entry.matches(file)) {
+            return null;
+        } // Special case: a racily clean entry may not describe the current contents.
+        return entry._blobID;
+    }
+
+    /**
+     * Return the entry of the working FILE holding the Blob with designated ID.
+     * The file must be stat-ed before its contents are read, or after they are written,
+     * so that a later change always shows up as a newer modification time.
+     */
+    static Entry stat(File file, String blobID) {
+        return new Entry(file.length(), file.lastModified(), blobID);
+    }
+
+    /** Record the entry of the working file with designated name. */
+    static void record(String fileName, Entry entry) {
+        cacheStatEntry(fileName, entry);
+    }
+
+    /** Forget the working file with designated name, after it is deleted. */
+    static void forget(String fileName) {
+        cacheStatEntry(fileName, null);
+    }
+}
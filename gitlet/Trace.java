@@ -0,0 +1,213 @@
+package gitlet;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static gitlet.Utils.*;
+
+/**
+ * This class houses static methods of the opt-in tracing of a Gitlet process: the wall time spent in every
+ * phase (e.g. loading objects, hashing working files, writing back), and counters of objects loaded and written,
+ * bytes read and written, SHA-1 invocations and object cache hits, printed as a JSON summary at exit.
+ *
+ * Tracing is enabled by the GITLET_TRACE environment variable, or by --trace before the command.
+ * The summary goes to the standard error, or to the file named by GITLET_TRACE if it is not "1".
+ * When tracing is disabled, which is the default, a counter costs a test of a static field
+ * and a phase returns a shared object that records nothing, so the instrumented code runs as before.
+ *
+ * Phases may nest, and the time of a phase includes the phases within it. A phase that runs on several threads
+ * at once (e.g. loading objects during a parallel checkout) sums the time of every thread, and may exceed
+ * the wall time of the whole command.
+ * This class will never be instantiated since there are only static methods.
+ *
+ * @author XIE Changyuan
+ */
+public class Trace {
+
+    /** The environment variable that enables tracing. */
+    static final String TRACE_ENV = "GITLET_TRACE";
+    /** The flag that enables tracing, given before the command. */
+    static final String TRACE_FLAG = "--trace";
+
+    /** The events counted while tracing. */
+    enum Counter {
+        OBJECTS_LOADED("objectsLoaded"),
+        OBJECTS_WRITTEN("objectsWritten"),
+        BYTES_READ("bytesRead"),
+        BYTES_WRITTEN("bytesWritten"),
+        SHA1("sha1"),
+        CACHE_HITS("cacheHits"),
+        CACHE_MISSES("cacheMisses");
+
+        /** The name of the counter in the summary. */
+        private final String _name;
+        /** The count, which many threads may add to at once. */
+        private final LongAdder _count = new LongAdder();
+
+        Counter(String name) {
+            _name = name;
+        }
+    }
+
+    /** A phase being timed, closed when it ends. */
+    static final class Phase implements AutoCloseable {
+        /** The phase returned when tracing is disabled, which records nothing. */
+        private static final Phase NONE = new Phase(null);
+
+        private final String _name;
+        private final long _start;
+
+        private Phase(String name) {
+            _name = name;
+            _start = name == null ? 0 : System.nanoTime();
+        }
+
+        /** Add the time since the phase started to its total. */
+        @Override
+        public void close() {
+            if (_name != null) {
+                LongAdder[] phase = PHASES.computeIfAbsent(_name,
+                        k -> new LongAdder[]{new LongAdder(), new LongAdder()});
+                phase[0].add(System.nanoTime() - _start);
+                phase[1].increment();
+            }
+        }
+    }
+
+    /** Whether tracing is enabled. Set before the command starts, and never changed while it runs. */
+    private static boolean enabled = false;
+    /** The total time in nanoseconds and the number of runs of every phase, keyed by name. */
+    private static final ConcurrentMap<String, LongAdder[]> PHASES = new ConcurrentHashMap<>();
+    /** The command traced. */
+    private static String tracedCommand = null;
+    /** The time the command started, from System.nanoTime(). */
+    private static long startTime = 0;
+    /** The milliseconds from the start of the JVM to the start of the command. */
+    private static long jvmStartMillis = 0;
+
+    /* STATIC METHODS */
+
+    /**
+     * Enable tracing if the --trace flag (before the command) or the GITLET_TRACE environment variable asks for it,
+     * and print the summary when the process exits, however it exits.
+     * @return the arguments without the --trace flag
+     */
+    static String[] start(String[] args) {
+        String destination = System.getenv(TRACE_ENV);
+        if (args.length > 0 && args[0].equals(TRACE_FLAG)) {
+            String[] rest = new String[args.length - 1];
+            System.arraycopy(args, 1, rest, 0, rest.length);
+            args = rest;
+            destination = destination == null ? "1" : destination;
+        } // Special case: the flag prints the summary to the standard error, unless the variable names a file.
+        if (destination == null || destination.isEmpty() || tracedCommand != null) {
+            return args;
+        } // Special case: tracing is disabled, or started already by an earlier command in this JVM.
+        tracedCommand = args.length > 0 ? args[0] : "";
+        jvmStartMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        startTime = System.nanoTime();
+        enabled = true;
+        String target = destination;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> report(target)));
+        return args;
+    }
+
+    /** Enable tracing without a summary at exit. Used for testing proposes. */
+    static void enable() {
+        startTime = System.nanoTime();
+        enabled = true;
+    }
+
+    /** Disable tracing and reset all phases and counters. Used for testing proposes. */
+    static void disable() {
+        enabled = false;
+        PHASES.clear();
+        for (Counter counter : Counter.values()) {
+            counter._count.reset();
+        }
+    }
+
+    /** Return whether tracing is enabled. */
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start timing the phase with designated name, which ends when the returned Phase is closed:
+     * try (Trace.Phase phase = Trace.phase("name")) { ... }
+     * As the phase is never referenced in the block, the enclosing method carries @SuppressWarnings("try").
+     */
+    static Phase phase(String name) {
+        return enabled ? new Phase(name) : Phase.NONE;
+    }
+
+    /** Add N to a counter. */
+    static void count(Counter counter, long n) {
+        if (enabled) {
+            counter._count.add(n);
+        }
+    }
+
+    /** Return the count of a counter. */
+    static long get(Counter counter) {
+        return counter._count.sum();
+    }
+
+    /**
+     * Return the summary as a JSON object: the command, its wall time and the time the JVM took to start it,
+     * the time and the number of runs of every phase, every counter, and the hit rate of the object cache.
+     */
+    static String summary() {
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"command\":\"").append(tracedCommand == null ? "" : escape(tracedCommand)).append("\",");
+        json.append("\"wallMs\":").append(millis(System.nanoTime() - startTime)).append(',');
+        json.append("\"jvmStartMs\":").append(jvmStartMillis).append(',');
+        json.append("\"phases\":{");
+        String separator = "";
+        for (Map.Entry<String, LongAdder[]> phase : new TreeMap<>(PHASES).entrySet()) {
+            json.append(separator).append('"').append(escape(phase.getKey())).append("\":{\"ms\":")
+                    .append(millis(phase.getValue()[0].sum())).append(",\"runs\":")
+                    .append(phase.getValue()[1].sum()).append('}');
+            separator = ",";
+        }
+        json.append("},");
+        for (Counter counter : Counter.values()) {
+            json.append('"').append(counter._name).append("\":").append(counter._count.sum()).append(',');
+        }
+        long hits = get(Counter.CACHE_HITS);
+        long lookups = hits + get(Counter.CACHE_MISSES);
+        json.append("\"cacheHitRate\":")
+                .append(String.format(Locale.ROOT, "%.3f", lookups == 0 ? 0.0 : (double) hits / lookups));
+        return json.append('}').toString();
+    }
+
+    /* HELPER METHODS */
+
+    /** Print the summary to the standard error if DESTINATION is "1", or write it to the file it names. */
+    private static void report(String destination) {
+        String summary = summary() + "\n";
+        enabled = false;
+        if (destination.equals("1")) {
+            System.err.print(summary);
+            System.err.flush();
+        } else {
+            writeContents(new File(destination), summary);
+        } // Special case: the summary of a command whose standard error is its output goes to a file.
+    }
+
+    /** Return nanoseconds as milliseconds with three decimals. */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    /** Escape a String for a JSON string literal. */
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
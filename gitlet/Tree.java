@@ -1,9 +1,11 @@
 package gitlet;
 
+import java.io.File;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 
 import static gitlet.Cache.*;
@@ -100,6 +102,41 @@ public class Tree extends HashObject implements Iterable<String> {
         return Cache.getBlob(getBlobID(fileName));
     }
 
+    /**
+     * Return the first file name of this Tree that would not resolve to a path
+     * under the working directory, or null if there is none.
+     */
+    String unsafeFileName() {
+        for (String fileName : _structure.keySet()) {
+            if (!isSafeFileName(fileName)) {
+                return fileName;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return true if a file name resolves to a path under the working directory:
+     * a non-empty relative name with no backslash and no ".." component.
+     */
+    static boolean isSafeFileName(String fileName) {
+        if (fileName.isEmpty() || fileName.contains("\\") || new File(fileName).isAbsolute()
+                || fileName.startsWith("/")) {
+            return false;
+        }
+        for (String component : fileName.split("/")) {
+            if (component.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the fileName - blobID entries of this Tree, sorted by file name. */
+    Iterable<Map.Entry<String, String>> entries() {
+        return Collections.unmodifiableMap(_structure).entrySet();
+    }
+
     @Override
     public Iterator<String> iterator() {
         return _structure.keySet().iterator();
@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static gitlet.Cache.getTree;
+
+/**
+ * This class represents a change of one path between two Trees, and houses the static methods
+ * that diff two Trees: the paths added, removed, or mapped to another Blob.
+ *
+ * The entries of a Tree are sorted by file name, so two Trees are diffed in one merge-join pass
+ * over their entries, comparing Blob IDs without any lookup. Two Trees with the same ID have no change,
+ * which is known without reading them.
+ *
+ * @author XIE Changyuan
+ */
+public class TreeDiff {
+
+    /** The path that changes. */
+    private final String _fileName;
+    /** The ID of the Blob in the old Tree, null if the path is added. */
+    private final String _oldBlobID;
+    /** The ID of the Blob in the new Tree, null if the path is removed. */
+    private final String _newBlobID;
+
+    /** Construct the change of a path from one Blob to another. */
+    private TreeDiff(String fileName, String oldBlobID, String newBlobID) {
+        _fileName = fileName;
+        _oldBlobID = oldBlobID;
+        _newBlobID = newBlobID;
+    }
+
+    String getFileName() {
+        return _fileName;
+    }
+    String getOldBlobID() {
+        return _oldBlobID;
+    }
+    String getNewBlobID() {
+        return _newBlobID;
+    }
+    boolean isAdded() {
+        return _oldBlobID == null;
+    }
+    boolean isRemoved() {
+        return _newBlobID == null;
+    }
+    boolean isModified() {
+        return _oldBlobID != null && _newBlobID != null;
+    }
+
+    @Override
+    public String toString() {
+        String kind = isAdded() ? "added" : isRemoved() ? "removed" : "modified";
+        return _fileName + " (" + kind + ")";
+    }
+
+    /* STATIC METHODS */
+
+    /**
+     * Diff the Trees with designated IDs, either of which may be null for an empty Tree.
+     * Special case: Trees with the same ID are not read.
+     * @return the changes from the old Tree to the new one, sorted by file name
+     */
+    static List<TreeDiff> diff(String oldTreeID, String newTreeID) {
+        if (Objects.equals(oldTreeID, newTreeID)) {
+            return new ArrayList<>();
+        }
+        return diff(oldTreeID == null ? null : getTree(oldTreeID), newTreeID == null ? null : getTree(newTreeID));
+    }
+
+    /**
+     * Diff two Trees, either of which may be null for an empty Tree, in one merge-join pass over their entries.
+     * @return the changes from the old Tree to the new one, sorted by file name
+     */
+    static List<TreeDiff> diff(Tree oldTree, Tree newTree) {
+        List<TreeDiff> changes = new ArrayList<>();
+        if (oldTree == newTree) {
+            return changes;
+        } // Special case: the same Tree (the cache holds one instance per ID) has no change.
+        Iterator<Map.Entry<String, String>> olds = entries(oldTree);
+        Iterator<Map.Entry<String, String>> news = entries(newTree);
+        Map.Entry<String, String> oldEntry = next(olds);
+        Map.Entry<String, String> newEntry = next(news);
+        while (oldEntry != null || newEntry != null) {
+            int order = oldEntry == null ? 1 : newEntry == null ? -1
+                    : oldEntry.getKey().compareTo(newEntry.getKey());
+            if (order < 0) {
+                changes.add(new TreeDiff(oldEntry.getKey(), oldEntry.getValue(), null));
+                oldEntry = next(olds);
+            } else if (order > 0) {
+                changes.add(new TreeDiff(newEntry.getKey(), null, newEntry.getValue()));
+                newEntry = next(news);
+            } else {
+                if (!oldEntry.getValue().equals(newEntry.getValue())) {
+                    changes.add(new TreeDiff(oldEntry.getKey(), oldEntry.getValue(), newEntry.getValue()));
+                }
+                oldEntry = next(olds);
+                newEntry = next(news);
+            }
+        }
+        return changes;
+    }
+
+    /* HELPER METHODS */
+
+    /** Return the sorted entries of a Tree, none if it is null. */
+    static Iterator<Map.Entry<String, String>> entries(Tree tree) {
+        return tree == null ? new Tree().entries().iterator() : tree.entries().iterator();
+    }
+
+    /** Return the next entry, or null if there is none. */
+    static Map.Entry<String, String> next(Iterator<Map.Entry<String, String>> entries) {
+        return entries.hasNext() ? entries.next() : null;
+    }
+}
@@ -1,22 +1,34 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.ObjectInputFilter;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Formatter;
 import java.util.List;
+import java.util.UUID;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 
 /** Assorted utilities.
@@ -36,6 +48,7 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        Trace.count(Trace.Counter.SHA1, 1);
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
@@ -98,7 +111,9 @@ class Utils {
             throw new IllegalArgumentException("must be a normal file");
         }
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            Trace.count(Trace.Counter.BYTES_READ, bytes.length);
+            return bytes;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -124,11 +139,10 @@ class Utils {
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] bytes = obj instanceof byte[] ? (byte[]) obj
+                        : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(bytes);
+                Trace.count(Trace.Counter.BYTES_WRITTEN, bytes.length);
             }
             str.close();
         } catch (IOException | ClassCastException excp) {
@@ -137,19 +151,11 @@ class Utils {
     }
 
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
+     *  FILE may be compressed (see compress).
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
-        try {
-            ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
-            T result = expectedClass.cast(in.readObject());
-            in.close();
-            return result;
-        } catch (IOException | ClassCastException
-                 | ClassNotFoundException excp) {
-            throw new IllegalArgumentException(excp.getMessage());
-        }
+        return deserialize(readContents(file), expectedClass);
     }
 
     /** Write OBJ to FILE. */
@@ -204,6 +210,146 @@ class Utils {
         return Paths.get(first.getPath(), others).toFile();
     }
 
+    /* CRASH-SAFE FILE UTILITIES */
+
+    /** The prefix of temporary files.  No object, branch or other file
+     *  in a .gitlet directory starts with it. */
+    static final String TEMP_PREFIX = "tmp_";
+
+    /** Return a fresh temporary file in the same directory as FILE, so that
+     *  it can later be renamed over FILE atomically. */
+    static File tempFileFor(File file) {
+        return new File(file.getParentFile(),
+                TEMP_PREFIX + file.getName() + "_" + UUID.randomUUID());
+    }
+
+    /** Flush the contents of FILE to the storage device.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void syncFile(File file) {
+        try (FileChannel channel =
+                     FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Flush the entries of directory DIR to the storage device, so that
+     *  renames into DIR survive a crash.  Some platforms cannot open a
+     *  directory for syncing; this is silently skipped there. */
+    static void syncDirectory(File dir) {
+        try (FileChannel channel =
+                     FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            // Best effort: not supported on this platform.
+        }
+    }
+
+    /** Rename FROM to TO, replacing TO if it exists.  Readers of TO observe
+     *  either its old or its new contents, never a partial file.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void atomicMove(File from, File to) {
+        try {
+            try {
+                Files.move(from.toPath(), to.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(from.toPath(), to.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Replace the contents of FILE with the concatenation of CONTENTS (as for
+     *  writeContents) in a crash-safe manner: the new contents are written to
+     *  a temporary file, synced, and renamed over FILE. */
+    static void writeContentsAtomically(File file, Object... contents) {
+        File temp = tempFileFor(file);
+        writeContents(temp, contents);
+        syncFile(temp);
+        atomicMove(temp, file);
+        syncDirectory(file.getParentFile());
+    }
+
+    /** The size of the chunks read backwards by appendLines to find the
+     *  end of the last whole line. */
+    private static final int TAIL_CHUNK = 4096;
+
+    /** Append LINES, each ended by a newline, to FILE, creating it as needed.
+     *  The appends of all processes are serialized by a lock on FILE, and a
+     *  partial line left by an append torn by a crash is cut off first, so
+     *  the appended lines never join it (see readCompleteLines).  FILE is not
+     *  synced: this is meant for caches, which may lose their last lines.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void appendLines(File file, String lines) {
+        ByteBuffer bytes = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.lock(); // Closing the channel releases its lock.
+            long end = channel.size();
+            ByteBuffer chunk = ByteBuffer.allocate(TAIL_CHUNK);
+            search:
+            while (end > 0) {
+                long start = Math.max(0, end - TAIL_CHUNK);
+                chunk.clear().limit((int) (end - start));
+                while (chunk.hasRemaining()) {
+                    if (channel.read(chunk, start + chunk.position()) < 0) {
+                        break;
+                    }
+                }
+                for (int i = chunk.position() - 1; i >= 0; i--) {
+                    if (chunk.get(i) == '\n') {
+                        end = start + i + 1;
+                        break search;
+                    }
+                }
+                end = start;
+            } // Special case: usually the file ends with a newline, which the first chunk finds.
+            if (end < channel.size()) {
+                channel.truncate(end);
+            }
+            Trace.count(Trace.Counter.BYTES_WRITTEN, bytes.remaining());
+            while (bytes.hasRemaining()) {
+                end += channel.write(bytes, end);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the lines of FILE that are ended by a newline, skipping a
+     *  partial last line, or an empty list if FILE does not exist.
+     *  Throws IllegalArgumentException in case of problems. */
+    static List<String> readCompleteLines(File file) {
+        if (!file.isFile()) {
+            return new ArrayList<>();
+        }
+        String content = readContentsAsString(file);
+        content = content.substring(0, content.lastIndexOf('\n') + 1);
+        return content.isEmpty() ? new ArrayList<>() : Arrays.asList(content.split("\n"));
+    }
+
+    /** Make TO a hard link to FROM, so that both names share the same
+     *  contents without copying them.  Only files that are never modified
+     *  once written (objects and packs) may be linked.  An existing TO is
+     *  kept, since such files are content-addressed.  Return false if the
+     *  file system cannot link them, e.g. FROM and TO are on different
+     *  file systems. */
+    static boolean linkFile(File from, File to) {
+        try {
+            Files.createLink(to.toPath(), from.toPath());
+        } catch (FileAlreadyExistsException excp) {
+            return true;
+        } catch (IOException | UnsupportedOperationException | SecurityException excp) {
+            return false;
+        }
+        return true;
+    }
+
 
     /* SERIALIZATION UTILITIES */
 
@@ -220,6 +366,101 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  BYTES may be compressed (see compress).
+     *  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        return deserialize(bytes, expectedClass, null);
+    }
+
+    /** Return an object of type T deserialized from BYTES as above, refusing
+     *  the classes, depths and array sizes that FILTER rejects, as bytes from
+     *  an untrusted source must be.  A null FILTER accepts everything.
+     *  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass,
+                                                  ObjectInputFilter filter) {
+        if (isCompressed(bytes)) {
+            bytes = decompress(bytes);
+        }
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            if (filter != null) {
+                in.setObjectInputFilter(filter);
+            }
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* COMPRESSION UTILITIES */
+
+    /** Returns BYTES compressed as a zlib stream.  Compression favors speed
+     *  over ratio. */
+    static byte[] compress(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(bytes.length / 2 + 16);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            stream.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return stream.toByteArray();
+    }
+
+    /** Returns the bytes of the zlib stream BYTES after decompression.
+     *  Throws IllegalArgumentException in case of problems. */
+    static byte[] decompress(byte[] bytes) {
+        return decompress(bytes, Integer.MAX_VALUE);
+    }
+
+    /** Returns the bytes of the zlib stream BYTES after decompression, which
+     *  must be at most MAXLENGTH bytes, guarding against a stream that
+     *  inflates without bound.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static byte[] decompress(byte[] bytes, int maxLength) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(bytes);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream((int) Math.min(bytes.length * 2L, maxLength));
+        byte[] buffer = new byte[8192];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("truncated compressed data");
+                }
+                if (n > maxLength - stream.size()) {
+                    throw new IllegalArgumentException("decompressed data too long");
+                }
+                stream.write(buffer, 0, n);
+            }
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return stream.toByteArray();
+    }
+
+    /** Returns true if BYTES starts with a zlib header.  A serialized Java
+     *  object never does, since it starts with 0xACED. */
+    static boolean isCompressed(byte[] bytes) {
+        if (bytes.length < 2) {
+            return false;
+        }
+        int cmf = bytes[0] & 0xFF;
+        int flg = bytes[1] & 0xFF;
+        return (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
@@ -0,0 +1,221 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+
+import static gitlet.Utils.*;
+
+/**
+ * This class represents the pipeline that writes new HashObjects to an object database
+ * in a bounded, asynchronous manner. Every ObjectDatabase has its own pipeline,
+ * while the threads of the stages are shared by all pipelines.
+ *
+ * The pipeline has two stages:
+ * 1. Encoding: a pool of worker threads serializes and compresses each submitted HashObject.
+ * 2. Writing: a single I/O thread writes the encoded objects to temporary files.
+ * An object is submitted as soon as it is queued for writing, so encoding overlaps with
+ * the rest of the command. Back-pressure keeps the memory bounded: at most MAX_IN_FLIGHT
+ * objects may be submitted but not yet written, and the encoders block when the
+ * writer's queue is full.
+ * The await() method is the single barrier of the write back: it waits for both stages to drain,
+ * syncs the temporary files written since the last barrier as one batch, renames them into place,
+ * and syncs each touched directory once. The syncs of a batch are issued at once from the encoding threads,
+ * which are idle at the barrier, so the filesystem can group them into shared journal commits
+ * instead of the writer paying one full sync after another.
+ * References must only be updated after await() returns.
+ *
+ * @author XIE Changyuan
+ */
+public class WriteBackPipeline {
+
+    /** The number of encoding threads. */
+    private static final int ENCODERS = Runtime.getRuntime().availableProcessors();
+    /** The capacity of the queue between the encoding and the writing stage. */
+    private static final int QUEUE_CAPACITY = 64;
+    /** The maximum number of objects that are submitted but not yet written. */
+    private static final int MAX_IN_FLIGHT = 256;
+
+    /** An encoded HashObject waiting to be written to its TARGET file by its PIPELINE. */
+    private static class Encoded {
+        private final WriteBackPipeline _pipeline;
+        private final File _target;
+        private final byte[] _bytes;
+
+        Encoded(WriteBackPipeline pipeline, File target, byte[] bytes) {
+            _pipeline = pipeline;
+            _target = target;
+            _bytes = bytes;
+        }
+    }
+
+    /** The encoding stage. Started lazily upon the first submission. */
+    private static ExecutorService encoders = null;
+    /** The queue feeding the writing stage. */
+    private static final BlockingQueue<Encoded> ENCODED_QUEUE =
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /** Bounds the number of objects in this pipeline. */
+    private final Semaphore _inFlight = new Semaphore(MAX_IN_FLIGHT);
+    /** Every submitted object is a party that arrives once it is written (or has failed). */
+    private final Phaser _barrier = new Phaser(1);
+    /** Target files submitted since the last barrier. */
+    private final Set<File> _submitted = ConcurrentHashMap.newKeySet();
+    /** Temporary files written since the last barrier, paired with their targets. */
+    private final List<File[]> _written = new ArrayList<>();
+    /** The first failure of a pipeline thread since the last barrier. */
+    private volatile RuntimeException _failure = null;
+
+    /**
+     * Submit a HashObject to be written to the TARGET file.
+     * Blocks if too many objects are already in the pipeline.
+     * Submitting the same target twice before a barrier has no effect.
+     */
+    void submit(File target, HashObject object) {
+        if (!_submitted.add(target)) {
+            return;
+        } // Special case: the object is already in the pipeline.
+        startStages();
+        _inFlight.acquireUninterruptibly();
+        _barrier.register();
+        encoders.execute(() -> encode(target, object));
+    }
+
+    /**
+     * The barrier of the write back.
+     * 1. Wait for every submitted object to be encoded and written to a temporary file
+     * 2. Sync the temporary files as one batch (see syncAll())
+     * 3. Atomically rename each temporary file to its target
+     * 4. Sync each touched directory once
+     * Throws a GitletException if any object could not be written.
+     */
+    synchronized void await() {
+        _barrier.arriveAndAwaitAdvance();
+        List<File[]> written;
+        synchronized (_written) {
+            written = new ArrayList<>(_written);
+            _written.clear();
+        }
+        _submitted.clear();
+        if (_failure != null) {
+            RuntimeException excp = _failure;
+            _failure = null;
+            throw error("Failed to write objects: %s", excp.getMessage());
+        }
+        syncAll(written);
+        Set<File> folders = new HashSet<>();
+        for (File[] pair : written) {
+            atomicMove(pair[0], pair[1]);
+            folders.add(pair[1].getParentFile());
+        }
+        for (File folder : folders) {
+            syncDirectory(folder);
+        }
+    }
+
+    /* HELPER METHODS */
+
+    /** Start the encoding threads and the writing thread shared by all pipelines, if not started yet. */
+    private static synchronized void startStages() {
+        if (encoders != null) {
+            return;
+        }
+        encoders = Executors.newFixedThreadPool(ENCODERS, runnable -> {
+            Thread thread = new Thread(runnable, "gitlet-encoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread writer = new Thread(WriteBackPipeline::writeLoop, "gitlet-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** The encoding stage: serialize and compress OBJECT, then hand it to the writer. */
+    @SuppressWarnings("try")
+    private void encode(File target, HashObject object) {
+        try (Trace.Phase phase = Trace.phase("encodeObject")) {
+            byte[] bytes = compress(serialize(object));
+            ENCODED_QUEUE.put(new Encoded(this, target, bytes));
+        } catch (RuntimeException | InterruptedException excp) {
+            fail(excp);
+        }
+    }
+
+    /** The writing stage: write encoded objects to temporary files in arrival order. */
+    private static void writeLoop() {
+        while (true) {
+            Encoded encoded;
+            try {
+                encoded = ENCODED_QUEUE.take();
+            } catch (InterruptedException excp) {
+                return;
+            }
+            WriteBackPipeline pipeline = encoded._pipeline;
+            try {
+                encoded._target.getParentFile().mkdirs();
+                File temp = tempFileFor(encoded._target);
+                writeContents(temp, encoded._bytes);
+                Trace.count(Trace.Counter.OBJECTS_WRITTEN, 1);
+                synchronized (pipeline._written) {
+                    pipeline._written.add(new File[]{temp, encoded._target});
+                }
+                pipeline._inFlight.release();
+                pipeline._barrier.arriveAndDeregister();
+            } catch (RuntimeException excp) {
+                pipeline.fail(excp);
+            }
+        }
+    }
+
+    /**
+     * Sync the temporary files of the WRITTEN pairs as one batch: every sync is issued at once
+     * on the encoding threads, and this method returns when all of them are done.
+     * Throws a GitletException if a file could not be synced.
+     */
+    private static void syncAll(List<File[]> written) {
+        if (written.size() < 2) {
+            try {
+                for (File[] pair : written) {
+                    syncFile(pair[0]);
+                }
+            } catch (IllegalArgumentException excp) {
+                throw error("Failed to write objects: %s", excp.getMessage());
+            }
+            return;
+        } // Special case: a single file is synced on this thread.
+        List<Future<?>> syncs = new ArrayList<>(written.size());
+        for (File[] pair : written) {
+            syncs.add(encoders.submit(() -> syncFile(pair[0])));
+        }
+        for (Future<?> sync : syncs) {
+            try {
+                sync.get();
+            } catch (ExecutionException excp) {
+                throw error("Failed to write objects: %s", excp.getCause().getMessage());
+            } catch (InterruptedException excp) {
+                throw error("Failed to write objects: interrupted.");
+            }
+        }
+    }
+
+    /** Record the first failure and let the failed object leave the pipeline. */
+    private void fail(Exception excp) {
+        if (_failure == null) {
+            _failure = excp instanceof RuntimeException
+                    ? (RuntimeException) excp : new RuntimeException(excp);
+        }
+        _inFlight.release();
+        _barrier.arriveAndDeregister();
+    }
+}